@@ -0,0 +1,22 @@
+package org.apache.hadoop.hbase.client;
+
+/**
+ * Decides whether requests may go to the primary cluster.
+ *
+ * A closed breaker lets requests through with the normal hedge delays.  An
+ * open breaker sends requests straight to the failovers until it is time for
+ * a trial request, during which the breaker is half-open.  The trial uses the
+ * normal hedge delays, so it costs no more than a request on a slow primary.
+ */
+public interface CircuitBreaker {
+
+  /**
+   * @return true if the primary should be called, may move an open breaker
+   * to half-open
+   */
+  public boolean allowRequest();
+
+  public void recordSuccess();
+
+  public void recordFailure(Throwable t);
+}
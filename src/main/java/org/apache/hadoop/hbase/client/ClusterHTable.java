@@ -0,0 +1,800 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.Service;
+import com.google.protobuf.ServiceException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.coprocessor.Batch.Call;
+import org.apache.hadoop.hbase.client.coprocessor.Batch.Callback;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.ipc.CoprocessorRpcChannel;
+
+/**
+ * Table of one cluster that any number of threads can call at once.
+ *
+ * HTable instances are not thread-safe, so every call borrows an instance
+ * nobody else is using, creating one from the cluster's connection when none
+ * is idle, and returns it afterwards.  The instances are lightweight since
+ * they share the connection's region cache and pool, so callers never wait
+ * on each other.  Instances always auto-flush; buffering is done by
+ * {@link HTableMultiCluster}.  An instance whose call failed, for example one
+ * interrupted because another cluster answered first, is closed instead of
+ * kept, and at most a bounded number of instances are kept idle.
+ *
+ * Given a {@link ClusterStats}, the table counts and times the gets,
+ * scans, puts, deletes and batches it sends to its cluster.
+ */
+public class ClusterHTable implements HTableInterface {
+
+  static final Log LOG = LogFactory.getLog(ClusterHTable.class);
+
+  final HConnection connection;
+  final TableName tableName;
+  final ExecutorService pool;
+  final ClusterStats stats;
+  final int maxIdleTables;
+  final Queue<HTableInterface> idleTables = new ConcurrentLinkedQueue<HTableInterface>();
+  final AtomicInteger idleCount = new AtomicInteger(0);
+  volatile boolean isClosed = false;
+
+  /**
+   * @param pool the pool of the underlying tables, or null for the
+   * connection's
+   */
+  public ClusterHTable(HConnection connection, TableName tableName, ExecutorService pool) {
+    this(connection, tableName, pool, null);
+  }
+
+  /**
+   * @param pool the pool of the underlying tables, or null for the
+   * connection's
+   * @param stats where the calls to the cluster are counted, or null
+   */
+  public ClusterHTable(HConnection connection, TableName tableName, ExecutorService pool,
+                       ClusterStats stats) {
+    this.connection = connection;
+    this.tableName = tableName;
+    this.pool = pool;
+    this.stats = stats;
+    this.maxIdleTables = connection.getConfiguration().getInt(
+        ConfigConst.HBASE_MULTI_CLUSTER_MAX_IDLE_TABLES_CONFIG, 64);
+  }
+
+  public ClusterStats getStats() {
+    return stats;
+  }
+
+  public HConnection getConnection() {
+    return connection;
+  }
+
+  HTableInterface borrow() throws IOException {
+    if (isClosed) {
+      throw new IOException("Table " + tableName + " is closed");
+    }
+    HTableInterface table = idleTables.poll();
+    if (table != null) {
+      idleCount.decrementAndGet();
+    } else {
+      table = pool == null ? connection.getTable(tableName) : connection.getTable(tableName, pool);
+      table.setAutoFlush(true, true);
+    }
+    return table;
+  }
+
+  /**
+   * @param isFailed whether the call threw; the instance may then still have
+   * operations in flight whose errors its next call would wait for or throw,
+   * so it is closed rather than kept
+   */
+  void release(HTableInterface table, boolean isFailed) {
+    if (isFailed || isClosed) {
+      closeQuietly(table);
+    } else if (idleCount.incrementAndGet() > maxIdleTables) {
+      idleCount.decrementAndGet();
+      closeQuietly(table);
+    } else {
+      idleTables.offer(table);
+    }
+  }
+
+  private void recordError(MultiClusterOperation operation, IOException e) {
+    // an interrupted call was given up on, the cluster did not fail it
+    if (stats != null && !(e instanceof InterruptedIOException)) {
+      stats.recordError(operation);
+    }
+  }
+
+  private void recordRead(MultiClusterOperation operation, Result result, long startNanos) {
+    if (stats != null) {
+      stats.recordSuccess(operation, result == null || result.isEmpty() ? 0 : 1, sizeOf(result),
+          System.nanoTime() - startNanos);
+    }
+  }
+
+  private void recordReads(MultiClusterOperation operation, Result[] results, long startNanos) {
+    if (stats != null) {
+      long rows = 0;
+      long bytes = 0;
+      for (Result result : results) {
+        if (result != null && !result.isEmpty()) {
+          rows++;
+          bytes += sizeOf(result);
+        }
+      }
+      stats.recordSuccess(operation, rows, bytes, System.nanoTime() - startNanos);
+    }
+  }
+
+  private void recordWrites(MultiClusterOperation operation, List<? extends Mutation> mutations,
+                            long startNanos) {
+    if (stats != null) {
+      long bytes = 0;
+      for (Mutation mutation : mutations) {
+        bytes += sizeOf(mutation);
+      }
+      stats.recordSuccess(operation, mutations.size(), bytes, System.nanoTime() - startNanos);
+    }
+  }
+
+  private void recordWrite(MultiClusterOperation operation, Mutation mutation, long startNanos) {
+    if (stats != null) {
+      stats.recordSuccess(operation, 1, sizeOf(mutation), System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Counts the actions that succeeded, with the cells read by gets and the
+   * cells written by mutations.
+   */
+  private void recordBatch(MultiClusterOperation operation, List<? extends Row> actions,
+                           Object[] results, long startNanos) {
+    if (stats != null) {
+      long rows = 0;
+      long bytes = 0;
+      for (int i = 0; i < actions.size(); i++) {
+        Object result = results[i];
+        if (result == null || result instanceof Throwable) {
+          continue;
+        }
+        Row action = actions.get(i);
+        if (action instanceof Mutation) {
+          rows++;
+          bytes += sizeOf((Mutation)action);
+        } else if (result instanceof Result && !((Result)result).isEmpty()) {
+          rows++;
+          bytes += sizeOf((Result)result);
+        }
+      }
+      stats.recordSuccess(operation, rows, bytes, System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * @return GET_LIST for a batch of gets only, DELETE_LIST for one of
+   * deletes only, PUT_LIST otherwise
+   */
+  static MultiClusterOperation operationOf(List<? extends Row> actions) {
+    boolean isAllGets = true;
+    boolean isAllDeletes = true;
+    for (Row action : actions) {
+      isAllGets &= action instanceof Get;
+      isAllDeletes &= action instanceof Delete;
+    }
+    if (isAllGets && !actions.isEmpty()) {
+      return MultiClusterOperation.GET_LIST;
+    }
+    return isAllDeletes && !actions.isEmpty() ?
+        MultiClusterOperation.DELETE_LIST : MultiClusterOperation.PUT_LIST;
+  }
+
+  static long sizeOf(Result result) {
+    Cell[] cells = result == null ? null : result.rawCells();
+    if (cells == null) {
+      return 0;
+    }
+    long bytes = 0;
+    for (Cell cell : cells) {
+      bytes += sizeOf(cell);
+    }
+    return bytes;
+  }
+
+  static long sizeOf(Mutation mutation) {
+    long bytes = 0;
+    for (List<Cell> cells : mutation.getFamilyCellMap().values()) {
+      for (Cell cell : cells) {
+        bytes += sizeOf(cell);
+      }
+    }
+    return bytes;
+  }
+
+  private static long sizeOf(Cell cell) {
+    return cell.getRowLength() + cell.getFamilyLength() + cell.getQualifierLength()
+        + cell.getValueLength();
+  }
+
+  private static void closeQuietly(HTableInterface table) {
+    try {
+      table.close();
+    } catch (IOException e) {
+      LOG.debug("Exception while closing a table", e);
+    }
+  }
+
+  public byte[] getTableName() {
+    return tableName.getName();
+  }
+
+  public TableName getName() {
+    return tableName;
+  }
+
+  public Configuration getConfiguration() {
+    return connection.getConfiguration();
+  }
+
+  public HTableDescriptor getTableDescriptor() throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      HTableDescriptor result = table.getTableDescriptor();
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public boolean exists(Get get) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      boolean exists = table.exists(get);
+      if (stats != null) {
+        stats.recordSuccess(MultiClusterOperation.GET, exists ? 1 : 0, 0,
+            System.nanoTime() - startNanos);
+      }
+      isFailed = false;
+      return exists;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.GET, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public Boolean[] exists(List<Get> gets) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Boolean[] exists = table.exists(gets);
+      if (stats != null) {
+        long rows = 0;
+        for (Boolean isFound : exists) {
+          if (Boolean.TRUE.equals(isFound)) {
+            rows++;
+          }
+        }
+        stats.recordSuccess(MultiClusterOperation.GET_LIST, rows, 0,
+            System.nanoTime() - startNanos);
+      }
+      isFailed = false;
+      return exists;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.GET_LIST, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public void batch(List<? extends Row> actions, Object[] results)
+      throws IOException, InterruptedException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      table.batch(actions, results);
+      recordBatch(operationOf(actions), actions, results, startNanos);
+      isFailed = false;
+    } catch (IOException e) {
+      recordError(operationOf(actions), e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  @Deprecated
+  public Object[] batch(List<? extends Row> actions) throws IOException, InterruptedException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Object[] results = table.batch(actions);
+      recordBatch(operationOf(actions), actions, results, startNanos);
+      isFailed = false;
+      return results;
+    } catch (IOException e) {
+      recordError(operationOf(actions), e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public <R> void batchCallback(List<? extends Row> actions, Object[] results,
+                                Callback<R> callback) throws IOException, InterruptedException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      table.batchCallback(actions, results, callback);
+      recordBatch(operationOf(actions), actions, results, startNanos);
+      isFailed = false;
+    } catch (IOException e) {
+      recordError(operationOf(actions), e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  @Deprecated
+  public <R> Object[] batchCallback(List<? extends Row> actions, Callback<R> callback)
+      throws IOException, InterruptedException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Object[] results = table.batchCallback(actions, callback);
+      recordBatch(operationOf(actions), actions, results, startNanos);
+      isFailed = false;
+      return results;
+    } catch (IOException e) {
+      recordError(operationOf(actions), e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public Result get(Get get) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Result result = table.get(get);
+      recordRead(MultiClusterOperation.GET, result, startNanos);
+      isFailed = false;
+      return result;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.GET, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public Result[] get(List<Get> gets) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Result[] results = table.get(gets);
+      recordReads(MultiClusterOperation.GET_LIST, results, startNanos);
+      isFailed = false;
+      return results;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.GET_LIST, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  @Deprecated
+  public Result getRowOrBefore(byte[] row, byte[] family) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Result result = table.getRowOrBefore(row, family);
+      recordRead(MultiClusterOperation.GET, result, startNanos);
+      isFailed = false;
+      return result;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.GET, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public ResultScanner getScanner(Scan scan) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      ResultScanner scanner = table.getScanner(scan);
+      if (stats != null) {
+        stats.recordSuccess(MultiClusterOperation.SCAN_OPEN, 0, 0,
+            System.nanoTime() - startNanos);
+      }
+      isFailed = false;
+      return scanner;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.SCAN_OPEN, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public ResultScanner getScanner(byte[] family) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      ResultScanner scanner = table.getScanner(family);
+      if (stats != null) {
+        stats.recordSuccess(MultiClusterOperation.SCAN_OPEN, 0, 0,
+            System.nanoTime() - startNanos);
+      }
+      isFailed = false;
+      return scanner;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.SCAN_OPEN, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public ResultScanner getScanner(byte[] family, byte[] qualifier) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      ResultScanner scanner = table.getScanner(family, qualifier);
+      if (stats != null) {
+        stats.recordSuccess(MultiClusterOperation.SCAN_OPEN, 0, 0,
+            System.nanoTime() - startNanos);
+      }
+      isFailed = false;
+      return scanner;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.SCAN_OPEN, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public void put(Put put) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      table.put(put);
+      recordWrite(MultiClusterOperation.PUT, put, startNanos);
+      isFailed = false;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.PUT, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public void put(List<Put> puts) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      table.put(puts);
+      recordWrites(MultiClusterOperation.PUT_LIST, puts, startNanos);
+      isFailed = false;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.PUT_LIST, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier,
+                             byte[] value, Put put) throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      boolean result = table.checkAndPut(row, family, qualifier, value, put);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public void delete(Delete delete) throws IOException {
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      table.delete(delete);
+      recordWrite(MultiClusterOperation.DELETE, delete, startNanos);
+      isFailed = false;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.DELETE, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public void delete(List<Delete> deletes) throws IOException {
+    // the table removes the deletes that succeeded from the list
+    long rows = deletes.size();
+    long bytes = 0;
+    if (stats != null) {
+      for (Delete delete : deletes) {
+        bytes += sizeOf(delete);
+      }
+    }
+    long startNanos = System.nanoTime();
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      table.delete(deletes);
+      if (stats != null) {
+        stats.recordSuccess(MultiClusterOperation.DELETE_LIST, rows, bytes,
+            System.nanoTime() - startNanos);
+      }
+      isFailed = false;
+    } catch (IOException e) {
+      recordError(MultiClusterOperation.DELETE_LIST, e);
+      throw e;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier,
+                                byte[] value, Delete delete) throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      boolean result = table.checkAndDelete(row, family, qualifier, value, delete);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public boolean checkAndMutate(byte[] row, byte[] family, byte[] qualifier,
+                                CompareFilter.CompareOp compareOp, byte[] value,
+                                RowMutations rowMutations) throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      boolean result = table.checkAndMutate(row, family, qualifier, compareOp, value,
+          rowMutations);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public void mutateRow(RowMutations rm) throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      table.mutateRow(rm);
+      isFailed = false;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public Result append(Append append) throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Result result = table.append(append);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public Result increment(Increment increment) throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Result result = table.increment(increment);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier,
+                                   long amount) throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      long result = table.incrementColumnValue(row, family, qualifier, amount);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier,
+                                   long amount, Durability durability) throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      long result = table.incrementColumnValue(row, family, qualifier, amount, durability);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  @Deprecated
+  public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier,
+                                   long amount, boolean writeToWAL) throws IOException {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      long result = table.incrementColumnValue(row, family, qualifier, amount, writeToWAL);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public boolean isAutoFlush() {
+    return true;
+  }
+
+  public void flushCommits() throws IOException {
+    // the underlying tables always auto-flush
+  }
+
+  /**
+   * Closes the idle instances; instances still in use are closed when they
+   * are returned.
+   */
+  public void close() throws IOException {
+    isClosed = true;
+    HTableInterface table;
+    while ((table = idleTables.poll()) != null) {
+      idleCount.decrementAndGet();
+      closeQuietly(table);
+    }
+  }
+
+  public CoprocessorRpcChannel coprocessorService(byte[] row) {
+    HTableInterface table;
+    try {
+      table = borrow();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    boolean isFailed = true;
+    try {
+      CoprocessorRpcChannel channel = table.coprocessorService(row);
+      isFailed = false;
+      return channel;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public <T extends Service, R> Map<byte[], R> coprocessorService(
+      Class<T> service, byte[] startKey, byte[] endKey, Call<T, R> callable)
+      throws ServiceException, Throwable {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Map<byte[], R> result = table.coprocessorService(service, startKey, endKey, callable);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public <T extends Service, R> void coprocessorService(Class<T> service,
+      byte[] startKey, byte[] endKey, Call<T, R> callable, Callback<R> callback)
+      throws ServiceException, Throwable {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      table.coprocessorService(service, startKey, endKey, callable, callback);
+      isFailed = false;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public <R extends Message> Map<byte[], R> batchCoprocessorService(
+      MethodDescriptor methodDescriptor, Message request, byte[] startKey,
+      byte[] endKey, R responsePrototype) throws ServiceException, Throwable {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      Map<byte[], R> result = table.batchCoprocessorService(methodDescriptor, request,
+          startKey, endKey, responsePrototype);
+      isFailed = false;
+      return result;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  public <R extends Message> void batchCoprocessorService(
+      MethodDescriptor methodDescriptor, Message request, byte[] startKey,
+      byte[] endKey, R responsePrototype, Callback<R> callback)
+      throws ServiceException, Throwable {
+    HTableInterface table = borrow();
+    boolean isFailed = true;
+    try {
+      table.batchCoprocessorService(methodDescriptor, request, startKey, endKey,
+          responsePrototype, callback);
+      isFailed = false;
+    } finally {
+      release(table, isFailed);
+    }
+  }
+
+  @Deprecated
+  public void setAutoFlush(boolean autoFlush) {
+    // the underlying tables always auto-flush
+  }
+
+  public void setAutoFlush(boolean autoFlush, boolean clearBufferOnFail) {
+    // the underlying tables always auto-flush
+  }
+
+  public void setAutoFlushTo(boolean autoFlush) {
+    // the underlying tables always auto-flush
+  }
+
+  public long getWriteBufferSize() {
+    return 0;
+  }
+
+  public void setWriteBufferSize(long writeBufferSize) throws IOException {
+    // the underlying tables always auto-flush
+  }
+}
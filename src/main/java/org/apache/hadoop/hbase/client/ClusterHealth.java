@@ -0,0 +1,206 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Live health and latency score of one cluster, and optionally of each of
+ * its region servers.
+ *
+ * Latency and error rate are exponentially weighted moving averages.  A
+ * cluster or server turns unhealthy after a number of consecutive failures
+ * and healthy again after a number of consecutive successes; listeners hear
+ * about every change of the cluster's health.
+ */
+public class ClusterHealth {
+
+  static final Log LOG = LogFactory.getLog(ClusterHealth.class);
+
+  final String name;
+  final double alpha;
+  final int failureThreshold;
+  final int recoveryThreshold;
+  final Score cluster;
+  final ConcurrentHashMap<String, Score> servers = new ConcurrentHashMap<String, Score>();
+  volatile Listener listener;
+
+  public ClusterHealth(String name, double alpha, int failureThreshold, int recoveryThreshold) {
+    this.name = name;
+    this.alpha = alpha;
+    this.failureThreshold = failureThreshold;
+    this.recoveryThreshold = recoveryThreshold;
+    this.cluster = new Score(name);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  public boolean isHealthy() {
+    return cluster.isHealthy;
+  }
+
+  /**
+   * @return false if the cluster, or the server when it is probed on its
+   * own, is unhealthy
+   */
+  public boolean isHealthy(String hostAndPort) {
+    if (!cluster.isHealthy) {
+      return false;
+    }
+    Score server = hostAndPort == null ? null : servers.get(hostAndPort);
+    return server == null || server.isHealthy;
+  }
+
+  /**
+   * @return the expected time in ms to get an answer from the cluster: the
+   * average latency stretched by the error rate, or 0 while nothing was
+   * measured
+   */
+  public double getScore() {
+    return cluster.getScore();
+  }
+
+  public double getLatency() {
+    return cluster.latency;
+  }
+
+  public double getErrorRate() {
+    return cluster.errorRate;
+  }
+
+  public void recordSuccess(long latency) {
+    if (cluster.recordSuccess(latency)) {
+      notifyListener();
+    }
+  }
+
+  public void recordFailure() {
+    if (cluster.recordFailure()) {
+      notifyListener();
+    }
+  }
+
+  /**
+   * Records the time a call took before it was given up on.  The call
+   * neither failed nor answered, so only the latency learns from it.
+   */
+  public void recordLatency(long latency) {
+    cluster.recordLatency(latency);
+  }
+
+  Score serverScore(String hostAndPort) {
+    Score score = servers.get(hostAndPort);
+    if (score == null) {
+      score = new Score(name + "/" + hostAndPort);
+      Score existing = servers.putIfAbsent(hostAndPort, score);
+      if (existing != null) {
+        score = existing;
+      }
+    }
+    return score;
+  }
+
+  void retainServers(Set<String> hostAndPorts) {
+    servers.keySet().retainAll(hostAndPorts);
+  }
+
+  /**
+   * Derives the cluster's health from its servers: it is healthy as long
+   * as one of them is.
+   *
+   * @param latency of the probe that just succeeded, or -1 after a failure
+   */
+  void updateFromServers(long latency) {
+    boolean isAnyHealthy = false;
+    for (Score server : servers.values()) {
+      isAnyHealthy |= server.isHealthy;
+    }
+    if (!isAnyHealthy) {
+      recordFailure();
+    } else if (latency >= 0) {
+      recordSuccess(latency);
+    }
+  }
+
+  private void notifyListener() {
+    LOG.info("Cluster " + name + " is " + (cluster.isHealthy ? "healthy" : "unhealthy") +
+        ", latency " + (long)cluster.latency + " ms, error rate " + cluster.errorRate);
+    Listener current = listener;
+    if (current != null) {
+      try {
+        current.onHealthChange(this, cluster.isHealthy);
+      } catch (Exception e) {
+        LOG.warn("Exception in health listener of " + name, e);
+      }
+    }
+  }
+
+  /**
+   * Health of one cluster or region server.
+   */
+  class Score {
+    final String name;
+    final AtomicBoolean isProbing = new AtomicBoolean(false);
+    volatile long probeStartTime = 0;
+    volatile double latency = -1;
+    volatile double errorRate = 0;
+    volatile boolean isHealthy = true;
+    int consecutiveFailures = 0;
+    int consecutiveSuccesses = 0;
+
+    Score(String name) {
+      this.name = name;
+    }
+
+    double getScore() {
+      if (latency < 0) {
+        return 0;
+      }
+      return latency / (1 - Math.min(errorRate, 0.99));
+    }
+
+    /**
+     * @return true if this turned the score healthy
+     */
+    synchronized boolean recordSuccess(long value) {
+      latency = latency < 0 ? value : alpha * value + (1 - alpha) * latency;
+      errorRate = (1 - alpha) * errorRate;
+      consecutiveFailures = 0;
+      if (!isHealthy && ++consecutiveSuccesses >= recoveryThreshold) {
+        isHealthy = true;
+        return true;
+      }
+      return false;
+    }
+
+    synchronized void recordLatency(long value) {
+      latency = latency < 0 ? value : alpha * value + (1 - alpha) * latency;
+    }
+
+    /**
+     * @return true if this turned the score unhealthy
+     */
+    synchronized boolean recordFailure() {
+      errorRate = alpha + (1 - alpha) * errorRate;
+      consecutiveSuccesses = 0;
+      if (isHealthy && ++consecutiveFailures >= failureThreshold) {
+        isHealthy = false;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  public interface Listener {
+    public void onHealthChange(ClusterHealth health, boolean isHealthy);
+  }
+}
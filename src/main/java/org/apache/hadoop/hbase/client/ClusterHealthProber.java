@@ -0,0 +1,167 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+
+/**
+ * Sends canary gets to every cluster in the background and records the
+ * outcome in the cluster's {@link ClusterHealth}, so trouble and recovery
+ * are noticed without a user request paying for them.
+ *
+ * A cluster is probed with a get of the probe row, or per region server
+ * with a get of the start key of one region of the probe table the server
+ * holds.  A probe that is slower than the timeout counts as failed, and so
+ * does one still running when the next probe is due.
+ */
+public class ClusterHealthProber {
+
+  static final Log LOG = LogFactory.getLog(ClusterHealthProber.class);
+
+  final List<HConnection> connections;
+  final ClusterHealth[] healths;
+  final TableName probeTable;
+  final byte[] probeRow;
+  final boolean isPerServer;
+  final long timeout;
+  final HedgingScheduler scheduler;
+  ScheduledFuture<?> periodicProbe;
+
+  public ClusterHealthProber(List<HConnection> connections,
+                             ClusterHealth[] healths,
+                             TableName probeTable,
+                             byte[] probeRow,
+                             boolean isPerServer,
+                             long timeout,
+                             HedgingScheduler scheduler) {
+    this.connections = connections;
+    this.healths = healths;
+    this.probeTable = probeTable;
+    this.probeRow = probeRow;
+    this.isPerServer = isPerServer;
+    this.timeout = timeout;
+    this.scheduler = scheduler;
+  }
+
+  public void start(long interval) {
+    periodicProbe = scheduler.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        probe();
+      }
+    }, interval);
+  }
+
+  public void stop() {
+    if (periodicProbe != null) {
+      periodicProbe.cancel(false);
+    }
+  }
+
+  /**
+   * Starts a probe of every cluster on the worker pool.
+   */
+  public void probe() {
+    for (int i = 0; i < connections.size(); i++) {
+      final HConnection connection = connections.get(i);
+      final ClusterHealth health = healths[i];
+      if (!isPerServer) {
+        probe(connection, health, health.cluster, probeRow, false);
+        continue;
+      }
+      scheduler.getExecutor().execute(new Runnable() {
+        public void run() {
+          probeServers(connection, health);
+        }
+      });
+    }
+  }
+
+  void probeServers(HConnection connection, ClusterHealth health) {
+    Map<String, byte[]> rows = new HashMap<String, byte[]>();
+    try {
+      for (HRegionLocation location : connection.locateRegions(probeTable, true, false)) {
+        String server = location.getServerName().getHostAndPort();
+        if (!rows.containsKey(server)) {
+          byte[] startKey = location.getRegionInfo().getStartKey();
+          rows.put(server, startKey.length == 0 ? new byte[1] : startKey);
+        }
+      }
+    } catch (Exception e) {
+      LOG.debug("Unable to locate the regions of " + probeTable + " on " + health.getName(), e);
+      health.recordFailure();
+      return;
+    }
+    health.retainServers(rows.keySet());
+    for (Map.Entry<String, byte[]> entry : rows.entrySet()) {
+      probe(connection, health, health.serverScore(entry.getKey()), entry.getValue(), true);
+    }
+  }
+
+  /**
+   * Gets the row on the worker pool unless the previous probe of the score
+   * is still running.
+   */
+  void probe(final HConnection connection, final ClusterHealth health,
+             final ClusterHealth.Score score, final byte[] row, final boolean isServer) {
+    if (!score.isProbing.compareAndSet(false, true)) {
+      if (System.currentTimeMillis() - score.probeStartTime > timeout) {
+        recordFailure(health, score, isServer);
+      }
+      return;
+    }
+    score.probeStartTime = System.currentTimeMillis();
+    scheduler.getExecutor().execute(new Runnable() {
+      public void run() {
+        long startTime = score.probeStartTime;
+        try {
+          HTableInterface table = connection.getTable(probeTable);
+          try {
+            table.get(new Get(row));
+          } finally {
+            table.close();
+          }
+          long latency = System.currentTimeMillis() - startTime;
+          if (latency > timeout) {
+            recordFailure(health, score, isServer);
+          } else {
+            recordSuccess(health, score, isServer, latency);
+          }
+        } catch (Exception e) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Probe of " + score.name + " failed", e);
+          }
+          recordFailure(health, score, isServer);
+        } finally {
+          score.isProbing.set(false);
+        }
+      }
+    });
+  }
+
+  private void recordSuccess(ClusterHealth health, ClusterHealth.Score score,
+                             boolean isServer, long latency) {
+    if (isServer) {
+      score.recordSuccess(latency);
+      health.updateFromServers(latency);
+    } else {
+      health.recordSuccess(latency);
+    }
+  }
+
+  private void recordFailure(ClusterHealth health, ClusterHealth.Score score, boolean isServer) {
+    if (isServer) {
+      if (score.recordFailure()) {
+        LOG.info("Region server " + score.name + " is unhealthy");
+      }
+      health.updateFromServers(-1);
+    } else {
+      health.recordFailure();
+    }
+  }
+}
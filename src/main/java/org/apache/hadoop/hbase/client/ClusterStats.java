@@ -0,0 +1,99 @@
+package org.apache.hadoop.hbase.client;
+
+/**
+ * What one cluster did for a table, per operation type: the requests it
+ * got, the ones that failed, the rows and payload bytes they carried and
+ * how long the successful ones took.  Every call sent to the cluster
+ * counts, including hedged calls that lost.  The counters are striped and
+ * the latencies go to {@link LatencyRecorder}s, so recording does not
+ * contend and reading takes no lock.
+ */
+public class ClusterStats {
+
+  final String name;
+  final StripedCounter[] requests;
+  final StripedCounter[] errors;
+  final StripedCounter[] rows;
+  final StripedCounter[] bytes;
+  final LatencyRecorder[] latencies;
+
+  public ClusterStats(String name) {
+    this.name = name;
+    int operations = MultiClusterOperation.values().length;
+    this.requests = newCounters(operations);
+    this.errors = newCounters(operations);
+    this.rows = newCounters(operations);
+    this.bytes = newCounters(operations);
+    this.latencies = new LatencyRecorder[operations];
+    for (int i = 0; i < operations; i++) {
+      latencies[i] = new LatencyRecorder(HTableStats.HIGHEST_TRACKABLE_LATENCY,
+          HTableStats.LATENCY_SUB_BUCKET_BITS);
+    }
+  }
+
+  private static StripedCounter[] newCounters(int count) {
+    StripedCounter[] counters = new StripedCounter[count];
+    for (int i = 0; i < count; i++) {
+      counters[i] = new StripedCounter();
+    }
+    return counters;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param rowCount rows read or written
+   * @param byteCount bytes of the cells read or written
+   * @param latency nanoseconds the call took
+   */
+  public void recordSuccess(MultiClusterOperation operation, long rowCount, long byteCount,
+                            long latency) {
+    int i = operation.ordinal();
+    requests[i].increment();
+    latencies[i].record(latency);
+    if (rowCount > 0) {
+      rows[i].add(rowCount);
+    }
+    if (byteCount > 0) {
+      bytes[i].add(byteCount);
+    }
+  }
+
+  public void recordError(MultiClusterOperation operation) {
+    int i = operation.ordinal();
+    requests[i].increment();
+    errors[i].increment();
+  }
+
+  public long getRequests(MultiClusterOperation operation) {
+    return requests[operation.ordinal()].sum();
+  }
+
+  public long getErrors(MultiClusterOperation operation) {
+    return errors[operation.ordinal()].sum();
+  }
+
+  public long getRows(MultiClusterOperation operation) {
+    return rows[operation.ordinal()].sum();
+  }
+
+  public long getBytes(MultiClusterOperation operation) {
+    return bytes[operation.ordinal()].sum();
+  }
+
+  /**
+   * Starts a new latency interval for every operation.
+   *
+   * @return the latencies of the interval that just ended, by operation
+   * ordinal
+   */
+  LatencyRecorder.Snapshot[] rollInterval() {
+    LatencyRecorder.Snapshot[] snapshots = new LatencyRecorder.Snapshot[latencies.length];
+    for (int i = 0; i < latencies.length; i++) {
+      snapshots[i] = latencies[i].getIntervalSnapshot();
+    }
+    return snapshots;
+  }
+}
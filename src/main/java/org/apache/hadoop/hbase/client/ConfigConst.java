@@ -13,6 +13,52 @@ public class ConfigConst {
   public static final String HBASE_WAIT_TIME_BEFORE_MUTATING_BATCH_FAILOVER_CONFIG = "hbase.wait.time.before.mutating.batch.failover";
   public static final String HBASE_MULTI_CLUSTER_CONNECTION_POOL_SIZE = "hbase.multi.cluster.connection.pool.size";
   public static final String HBASE_WAIT_TIME_BEFORE_TRYING_PRIMARY_AFTER_FAILURE = "hbase.wait.time.before.trying.primary.after.failure";
+  public static final String HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_CONFIG = "hbase.multi.cluster.adaptive.hedge";
+  public static final String HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_PERCENTILE_CONFIG = "hbase.multi.cluster.adaptive.hedge.percentile";
+  public static final String HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_FLOOR_CONFIG = "hbase.multi.cluster.adaptive.hedge.floor";
+  public static final String HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_CEILING_CONFIG = "hbase.multi.cluster.adaptive.hedge.ceiling";
+  public static final String HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_WINDOW_CONFIG = "hbase.multi.cluster.adaptive.hedge.window";
+  public static final String HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_MIN_SAMPLES_CONFIG = "hbase.multi.cluster.adaptive.hedge.min.samples";
+  public static final String HBASE_MULTI_CLUSTER_CIRCUIT_BREAKER_KEY_CONFIG = "hbase.multi.cluster.circuit.breaker.key";
+  public static final String HBASE_MULTI_CLUSTER_CIRCUIT_BREAKER_FAILURE_THRESHOLD_CONFIG = "hbase.multi.cluster.circuit.breaker.failure.threshold";
+  public static final String HBASE_MULTI_CLUSTER_HEDGING_BUDGET_RATIO_CONFIG = "hbase.multi.cluster.hedging.budget.ratio";
+  public static final String HBASE_MULTI_CLUSTER_HEDGING_BUDGET_BURST_CONFIG = "hbase.multi.cluster.hedging.budget.burst";
+  public static final String HBASE_MULTI_CLUSTER_HEDGING_BUDGET_DEADLINE_CONFIG = "hbase.multi.cluster.hedging.budget.deadline";
+  public static final String HBASE_MULTI_CLUSTER_SCANNER_STALL_TIMEOUT_CONFIG = "hbase.multi.cluster.scanner.stall.timeout";
+  public static final String HBASE_MULTI_CLUSTER_SCANNER_PREFETCH_CHUNKS_CONFIG = "hbase.multi.cluster.scanner.prefetch.chunks";
+  public static final String HBASE_MULTI_CLUSTER_SCANNER_PREFETCH_MAX_BYTES_CONFIG = "hbase.multi.cluster.scanner.prefetch.max.bytes";
+  public static final String HBASE_MULTI_CLUSTER_WRITE_BUFFER_STRIPES_CONFIG = "hbase.multi.cluster.write.buffer.stripes";
+  public static final String HBASE_MULTI_CLUSTER_WRITE_BUFFER_FLUSH_INTERVAL_CONFIG = "hbase.multi.cluster.write.buffer.flush.interval";
+  public static final String HBASE_MULTI_CLUSTER_WRITE_BUFFER_FLUSH_THREADS_CONFIG = "hbase.multi.cluster.write.buffer.flush.threads";
+  public static final String HBASE_MULTI_CLUSTER_WRITE_BUFFER_MEMORY_LIMIT_CONFIG = "hbase.multi.cluster.write.buffer.memory.limit";
+  public static final String HBASE_MULTI_CLUSTER_JOURNAL_DIR_CONFIG = "hbase.multi.cluster.journal.dir";
+  public static final String HBASE_MULTI_CLUSTER_JOURNAL_SEGMENT_SIZE_CONFIG = "hbase.multi.cluster.journal.segment.size";
+  public static final String HBASE_MULTI_CLUSTER_JOURNAL_SYNC_CONFIG = "hbase.multi.cluster.journal.sync";
+  public static final String HBASE_MULTI_CLUSTER_JOURNAL_REPLAY_INTERVAL_CONFIG = "hbase.multi.cluster.journal.replay.interval";
+  public static final String HBASE_MULTI_CLUSTER_JOURNAL_REPLAY_THREADS_CONFIG = "hbase.multi.cluster.journal.replay.threads";
+  public static final String HBASE_MULTI_CLUSTER_CLOSE_TIMEOUT_CONFIG = "hbase.multi.cluster.close.timeout";
+  public static final String HBASE_MULTI_CLUSTER_ANTI_ENTROPY_LEAVES_CONFIG = "hbase.multi.cluster.anti.entropy.leaves";
+  public static final String HBASE_MULTI_CLUSTER_ANTI_ENTROPY_LAG_CONFIG = "hbase.multi.cluster.anti.entropy.lag";
+  public static final String HBASE_MULTI_CLUSTER_ANTI_ENTROPY_THREADS_CONFIG = "hbase.multi.cluster.anti.entropy.threads";
+  public static final String HBASE_MULTI_CLUSTER_LOG_SAMPLE_RATE_CONFIG = "hbase.multi.cluster.log.sample.rate";
+  public static final String HBASE_MULTI_CLUSTER_WARMUP_TABLES_CONFIG = "hbase.multi.cluster.warmup.tables";
+  public static final String HBASE_MULTI_CLUSTER_WARMUP_REFRESH_INTERVAL_CONFIG = "hbase.multi.cluster.warmup.refresh.interval";
+  public static final String HBASE_MULTI_CLUSTER_PROBE_TABLE_CONFIG = "hbase.multi.cluster.probe.table";
+  public static final String HBASE_MULTI_CLUSTER_PROBE_ROW_CONFIG = "hbase.multi.cluster.probe.row";
+  public static final String HBASE_MULTI_CLUSTER_PROBE_INTERVAL_CONFIG = "hbase.multi.cluster.probe.interval";
+  public static final String HBASE_MULTI_CLUSTER_PROBE_TIMEOUT_CONFIG = "hbase.multi.cluster.probe.timeout";
+  public static final String HBASE_MULTI_CLUSTER_PROBE_PER_SERVER_CONFIG = "hbase.multi.cluster.probe.per.server";
+  public static final String HBASE_MULTI_CLUSTER_HEALTH_FAILURE_THRESHOLD_CONFIG = "hbase.multi.cluster.health.failure.threshold";
+  public static final String HBASE_MULTI_CLUSTER_HEALTH_RECOVERY_THRESHOLD_CONFIG = "hbase.multi.cluster.health.recovery.threshold";
+  public static final String HBASE_MULTI_CLUSTER_HEALTH_EWMA_ALPHA_CONFIG = "hbase.multi.cluster.health.ewma.alpha";
+  public static final String HBASE_MULTI_CLUSTER_FAILOVER_SELECTION_CONFIG = "hbase.multi.cluster.failover.selection";
+  public static final String HBASE_MULTI_CLUSTER_TIER_CONFIG = "hbase.multi.cluster.tier";
+  public static final String HBASE_MULTI_CLUSTER_READ_YOUR_WRITES_WINDOW_CONFIG = "hbase.multi.cluster.read.your.writes.window";
+  public static final String HBASE_MULTI_CLUSTER_READ_YOUR_WRITES_SLOTS_CONFIG = "hbase.multi.cluster.read.your.writes.slots";
+  public static final String HBASE_MULTI_CLUSTER_STATS_INTERVAL_CONFIG = "hbase.multi.cluster.stats.interval";
+  public static final String HBASE_MULTI_CLUSTER_METRICS_ENABLED_CONFIG = "hbase.multi.cluster.metrics.enabled";
+  public static final String HBASE_MULTI_CLUSTER_METRICS_PROMETHEUS_PORT_CONFIG = "hbase.multi.cluster.metrics.prometheus.port";
+  public static final String HBASE_MULTI_CLUSTER_MAX_IDLE_TABLES_CONFIG = "hbase.multi.cluster.max.idle.tables";
 
   
 }
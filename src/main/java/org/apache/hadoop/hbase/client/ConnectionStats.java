@@ -0,0 +1,159 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.TableName;
+
+/**
+ * The stats of every table of a connection, rolled into a new interval at
+ * once by a single scheduled task, however many tables and handles there
+ * are.  All handles of a table already share its {@link HTableStats}, so
+ * aggregating the connection only merges one interval per table, each
+ * latency into a single histogram.
+ *
+ * After every roll the listeners get the intervals that just ended: the
+ * {@link MultiClusterMetrics} of the connection and any
+ * {@link StatsReporter}.  Nothing else should roll the tables of a
+ * connection, or the listeners miss the samples it takes.
+ */
+public class ConnectionStats {
+
+  static final Log LOG = LogFactory.getLog(ConnectionStats.class);
+
+  /**
+   * Told about every interval once it ended.
+   */
+  public interface Listener {
+    public void onInterval(ConnectionStats stats);
+  }
+
+  final Map<TableName, MultiClusterTableState> tableStates;
+  final HedgingScheduler scheduler;
+  final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+  volatile Map<TableName, HTableStats.Interval> lastIntervals =
+      Collections.<TableName, HTableStats.Interval>emptyMap();
+  volatile HTableStats.Interval lastInterval =
+      HTableStats.Interval.merge(Collections.<HTableStats.Interval>emptyList());
+  ScheduledFuture<?> periodicRoll;
+
+  public ConnectionStats(Map<TableName, MultiClusterTableState> tableStates,
+                         HedgingScheduler scheduler) {
+    this.tableStates = tableStates;
+    this.scheduler = scheduler;
+  }
+
+  public void start(long interval) {
+    periodicRoll = scheduler.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        // keep the timer free for the hedges
+        scheduler.getExecutor().execute(new Runnable() {
+          public void run() {
+            rollIntervals();
+          }
+        });
+      }
+    }, interval);
+  }
+
+  public void stop() {
+    if (periodicRoll != null) {
+      periodicRoll.cancel(false);
+    }
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Starts a new interval for every table and tells the listeners about
+   * the one that ended.
+   */
+  public synchronized void rollIntervals() {
+    Map<TableName, HTableStats.Interval> intervals =
+        new HashMap<TableName, HTableStats.Interval>();
+    for (MultiClusterTableState state : tableStates.values()) {
+      intervals.put(state.getTableName(), state.getStats().rollInterval());
+    }
+    lastIntervals = Collections.unmodifiableMap(intervals);
+    lastInterval = HTableStats.Interval.merge(intervals.values());
+
+    for (Listener listener : listeners) {
+      try {
+        listener.onInterval(this);
+      } catch (RuntimeException e) {
+        LOG.warn("Stats listener " + listener + " failed", e);
+      }
+    }
+  }
+
+  /**
+   * @return the stats of every table the connection has handed out
+   */
+  public Map<TableName, HTableStats> getTableStats() {
+    Map<TableName, HTableStats> tableStats = new HashMap<TableName, HTableStats>();
+    for (MultiClusterTableState state : tableStates.values()) {
+      tableStats.put(state.getTableName(), state.getStats());
+    }
+    return tableStats;
+  }
+
+  /**
+   * @return the interval that ended last, per table
+   */
+  public Map<TableName, HTableStats.Interval> getLastIntervals() {
+    return lastIntervals;
+  }
+
+  /**
+   * @return the interval that ended last, merged over all tables
+   */
+  public HTableStats.Interval getLastInterval() {
+    return lastInterval;
+  }
+
+  /**
+   * @return how many operations of the type the primary, or a failover,
+   * answered over all tables
+   */
+  public long getCount(MultiClusterOperation operation, boolean isPrimary) {
+    long count = 0;
+    for (MultiClusterTableState state : tableStates.values()) {
+      count += state.getStats().getCount(operation, isPrimary);
+    }
+    return count;
+  }
+
+  /**
+   * @return the CSV line of the last interval, over all tables
+   */
+  public String formatCSVStats() {
+    List<HTableStats> tableStats = new ArrayList<HTableStats>(tableStates.size());
+    for (MultiClusterTableState state : tableStates.values()) {
+      tableStats.add(state.getStats());
+    }
+    return HTableStats.formatCSVStats(tableStats, lastInterval);
+  }
+
+  /**
+   * Logs the stats of every table.
+   */
+  public void printPrettyStats() {
+    for (MultiClusterTableState state : tableStates.values()) {
+      LOG.info("Stats of " + state.getTableName());
+      state.getStats().printPrettyStats();
+    }
+  }
+}
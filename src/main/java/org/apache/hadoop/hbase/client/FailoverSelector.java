@@ -0,0 +1,196 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Ranks the failover clusters by their {@link ClusterHealth}: healthy
+ * clusters first, then by expected latency, the EWMA latency stretched by
+ * the EWMA error rate.
+ *
+ * In {@link #SELECT_BEST} mode the speculative requester hedges to the best
+ * failover only, and escalates to the next one only when that one fails or
+ * misses the hedge delay too, so a hedged read costs two calls instead of
+ * one per cluster.  Scores come from the outcome of failover calls, including
+ * how long the calls that lost ran before they were cancelled, and, when it
+ * runs, from the health prober, which keeps the scores of clusters that are
+ * not being used fresh.
+ *
+ * Failovers can also be split into tiers, given by
+ * {@link ConfigConst#HBASE_MULTI_CLUSTER_TIER_CONFIG} in the configuration of
+ * each failover.  Tier 1 is called after the hedge delay of the operation;
+ * every further tier is called when the tier before it has failed or not
+ * answered within the tier's own request delay.  A tier's answer is only
+ * taken once its accept delay, counted from the start of the request, has
+ * passed, unless the primary and the nearer tiers are done by then.
+ */
+public class FailoverSelector {
+
+  public static final String SELECT_ALL = "all";
+  public static final String SELECT_BEST = "best";
+
+  /** Added to the rank of unhealthy clusters so they sort last. */
+  static final double UNHEALTHY_RANK = 1e12;
+
+  final Map<HConnection, ClusterHealth> healths;
+  final Map<HConnection, Integer> tiers;
+  final Map<Integer, Long> requestDelays = new HashMap<Integer, Long>();
+  final Map<Integer, Long> acceptDelays = new HashMap<Integer, Long>();
+  final boolean isSelectingBest;
+  final boolean isTiered;
+
+  /**
+   * @param connections the failover connections
+   * @param healths the health of each failover, in the same order
+   */
+  public FailoverSelector(Configuration conf, HConnection[] connections, ClusterHealth[] healths) {
+    this.healths = new IdentityHashMap<HConnection, ClusterHealth>();
+    this.tiers = new IdentityHashMap<HConnection, Integer>();
+    Set<Integer> tierNumbers = new TreeSet<Integer>();
+    for (int i = 0; i < connections.length; i++) {
+      int tier = Math.max(1, connections[i].getConfiguration().getInt(
+          ConfigConst.HBASE_MULTI_CLUSTER_TIER_CONFIG, 1));
+      this.healths.put(connections[i], healths[i]);
+      this.tiers.put(connections[i], tier);
+      tierNumbers.add(tier);
+    }
+    for (int tier : tierNumbers) {
+      long requestDelay = conf.getLong(ConfigConst.HBASE_MULTI_CLUSTER_TIER_CONFIG + "." + tier + ".request.delay", -1);
+      long acceptDelay = conf.getLong(ConfigConst.HBASE_MULTI_CLUSTER_TIER_CONFIG + "." + tier + ".accept.delay", -1);
+      if (requestDelay >= 0) {
+        requestDelays.put(tier, requestDelay);
+      }
+      if (acceptDelay >= 0) {
+        acceptDelays.put(tier, acceptDelay);
+      }
+    }
+    this.isSelectingBest = SELECT_BEST.equals(conf.get(
+        ConfigConst.HBASE_MULTI_CLUSTER_FAILOVER_SELECTION_CONFIG, SELECT_ALL));
+    this.isTiered = tierNumbers.size() > 1;
+  }
+
+  public boolean isSelectingBest() {
+    return isSelectingBest;
+  }
+
+  public boolean isTiered() {
+    return isTiered;
+  }
+
+  /**
+   * @return the tier of the table's cluster, 1 if it is not known
+   */
+  public int tierOf(HTableInterface table) {
+    Integer tier = null;
+    if (table instanceof ClusterHTable) {
+      tier = tiers.get(((ClusterHTable)table).getConnection());
+    }
+    return tier == null ? 1 : tier;
+  }
+
+  /**
+   * @return ms to wait for the tier before this one before calling the tier
+   */
+  public long getRequestDelay(int tier, long defaultDelay) {
+    Long delay = tier > 1 ? requestDelays.get(tier) : null;
+    return delay == null ? defaultDelay : delay;
+  }
+
+  /**
+   * @return ms from the start of the request before an answer of the tier
+   * is taken over a possible answer of the primary or a nearer tier
+   */
+  public long getAcceptDelay(int tier, long defaultDelay) {
+    Long delay = tier > 1 ? acceptDelays.get(tier) : null;
+    return delay == null ? defaultDelay : delay;
+  }
+
+  /**
+   * @return the failover tables grouped by tier, nearest tier first; within
+   * a tier best first when selecting the best, else in configured order
+   */
+  public List<List<HTableInterface>> tiers(Collection<HTableInterface> failoverTables) {
+    TreeMap<Integer, List<HTableInterface>> grouped = new TreeMap<Integer, List<HTableInterface>>();
+    for (HTableInterface table : failoverTables) {
+      int tier = tierOf(table);
+      List<HTableInterface> group = grouped.get(tier);
+      if (group == null) {
+        group = new ArrayList<HTableInterface>();
+        grouped.put(tier, group);
+      }
+      group.add(table);
+    }
+    List<List<HTableInterface>> result = new ArrayList<List<HTableInterface>>(grouped.size());
+    for (List<HTableInterface> group : grouped.values()) {
+      result.add(isSelectingBest ? order(group) : group);
+    }
+    return result;
+  }
+
+  ClusterHealth healthOf(HTableInterface table) {
+    if (table instanceof ClusterHTable) {
+      return healths.get(((ClusterHTable)table).getConnection());
+    }
+    return null;
+  }
+
+  /**
+   * @return the failover tables, best first; ties keep the configured order
+   */
+  public List<HTableInterface> order(Collection<HTableInterface> failoverTables) {
+    List<HTableInterface> ordered = new ArrayList<HTableInterface>(failoverTables);
+    if (ordered.size() < 2) {
+      return ordered;
+    }
+    // Rank on a snapshot, scores keep changing while the list is sorted
+    final Map<HTableInterface, Double> ranks = new IdentityHashMap<HTableInterface, Double>();
+    for (HTableInterface table : ordered) {
+      ClusterHealth health = healthOf(table);
+      ranks.put(table, health == null ? 0 :
+          (health.isHealthy() ? 0 : UNHEALTHY_RANK) + health.getScore());
+    }
+    Collections.sort(ordered, new Comparator<HTableInterface>() {
+      @Override
+      public int compare(HTableInterface table1, HTableInterface table2) {
+        return Double.compare(ranks.get(table1), ranks.get(table2));
+      }
+    });
+    return ordered;
+  }
+
+  public void recordSuccess(HTableInterface table, long latency) {
+    ClusterHealth health = healthOf(table);
+    if (health != null) {
+      health.recordSuccess(latency);
+    }
+  }
+
+  public void recordFailure(HTableInterface table) {
+    ClusterHealth health = healthOf(table);
+    if (health != null) {
+      health.recordFailure();
+    }
+  }
+
+  /**
+   * Records how long a call of the failover ran before it lost, which is
+   * less than its latency, so a slow failover ranks behind the one that won.
+   */
+  public void recordLoss(HTableInterface table, long elapsed) {
+    ClusterHealth health = healthOf(table);
+    if (health != null) {
+      health.recordLatency(elapsed);
+    }
+  }
+}
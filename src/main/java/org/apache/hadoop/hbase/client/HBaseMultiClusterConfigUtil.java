@@ -81,12 +81,17 @@ public class HBaseMultiClusterConfigUtil {
   
   /**
    * This method will take a multi hbase config and produce all the single config files
+   *
+   * The failovers come first, ordered by their tier
+   * (hbase.failover.cluster.&lt;name&gt;.hbase.multi.cluster.tier, 1 if unset)
+   * and then by their position in hbase.failover.clusters, followed by the
+   * primary.
    * @param config
    * @return
    */
   public static Map<String, Configuration> splitMultiConfigFile(Configuration config) {
     
-    Map<String, Configuration> results = new HashMap<String, Configuration>();
+    Map<String, Configuration> results = new LinkedHashMap<String, Configuration>();
     
     Collection<String> failoverNames = config.getStringCollection(ConfigConst.HBASE_FAILOVER_CLUSTERS_CONFIG);
     
@@ -96,11 +101,13 @@ public class HBaseMultiClusterConfigUtil {
     } else {
       
       // add failover configs
+      final Map<String, Integer> tiers = new HashMap<String, Integer>();
+      Map<String, Configuration> failoverConfigs = new HashMap<String, Configuration>();
       for (String failoverName: failoverNames) {
         System.out.println("spliting: " + failoverName);
         Configuration failoverConfig = new Configuration(config);
         
-        results.put(failoverName, failoverConfig);
+        failoverConfigs.put(failoverName, failoverConfig);
         
         failoverConfig.unset(ConfigConst.HBASE_FAILOVER_CLUSTERS_CONFIG);
         
@@ -113,6 +120,19 @@ public class HBaseMultiClusterConfigUtil {
             failoverConfig.unset(keyValue.getKey());
           }
         }
+        tiers.put(failoverName, failoverConfig.getInt(ConfigConst.HBASE_MULTI_CLUSTER_TIER_CONFIG, 1));
+      }
+
+      List<String> orderedNames = new ArrayList<String>(failoverNames);
+      Collections.sort(orderedNames, new Comparator<String>() {
+        @Override
+        public int compare(String name1, String name2) {
+          return tiers.get(name1).compareTo(tiers.get(name2));
+        }
+      });
+      for (String failoverName : orderedNames) {
+        LOG.info("Failover " + failoverName + " is in tier " + tiers.get(failoverName));
+        results.put(failoverName, failoverConfigs.get(failoverName));
       }
       
       //clean up primary config
@@ -34,18 +34,21 @@ public class HConnectionManagerMultiClusterWrapper {
       LOG.info(" --- Got primary Connction");
 
       ArrayList<HConnection> failoverConnections = new ArrayList<HConnection>();
+      ArrayList<String> failoverNames = new ArrayList<String>();
 
       for (Entry<String, Configuration> entry : configMap.entrySet()) {
         if (!entry.getKey().equals(HBaseMultiClusterConfigUtil.PRIMARY_NAME)) {
           LOG.info(" -- Getting failure Connction");
           failoverConnections.add(HConnectionManager.createConnection(entry
               .getValue()));
+          failoverNames.add(entry.getKey());
           LOG.info(" --- Got failover Connction");
         }
       }
       
       return new HConnectionMultiCluster(conf, primaryConnection,
-          failoverConnections.toArray(new HConnection[0]));
+          failoverConnections.toArray(new HConnection[0]),
+          failoverNames.toArray(new String[0]));
     }
   }
 }
@@ -1,10 +1,14 @@
 package org.apache.hadoop.hbase.client;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -18,6 +22,7 @@ public class HConnectionMultiCluster implements HConnection {
 
   HConnection primaryConnection;
   HConnection[] failoverConnections;
+  String[] clusterNames;
   Configuration originalConfiguration;
   boolean isMasterMaster;
   int waitTimeBeforeAcceptingResults;
@@ -28,15 +33,46 @@ public class HConnectionMultiCluster implements HConnection {
   int waitTimeBeforeRequestingBatchFailover;
   int waitTimeBeforeMutatingBatchFailover;
   int waitTimeFromLastPrimaryFail;
+  String circuitBreakerKey;
+  int circuitBreakerFailureThreshold;
 
   static final Log LOG = LogFactory.getLog(HConnectionMultiCluster.class);
   
-  ExecutorService executor;
+  HedgeDelays hedgeDelays;
+  HedgingBudget hedgingBudget;
+  HedgingScheduler hedgingScheduler;
+  ConcurrentHashMap<TableName, RegionCircuitBreaker> circuitBreakers =
+      new ConcurrentHashMap<TableName, RegionCircuitBreaker>();
+  ConcurrentHashMap<TableName, MultiClusterTableState> tableStates =
+      new ConcurrentHashMap<TableName, MultiClusterTableState>();
+  MutationJournal journal;
+  JournalReplayer journalReplayer;
+  ScheduledFuture<?> journalReplay;
+  RegionLocationWarmer regionLocationWarmer;
+  ClusterHealth[] clusterHealths;
+  ClusterHealthProber healthProber;
+  FailoverSelector failoverSelector;
+  ConnectionStats stats;
+  MultiClusterMetrics metrics;
 
   public HConnectionMultiCluster(Configuration originalConfiguration,
-      HConnection primaryConnection, HConnection[] failoverConnections) {
+      HConnection primaryConnection, HConnection[] failoverConnections) throws IOException {
+    this(originalConfiguration, primaryConnection, failoverConnections,
+        defaultFailoverNames(failoverConnections.length));
+  }
+
+  /**
+   * @param failoverNames the names of the failover clusters in the
+   * multi-cluster configuration, which their health and stats go by
+   */
+  public HConnectionMultiCluster(Configuration originalConfiguration,
+      HConnection primaryConnection, HConnection[] failoverConnections,
+      String[] failoverNames) throws IOException {
     this.primaryConnection = primaryConnection;
     this.failoverConnections = failoverConnections;
+    this.clusterNames = new String[failoverConnections.length + 1];
+    this.clusterNames[0] = HBaseMultiClusterConfigUtil.PRIMARY_NAME;
+    System.arraycopy(failoverNames, 0, clusterNames, 1, failoverConnections.length);
     this.originalConfiguration = originalConfiguration;
     this.isMasterMaster = originalConfiguration
         .getBoolean(
@@ -64,16 +100,160 @@ public class HConnectionMultiCluster implements HConnection {
             100);
     this.waitTimeBeforeRequestingBatchFailover = originalConfiguration
         .getInt(
-            ConfigConst.HBASE_WAIT_TIME_BEFORE_MUTATING_BATCH_FAILOVER_CONFIG,
+            ConfigConst.HBASE_WAIT_TIME_BEFORE_REQUEST_BATCH_FAILOVER_CONFIG,
             100);
     this.waitTimeBeforeMutatingBatchFailover = originalConfiguration
         .getInt(
-            ConfigConst.HBASE_WAIT_TIME_BEFORE_REQUEST_BATCH_FAILOVER_CONFIG,
+            ConfigConst.HBASE_WAIT_TIME_BEFORE_MUTATING_BATCH_FAILOVER_CONFIG,
             100);
     this.waitTimeFromLastPrimaryFail = originalConfiguration
             .getInt(ConfigConst.HBASE_WAIT_TIME_BEFORE_TRYING_PRIMARY_AFTER_FAILURE, 5000);
+    this.circuitBreakerKey = originalConfiguration
+        .get(ConfigConst.HBASE_MULTI_CLUSTER_CIRCUIT_BREAKER_KEY_CONFIG,
+            RegionCircuitBreaker.KEY_BY_REGION);
+    this.circuitBreakerFailureThreshold = originalConfiguration
+        .getInt(ConfigConst.HBASE_MULTI_CLUSTER_CIRCUIT_BREAKER_FAILURE_THRESHOLD_CONFIG, 1);
+
+    hedgeDelays = new HedgeDelays(originalConfiguration,
+        waitTimeBeforeRequestingFailover,
+        waitTimeBeforeAcceptingResults,
+        waitTimeBeforeRequestingBatchFailover,
+        waitTimeBeforeAcceptingBatchResults,
+        waitTimeBeforeMutatingFailover,
+        waitTimeBeforeMutatingBatchFailover);
+    hedgingBudget = new HedgingBudget(
+        originalConfiguration.getFloat(ConfigConst.HBASE_MULTI_CLUSTER_HEDGING_BUDGET_RATIO_CONFIG, 1f),
+        originalConfiguration.getInt(ConfigConst.HBASE_MULTI_CLUSTER_HEDGING_BUDGET_BURST_CONFIG, 100),
+        originalConfiguration.getLong(ConfigConst.HBASE_MULTI_CLUSTER_HEDGING_BUDGET_DEADLINE_CONFIG, 1000));
+    hedgingScheduler = new HedgingScheduler(originalConfiguration.getInt(ConfigConst.HBASE_MULTI_CLUSTER_CONNECTION_POOL_SIZE, 200));
+
+    String journalDir = originalConfiguration.get(ConfigConst.HBASE_MULTI_CLUSTER_JOURNAL_DIR_CONFIG);
+    if (journalDir != null) {
+      journal = new MutationJournal(new File(journalDir),
+          originalConfiguration.getInt(ConfigConst.HBASE_MULTI_CLUSTER_JOURNAL_SEGMENT_SIZE_CONFIG, 67108864),
+          originalConfiguration.getBoolean(ConfigConst.HBASE_MULTI_CLUSTER_JOURNAL_SYNC_CONFIG, false));
+      journalReplayer = new JournalReplayer(journal, primaryConnection,
+          originalConfiguration.getInt(ConfigConst.HBASE_MULTI_CLUSTER_JOURNAL_REPLAY_THREADS_CONFIG, 8));
+      journalReplay = hedgingScheduler.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          hedgingScheduler.getExecutor().execute(new Runnable() {
+            public void run() {
+              replayJournal();
+            }
+          });
+        }
+      }, originalConfiguration.getLong(ConfigConst.HBASE_MULTI_CLUSTER_JOURNAL_REPLAY_INTERVAL_CONFIG, 60000));
+    }
 
-    executor = Executors.newFixedThreadPool(originalConfiguration.getInt(ConfigConst.HBASE_MULTI_CLUSTER_CONNECTION_POOL_SIZE, 20));
+    String[] warmUpTables = originalConfiguration.getTrimmedStrings(
+        ConfigConst.HBASE_MULTI_CLUSTER_WARMUP_TABLES_CONFIG);
+    if (warmUpTables.length > 0) {
+      List<TableName> tableNames = new ArrayList<TableName>();
+      for (String warmUpTable : warmUpTables) {
+        tableNames.add(TableName.valueOf(warmUpTable));
+      }
+      regionLocationWarmer = new RegionLocationWarmer(getConnections(), tableNames, hedgingScheduler);
+      regionLocationWarmer.start(originalConfiguration.getLong(
+          ConfigConst.HBASE_MULTI_CLUSTER_WARMUP_REFRESH_INTERVAL_CONFIG, 300000));
+    }
+
+    clusterHealths = new ClusterHealth[failoverConnections.length + 1];
+    for (int i = 0; i < clusterHealths.length; i++) {
+      clusterHealths[i] = new ClusterHealth(clusterNames[i],
+          originalConfiguration.getFloat(ConfigConst.HBASE_MULTI_CLUSTER_HEALTH_EWMA_ALPHA_CONFIG, 0.2f),
+          originalConfiguration.getInt(ConfigConst.HBASE_MULTI_CLUSTER_HEALTH_FAILURE_THRESHOLD_CONFIG, 3),
+          originalConfiguration.getInt(ConfigConst.HBASE_MULTI_CLUSTER_HEALTH_RECOVERY_THRESHOLD_CONFIG, 2));
+    }
+    failoverSelector = new FailoverSelector(originalConfiguration, failoverConnections,
+        Arrays.copyOfRange(clusterHealths, 1, clusterHealths.length));
+
+    String probeTable = originalConfiguration.get(ConfigConst.HBASE_MULTI_CLUSTER_PROBE_TABLE_CONFIG);
+    if (probeTable != null) {
+      clusterHealths[0].setListener(new ClusterHealth.Listener() {
+        public void onHealthChange(ClusterHealth health, boolean isHealthy) {
+          if (isHealthy) {
+            onPrimaryRecovered();
+          }
+        }
+      });
+      healthProber = new ClusterHealthProber(getConnections(), clusterHealths,
+          TableName.valueOf(probeTable),
+          Bytes.toBytes(originalConfiguration.get(ConfigConst.HBASE_MULTI_CLUSTER_PROBE_ROW_CONFIG, "multi-cluster-probe")),
+          originalConfiguration.getBoolean(ConfigConst.HBASE_MULTI_CLUSTER_PROBE_PER_SERVER_CONFIG, false),
+          originalConfiguration.getLong(ConfigConst.HBASE_MULTI_CLUSTER_PROBE_TIMEOUT_CONFIG, 1000),
+          hedgingScheduler);
+      healthProber.start(originalConfiguration.getLong(ConfigConst.HBASE_MULTI_CLUSTER_PROBE_INTERVAL_CONFIG, 1000));
+    }
+
+    stats = new ConnectionStats(tableStates, hedgingScheduler);
+    long statsInterval = originalConfiguration.getLong(
+        ConfigConst.HBASE_MULTI_CLUSTER_STATS_INTERVAL_CONFIG, 10000);
+    if (statsInterval > 0) {
+      // a client library leaves the metrics system alone unless asked to
+      if (originalConfiguration.getBoolean(ConfigConst.HBASE_MULTI_CLUSTER_METRICS_ENABLED_CONFIG, false)) {
+        metrics = new MultiClusterMetrics(clusterHealths, hedgingBudget, journal);
+        metrics.start(originalConfiguration.getInt(
+            ConfigConst.HBASE_MULTI_CLUSTER_METRICS_PROMETHEUS_PORT_CONFIG, 0));
+        stats.addListener(metrics);
+      }
+      stats.start(statsInterval);
+    }
+  }
+
+  /**
+   * @return the connection of every cluster, primary first
+   */
+  List<HConnection> getConnections() {
+    List<HConnection> connections = new ArrayList<HConnection>(failoverConnections.length + 1);
+    connections.add(primaryConnection);
+    Collections.addAll(connections, failoverConnections);
+    return connections;
+  }
+
+  /**
+   * Closes the primary circuits as soon as the prober sees the primary
+   * answer again, instead of waiting for them to time out, and replays
+   * what the failovers took in the meantime.
+   */
+  void onPrimaryRecovered() {
+    for (RegionCircuitBreaker circuitBreaker : circuitBreakers.values()) {
+      circuitBreaker.reset();
+    }
+    if (journal != null) {
+      hedgingScheduler.getExecutor().execute(new Runnable() {
+        public void run() {
+          replayJournal();
+        }
+      });
+    }
+  }
+
+  /**
+   * @return the health of every cluster, primary first
+   */
+  public ClusterHealth[] getClusterHealths() {
+    return clusterHealths;
+  }
+
+  /**
+   * Replays the mutations only a failover acknowledged to the primary once
+   * it is healthy: as the prober sees it, or without a prober once a trial
+   * get answers.  The circuits are no guide, they only change state when
+   * requests arrive.
+   */
+  void replayJournal() {
+    if (!journal.hasRecords()) {
+      return;
+    }
+    try {
+      if (healthProber == null) {
+        journalReplayer.replayIfPrimaryAnswers();
+      } else if (clusterHealths[0].isHealthy()) {
+        journalReplayer.replay();
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to replay the journal to the primary, will retry", e);
+    }
   }
 
   public void abort(String why, Throwable e) {
@@ -89,7 +269,45 @@ public class HConnectionMultiCluster implements HConnection {
 
   public void close() throws IOException {
 
+    stats.stop();
+    if (metrics != null) {
+      metrics.stop();
+    }
+    if (regionLocationWarmer != null) {
+      regionLocationWarmer.stop();
+    }
+    if (healthProber != null) {
+      healthProber.stop();
+    }
+    hedgingScheduler.shutdown();
+    // hedged writes, their journaling and a replay can still be running
+    try {
+      if (!hedgingScheduler.awaitTermination(originalConfiguration.getLong(
+          ConfigConst.HBASE_MULTI_CLUSTER_CLOSE_TIMEOUT_CONFIG, 60000))) {
+        LOG.warn("Closing the connection while calls of the worker pool are still running");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while waiting for the calls of the worker pool", e);
+    }
+
     Exception lastException = null;
+    for (MultiClusterTableState state : tableStates.values()) {
+      try {
+        state.close();
+      } catch (Exception e) {
+        LOG.error("Exception while closing the tables of " + state.getTableName(), e);
+        lastException = e;
+      }
+    }
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (Exception e) {
+        LOG.error("Exception while closing the journal", e);
+        lastException = e;
+      }
+    }
     try {
       primaryConnection.close();
     } catch (Exception e) {
@@ -125,24 +343,9 @@ public class HConnectionMultiCluster implements HConnection {
 
   @Override
   public HTableInterface getTable(TableName tableName) throws IOException {
-    LOG.info(" -- getting primaryHTable" + primaryConnection.getConfiguration().get("hbase.zookeeper.quorum"));
-    HTableInterface primaryHTable = primaryConnection.getTable(tableName);
-    primaryHTable.setAutoFlush(true, true);
-
-    LOG.info(" --- got primaryHTable");
-    ArrayList<HTableInterface> failoverHTables = new ArrayList<HTableInterface>();
-    for (HConnection failOverConnection : failoverConnections) {
-      LOG.info(" -- getting failoverHTable:" + failOverConnection.getConfiguration().get("hbase.zookeeper.quorum"));
-
-      HTableInterface htable = failOverConnection.getTable(tableName);
-      htable.setAutoFlush(true, true);
-
-      failoverHTables.add(htable);
-      LOG.info(" --- got failoverHTable");
-    }
-
-    return new HTableMultiCluster(originalConfiguration, primaryHTable,
-        failoverHTables, isMasterMaster, 
+    MultiClusterTableState state = getTableState(tableName);
+    return new HTableMultiCluster(originalConfiguration, state,
+        state.primaryHTable, state.failoverHTables, false, isMasterMaster,
         waitTimeBeforeAcceptingResults,
         waitTimeBeforeRequestingFailover,
         waitTimeBeforeMutatingFailover,
@@ -150,7 +353,92 @@ public class HConnectionMultiCluster implements HConnection {
         waitTimeBeforeAcceptingBatchResults,
         waitTimeBeforeRequestingBatchFailover,
         waitTimeBeforeMutatingBatchFailover,
-            waitTimeFromLastPrimaryFail);
+            waitTimeFromLastPrimaryFail,
+            hedgeDelays,
+            hedgingBudget,
+            hedgingScheduler,
+            journal);
+  }
+
+  /**
+   * @return the tables, stats and settings shared by all handles of the
+   * table, created by the first getTable call for it
+   */
+  MultiClusterTableState getTableState(TableName tableName) {
+    MultiClusterTableState state = tableStates.get(tableName);
+    if (state == null) {
+      HTableStats stats = new HTableStats();
+      ArrayList<HTableInterface> failoverHTables = new ArrayList<HTableInterface>();
+      for (int i = 0; i < failoverConnections.length; i++) {
+        failoverHTables.add(new ClusterHTable(failoverConnections[i], tableName, null,
+            stats.getClusterStats(clusterNames[i + 1])));
+      }
+      state = new MultiClusterTableState(originalConfiguration, tableName,
+          new ClusterHTable(primaryConnection, tableName, null,
+              stats.getClusterStats(clusterNames[0])),
+          failoverHTables, getCircuitBreaker(tableName), failoverSelector, stats);
+      MultiClusterTableState existing = tableStates.putIfAbsent(tableName, state);
+      if (existing != null) {
+        state = existing;
+      } else {
+        LOG.info("Created multi-cluster table state of " + tableName + " for " +
+            (failoverHTables.size() + 1) + " clusters");
+      }
+    }
+    return state;
+  }
+
+  private static String[] defaultFailoverNames(int count) {
+    String[] names = new String[count];
+    for (int i = 0; i < count; i++) {
+      names[i] = "failover" + (i + 1);
+    }
+    return names;
+  }
+
+  /**
+   * @return the stats of all tables of the connection, which add up the
+   * stats of every handle
+   */
+  public ConnectionStats getStats() {
+    return stats;
+  }
+
+  /**
+   * @return the metrics of the connection, or null if they are not
+   * published
+   */
+  public MultiClusterMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return the budget limiting how many requests of this connection hedge,
+   * with counters of how often it throttled hedging
+   */
+  public HedgingBudget getHedgingBudget() {
+    return hedgingBudget;
+  }
+
+  /**
+   * @return the primary circuit breakers of the table, shared by all its
+   * HTableMultiCluster instances
+   */
+  RegionCircuitBreaker getCircuitBreaker(TableName tableName) {
+    RegionCircuitBreaker circuitBreaker = circuitBreakers.get(tableName);
+    if (circuitBreaker == null) {
+      circuitBreaker = new RegionCircuitBreaker(primaryConnection, tableName,
+          circuitBreakerKey, circuitBreakerFailureThreshold,
+          waitTimeFromLastPrimaryFail, hedgingScheduler,
+          healthProber == null ? null : clusterHealths[0]);
+      RegionCircuitBreaker existing = circuitBreakers.putIfAbsent(tableName, circuitBreaker);
+      if (existing != null) {
+        circuitBreaker = existing;
+      } else {
+        circuitBreaker.refreshRegions();
+      }
+    }
+    return circuitBreaker;
   }
 
   public HTableInterface getTable(String tableName, ExecutorService pool)
@@ -163,16 +451,23 @@ public class HConnectionMultiCluster implements HConnection {
     return this.getTable(TableName.valueOf(tableName), pool);
   }
 
+  /**
+   * The returned handle shares the stats and settings of the table but runs
+   * on tables of its own, which use the pool and are closed with the handle.
+   */
   public HTableInterface getTable(TableName tableName, ExecutorService pool)
       throws IOException {
-    HTableInterface primaryHTable = primaryConnection.getTable(tableName, pool);
+    MultiClusterTableState state = getTableState(tableName);
+    HTableInterface primaryHTable = new ClusterHTable(primaryConnection, tableName, pool,
+        state.stats.getClusterStats(clusterNames[0]));
     ArrayList<HTableInterface> failoverHTables = new ArrayList<HTableInterface>();
-    for (HConnection failOverConnection : failoverConnections) {
-      failoverHTables.add(failOverConnection.getTable(tableName, pool));
+    for (int i = 0; i < failoverConnections.length; i++) {
+      failoverHTables.add(new ClusterHTable(failoverConnections[i], tableName, pool,
+          state.stats.getClusterStats(clusterNames[i + 1])));
     }
 
-    return new HTableMultiCluster(originalConfiguration, primaryHTable,
-        failoverHTables, isMasterMaster, 
+    return new HTableMultiCluster(originalConfiguration, state,
+        primaryHTable, failoverHTables, true, isMasterMaster,
         waitTimeBeforeAcceptingResults,
         waitTimeBeforeRequestingFailover,
         waitTimeBeforeMutatingFailover,
@@ -180,7 +475,11 @@ public class HConnectionMultiCluster implements HConnection {
         waitTimeBeforeAcceptingBatchResults,
         waitTimeBeforeRequestingBatchFailover,
         waitTimeBeforeMutatingBatchFailover,
-            waitTimeFromLastPrimaryFail);
+            waitTimeFromLastPrimaryFail,
+            hedgeDelays,
+            hedgingBudget,
+            hedgingScheduler,
+            journal);
   }
 
   public boolean isMasterRunning() throws MasterNotRunningException,
@@ -265,19 +564,28 @@ public class HConnectionMultiCluster implements HConnection {
     return primaryConnection.locateRegion(tableName, row);
   }
 
+  /**
+   * Clears the meta cache of every cluster.
+   */
   public void clearRegionCache() {
-    primaryConnection.clearRegionCache();
+    for (HConnection connection : getConnections()) {
+      connection.clearRegionCache();
+    }
   }
 
+  /**
+   * Clears the table from the meta cache of every cluster.
+   */
   public void clearRegionCache(TableName tableName) {
-    primaryConnection.clearRegionCache(tableName);
+    for (HConnection connection : getConnections()) {
+      connection.clearRegionCache(tableName);
+    }
   }
 
   @Deprecated
   public
   void clearRegionCache(byte[] tableName) {
-    primaryConnection.clearRegionCache(tableName);
-
+    this.clearRegionCache(TableName.valueOf(tableName));
   }
 
   public void deleteCachedRegionLocation(HRegionLocation location) {
@@ -10,6 +10,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.coprocessor.Batch.Call;
 import org.apache.hadoop.hbase.client.coprocessor.Batch.Callback;
@@ -18,12 +19,15 @@ import org.apache.hadoop.hbase.ipc.CoprocessorRpcChannel;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class HTableMultiCluster implements HTableInterface {
 
@@ -39,18 +43,40 @@ public class HTableMultiCluster implements HTableInterface {
   int waitTimeBeforeRequestingBatchFailover;
   int waitTimeBeforeMutatingBatchFailover;
   int waitTimeFromLastPrimaryFail;
-
-  AtomicLong lastPrimaryFail = new AtomicLong(0);
-  HTableStats stats = new HTableStats();
-
-  ArrayList<Put> bufferPutList = new ArrayList<Put>();
-  boolean autoFlush = true;
-  protected long currentWriteBufferSize;
-  private long writeBufferSize;
+  long scannerStallTimeout;
+  int scannerPrefetchChunks;
+  long scannerPrefetchMaxBytes;
+  LogSampler putLog;
+  HedgeDelays hedgeDelays;
+  RegionCircuitBreaker circuitBreaker;
+  HedgingBudget hedgingBudget;
+  HedgingScheduler hedgingScheduler;
+  FailoverSelector failoverSelector;
+  MutationJournal journal;
+
+  MultiClusterTableState state;
+  boolean isOwningTables;
+  HTableStats stats;
+  RecentWritesTracker recentWrites;
+
+  MutationBuffer writeBuffer;
+  volatile WriteBufferFlusher writeBufferFlusher;
+  volatile boolean autoFlush = true;
+  private volatile long writeBufferSize;
 
 
   static final Log LOG = LogFactory.getLog(HTableMultiCluster.class);
 
+  static final SpeculativeRequester.ResultReleaser<ResultScanner> CLOSE_SCANNER =
+          new SpeculativeRequester.ResultReleaser<ResultScanner>() {
+    @Override
+    public void release(ResultScanner scanner) {
+      if (scanner != null) {
+        scanner.close();
+      }
+    }
+  };
+
   public HTableStats getStats() {
     return stats;
   }
@@ -64,10 +90,52 @@ public class HTableMultiCluster implements HTableInterface {
                             int waitTimeBeforeAcceptingBatchResults,
                             int waitTimeBeforeRequestingBatchFailover,
                             int waitTimeBeforeMutatingBatchFailover,
-                            int waitTimeFromLastPrimaryFail) {
+                            int waitTimeFromLastPrimaryFail,
+                            HedgeDelays hedgeDelays,
+                            RegionCircuitBreaker circuitBreaker,
+                            HedgingBudget hedgingBudget,
+                            HedgingScheduler hedgingScheduler,
+                            MutationJournal journal) {
+    this(originalConfiguration,
+        new MultiClusterTableState(originalConfiguration, primaryHTable.getName(),
+            primaryHTable, failoverHTables, circuitBreaker, null),
+        primaryHTable, failoverHTables, true, isMasterMaster,
+        waitTimeBeforeAcceptingResults, waitTimeBeforeRequestingFailover,
+        waitTimeBeforeMutatingFailover,
+        waitTimeBeforeMutatingFailoverWithPrimaryException,
+        waitTimeBeforeAcceptingBatchResults,
+        waitTimeBeforeRequestingBatchFailover,
+        waitTimeBeforeMutatingBatchFailover,
+        waitTimeFromLastPrimaryFail,
+        hedgeDelays, hedgingBudget, hedgingScheduler, journal);
+  }
 
+  /**
+   * Handle on the state the connection shares between all handles of the
+   * table.  The handle only closes the tables it was given if it owns them.
+   */
+  HTableMultiCluster(Configuration originalConfiguration,
+                     MultiClusterTableState state,
+                     HTableInterface primaryHTable,
+                     Collection<HTableInterface> failoverHTables,
+                     boolean isOwningTables,
+                     boolean isMasterMaster,
+                     int waitTimeBeforeAcceptingResults, int waitTimeBeforeRequestingFailover,
+                     int waitTimeBeforeMutatingFailover,
+                     int waitTimeBeforeMutatingFailoverWithPrimaryException,
+                     int waitTimeBeforeAcceptingBatchResults,
+                     int waitTimeBeforeRequestingBatchFailover,
+                     int waitTimeBeforeMutatingBatchFailover,
+                     int waitTimeFromLastPrimaryFail,
+                     HedgeDelays hedgeDelays,
+                     HedgingBudget hedgingBudget,
+                     HedgingScheduler hedgingScheduler,
+                     MutationJournal journal) {
+
+    this.state = state;
     this.primaryHTable = primaryHTable;
     this.failoverHTables = failoverHTables;
+    this.isOwningTables = isOwningTables;
     this.isMasterMaster = isMasterMaster;
     this.waitTimeBeforeAcceptingResults = waitTimeBeforeAcceptingResults;
     this.waitTimeBeforeRequestingFailover = waitTimeBeforeRequestingFailover;
@@ -77,12 +145,45 @@ public class HTableMultiCluster implements HTableInterface {
     this.waitTimeBeforeRequestingBatchFailover = waitTimeBeforeRequestingBatchFailover;
     this.waitTimeBeforeMutatingBatchFailover = waitTimeBeforeMutatingBatchFailover;
     this.waitTimeFromLastPrimaryFail = waitTimeFromLastPrimaryFail;
-
-    this.writeBufferSize = originalConfiguration.getLong("hbase.client.write.buffer", 2097152L);
+    this.hedgeDelays = hedgeDelays;
+    this.circuitBreaker = state.circuitBreaker;
+    this.failoverSelector = state.failoverSelector;
+    this.hedgingBudget = hedgingBudget;
+    this.hedgingScheduler = hedgingScheduler;
+    this.journal = journal;
+    this.stats = state.stats;
+    this.recentWrites = state.recentWrites;
+
+    this.writeBufferSize = state.writeBufferSize;
+    this.scannerStallTimeout = state.scannerStallTimeout;
+    this.scannerPrefetchChunks = state.scannerPrefetchChunks;
+    this.scannerPrefetchMaxBytes = state.scannerPrefetchMaxBytes;
+    this.putLog = state.putLog;
 
     this.originalConfiguration = originalConfiguration;
   }
 
+  /**
+   * @return the flusher of the write buffer, created the first time writes
+   * are buffered so handles that always auto-flush never pay for it
+   */
+  WriteBufferFlusher getWriteBufferFlusher() {
+    WriteBufferFlusher flusher = writeBufferFlusher;
+    if (flusher == null) {
+      synchronized (this) {
+        flusher = writeBufferFlusher;
+        if (flusher == null) {
+          writeBuffer = new MutationBuffer(state.writeBufferStripes);
+          flusher = new WriteBufferFlusher(this, writeBuffer, writeBufferSize,
+              state.writeBufferFlushInterval, state.writeBufferMemoryLimit,
+              state.writeBufferFlushThreads, hedgingScheduler);
+          writeBufferFlusher = flusher;
+        }
+      }
+    }
+    return flusher;
+  }
+
   public byte[] getTableName() {
     return primaryHTable.getTableName();
   }
@@ -105,7 +206,19 @@ public class HTableMultiCluster implements HTableInterface {
   }
 
   public Tuple<Boolean> multiClusterExists(final Get get) throws IOException {
-    long startTime = System.currentTimeMillis();
+    long startTime = System.nanoTime();
+
+    HTableInterface writer = recentWriterOf(get.getRow());
+    if (writer != null) {
+      try {
+        boolean doesExist = writer.exists(get);
+        stats.addGet(false, System.nanoTime() - startTime);
+        return new Tuple<Boolean>(false, doesExist);
+      } catch (IOException e) {
+        LOG.debug("Unable to read a recently written row from failover " +
+            writer.getName() + ", hedging it", e);
+      }
+    }
 
     HBaseTableFunction<Boolean> function = new HBaseTableFunction<Boolean>() {
       @Override
@@ -115,11 +228,11 @@ public class HTableMultiCluster implements HTableInterface {
     };
 
     SpeculativeRequester.ResultWrapper<Boolean> result = (new SpeculativeRequester<Boolean>(
-            waitTimeBeforeRequestingFailover, waitTimeBeforeAcceptingResults, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail)).
+            hedgeDelays.get(MultiClusterOperation.GET), circuitBreaker.circuitFor(get.getRow()),
+            hedgingBudget, hedgingScheduler, failoverSelector)).
             request(function, primaryHTable, failoverHTables);
 
-    stats.addGet(result.isPrimary, System.currentTimeMillis() - startTime);
+    stats.addGet(result.isPrimary, System.nanoTime() - startTime);
 
     boolean doesExist = result.t;
     return new Tuple<Boolean>(result.isPrimary, doesExist);
@@ -130,55 +243,358 @@ public class HTableMultiCluster implements HTableInterface {
   }
 
   public Tuple<Boolean[]> multiClusterExists(final List<Get> gets) throws IOException {
-    long startTime = System.currentTimeMillis();
+    long startTime = System.nanoTime();
 
-    HBaseTableFunction<Boolean[]> function = new HBaseTableFunction<Boolean[]>() {
-      @Override
-      public Boolean[] call(HTableInterface table) throws Exception {
-        return table.exists(gets);
-      }
-    };
+    List<Get> existenceGets = new ArrayList<Get>(gets.size());
+    for (Get get : gets) {
+      Get existenceGet = new Get(get);
+      existenceGet.setCheckExistenceOnly(true);
+      existenceGets.add(existenceGet);
+    }
 
-    SpeculativeRequester.ResultWrapper<Boolean[]> result = (new SpeculativeRequester<Boolean[]>(
-            waitTimeBeforeRequestingFailover, waitTimeBeforeAcceptingResults, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail)).
-            request(function, primaryHTable, failoverHTables);
+    Object[] results = new Object[gets.size()];
+    boolean isPrimary = requestGets(existenceGets, results, null);
 
-    stats.addGetList(result.isPrimary, System.currentTimeMillis() - startTime);
+    stats.addGetList(isPrimary, System.nanoTime() - startTime);
+    throwIfFailed(existenceGets, results);
 
-    Boolean[] doesExists = result.t;
+    Boolean[] doesExists = new Boolean[results.length];
+    for (int i = 0; i < results.length; i++) {
+      doesExists[i] = Boolean.TRUE.equals(((Result)results[i]).getExists());
+    }
 
-    return new Tuple<Boolean[]>(result.isPrimary, doesExists);
+    return new Tuple<Boolean[]>(isPrimary, doesExists);
   }
 
   public void batch(final List<? extends Row> actions, final Object[] results)
           throws IOException, InterruptedException {
-    // TODO
+    multiClusterBatchCallback(actions, results, null);
   }
 
   public Object[] batch(final List<? extends Row> actions) throws IOException,
           InterruptedException {
-    // TODO
-    return null;
+    Object[] results = new Object[actions.size()];
+    batch(actions, results);
+    return results;
   }
 
   public <R> void batchCallback(List<? extends Row> actions, Object[] results,
                                 Callback<R> callback) throws IOException, InterruptedException {
-    // TODO
+    multiClusterBatchCallback(actions, results, callback);
   }
 
   public <R> Object[] batchCallback(List<? extends Row> actions,
                                     Callback<R> callback) throws IOException, InterruptedException {
-    // TODO
+    Object[] results = new Object[actions.size()];
+    batchCallback(actions, results, callback);
+    return results;
+  }
+
+  /**
+   * Gets are requested and Puts and Deletes are mutated speculatively, each
+   * action taking the result of the first cluster that answers it.
+   * Increments, Appends and RowMutations are not idempotent, so they only go
+   * to the primary.
+   *
+   * @return true if the primary answered every action
+   */
+  public <R> Boolean multiClusterBatchCallback(final List<? extends Row> actions,
+                                               final Object[] results,
+                                               final Callback<R> callback)
+          throws IOException, InterruptedException {
+    long ts = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
+
+    final List<Row> reads = new ArrayList<Row>();
+    final List<Integer> readIndexes = new ArrayList<Integer>();
+    final List<Row> writes = new ArrayList<Row>();
+    final List<Integer> writeIndexes = new ArrayList<Integer>();
+    final List<Row> primaryOnly = new ArrayList<Row>();
+    final List<Integer> primaryOnlyIndexes = new ArrayList<Integer>();
+
+    for (int i = 0; i < actions.size(); i++) {
+      Row action = actions.get(i);
+      if (action instanceof Get) {
+        reads.add(action);
+        readIndexes.add(i);
+      } else if (action instanceof Put) {
+        writes.add(setTimeStampOfUnsetValues((Put)action, ts));
+        writeIndexes.add(i);
+      } else if (action instanceof Delete) {
+        writes.add(action);
+        writeIndexes.add(i);
+      } else {
+        primaryOnly.add(action);
+        primaryOnlyIndexes.add(i);
+      }
+    }
+
+    boolean isPrimary = true;
+
+    if (!reads.isEmpty()) {
+      Object[] readResults = new Object[reads.size()];
+      boolean isReadPrimary = requestGets(reads, readResults, callback);
+      for (int i = 0; i < reads.size(); i++) {
+        results[readIndexes.get(i)] = readResults[i];
+      }
+      isPrimary &= isReadPrimary;
+      stats.addGetList(isReadPrimary, System.nanoTime() - startNanos);
+    }
+
+    if (!writes.isEmpty()) {
+      long writeTs = System.nanoTime();
+      final MultiClusterBatch<R> batch = new MultiClusterBatch<R>(writes, callback, primaryHTable);
+      SpeculativeMutater.mutate(
+              hedgeDelays.get(MultiClusterOperation.PUT_LIST),
+              waitTimeBeforeMutatingFailoverWithPrimaryException,
+              batch.function, primaryHTable, failoverHTables,
+              circuitBreaker.circuitFor(writes),
+              hedgingBudget, hedgingScheduler, null, journal == null ? null :
+                  new SpeculativeMutater.FailoverListener() {
+                    public void onFailoverAcknowledged(boolean isPrimarySucceeded) {
+                      // even a primary call that succeeded may have left
+                      // actions a failover answered first
+                      journal(batch.getMissedByPrimary());
+                    }
+                  });
+      batch.fill(results, writeIndexes);
+      if (recentWrites != null) {
+        for (int i = 0; i < writes.size(); i++) {
+          recordWrite(writes.get(i).getRow(), batch.getAnsweredBy(i));
+        }
+      }
+      isPrimary &= batch.isAllPrimary;
+      stats.addPutList(batch.isAllPrimary, System.nanoTime() - writeTs);
+    }
+
+    if (!primaryOnly.isEmpty()) {
+      Object[] primaryResults = new Object[primaryOnly.size()];
+      try {
+        primaryHTable.batchCallback(primaryOnly, primaryResults, callback);
+      } catch (RetriesExhaustedWithDetailsException e) {
+        // the failed actions hold their exception in the results
+      }
+      for (int i = 0; i < primaryOnly.size(); i++) {
+        results[primaryOnlyIndexes.get(i)] = primaryResults[i] != null ?
+                primaryResults[i] : new IOException("The primary did not answer the action");
+      }
+    }
+
+    throwIfFailed(actions, results);
+    return isPrimary;
+  }
+
+  /**
+   * Reads rows a failover recently acknowledged a write of from that
+   * failover, and hedges the others.  A routed get that fails is hedged too.
+   *
+   * @return true if the primary answered every get
+   */
+  private <R> boolean requestGets(final List<? extends Row> gets,
+                                  final Object[] results,
+                                  final Callback<R> callback) throws InterruptedIOException {
+    if (recentWrites == null || !recentWrites.isActive()) {
+      return requestHedgedGets(gets, results, callback);
+    }
+    Map<HTableInterface, List<Integer>> routed = new LinkedHashMap<HTableInterface, List<Integer>>();
+    List<Row> hedged = new ArrayList<Row>(gets.size());
+    List<Integer> hedgedIndexes = new ArrayList<Integer>(gets.size());
+    for (int i = 0; i < gets.size(); i++) {
+      HTableInterface writer = recentWriterOf(gets.get(i).getRow());
+      if (writer == null) {
+        hedged.add(gets.get(i));
+        hedgedIndexes.add(i);
+        continue;
+      }
+      List<Integer> indexes = routed.get(writer);
+      if (indexes == null) {
+        indexes = new ArrayList<Integer>();
+        routed.put(writer, indexes);
+      }
+      indexes.add(i);
+    }
+    if (routed.isEmpty()) {
+      return requestHedgedGets(gets, results, callback);
+    }
+
+    boolean isAllPrimary = true;
+    for (Entry<HTableInterface, List<Integer>> entry : routed.entrySet()) {
+      List<Integer> indexes = entry.getValue();
+      List<Row> routedGets = new ArrayList<Row>(indexes.size());
+      for (int index : indexes) {
+        routedGets.add(gets.get(index));
+      }
+      Object[] routedResults = new Object[routedGets.size()];
+      try {
+        entry.getKey().batchCallback(routedGets, routedResults, callback);
+      } catch (InterruptedException e) {
+        throw (InterruptedIOException)new InterruptedIOException().initCause(e);
+      } catch (IOException e) {
+        LOG.debug("Unable to read recently written rows from failover " +
+            entry.getKey().getName() + ", hedging them", e);
+      }
+      for (int i = 0; i < routedGets.size(); i++) {
+        if (routedResults[i] == null || routedResults[i] instanceof Throwable) {
+          hedged.add(routedGets.get(i));
+          hedgedIndexes.add(indexes.get(i));
+        } else {
+          results[indexes.get(i)] = routedResults[i];
+          isAllPrimary = false;
+        }
+      }
+    }
+
+    if (!hedged.isEmpty()) {
+      Object[] hedgedResults = new Object[hedged.size()];
+      isAllPrimary &= requestHedgedGets(hedged, hedgedResults, callback);
+      for (int i = 0; i < hedged.size(); i++) {
+        results[hedgedIndexes.get(i)] = hedgedResults[i];
+      }
+    }
+    return isAllPrimary;
+  }
+
+  /**
+   * Requests the gets from the primary as one batch, which the client splits
+   * by region server, and hedges only the gets still unanswered when the
+   * hedge delay expires.  A single slow region therefore only sends its own
+   * gets to the failover instead of the whole list.
+   *
+   * @return true if the primary answered every get
+   */
+  private <R> boolean requestHedgedGets(final List<? extends Row> gets,
+                                        final Object[] results,
+                                        final Callback<R> callback) {
+    MultiClusterBatch<R> batch = new MultiClusterBatch<R>(gets, callback, primaryHTable);
+    (new SpeculativeRequester<Void>(
+            hedgeDelays.get(MultiClusterOperation.GET_LIST), circuitBreaker.circuitFor(gets),
+            hedgingBudget, hedgingScheduler, failoverSelector)).
+            request(batch.function, primaryHTable, failoverHTables);
+    batch.fill(results);
+    return batch.isAllPrimary;
+  }
+
+  /**
+   * @return the failover that acknowledged a write of the row within the
+   * read-your-writes window, or null if the row can be read from any cluster
+   */
+  private HTableInterface recentWriterOf(byte[] row) {
+    int cluster = recentWrites == null ? 0 : recentWrites.clusterOf(row);
+    if (cluster == 0) {
+      return null;
+    }
+    int index = 1;
+    for (HTableInterface failoverHTable : failoverHTables) {
+      if (index++ == cluster) {
+        return failoverHTable;
+      }
+    }
     return null;
   }
 
+  private void recordWrites(final List<? extends Row> mutations, Boolean isPrimary,
+                            AtomicReference<HTableInterface> answeredBy) {
+    if (isPrimary == null) {
+      return;
+    }
+    HTableInterface table = isPrimary ? primaryHTable : answeredBy.get();
+    for (Row mutation : mutations) {
+      recordWrite(mutation.getRow(), table);
+    }
+  }
+
+  /**
+   * Remembers which cluster acknowledged a write of the row, so reads of it
+   * go to that failover until the primary acknowledges a later write.
+   */
+  private void recordWrite(byte[] row, HTableInterface answeredBy) {
+    if (answeredBy == null) {
+      return;
+    }
+    if (answeredBy == primaryHTable) {
+      recentWrites.record(row, 0);
+      return;
+    }
+    int cluster = 1;
+    for (HTableInterface failoverHTable : failoverHTables) {
+      if (failoverHTable == answeredBy) {
+        recentWrites.record(row, cluster);
+        return;
+      }
+      cluster++;
+    }
+  }
+
+  /**
+   * @return a listener that journals the mutations unless the primary
+   * applied them, or null if the connection has no journal
+   */
+  private SpeculativeMutater.FailoverListener journalUnlessPrimary(
+          final List<? extends Row> mutations) {
+    if (journal == null) {
+      return null;
+    }
+    return new SpeculativeMutater.FailoverListener() {
+      public void onFailoverAcknowledged(boolean isPrimarySucceeded) {
+        if (!isPrimarySucceeded) {
+          journal(mutations);
+        }
+      }
+    };
+  }
+
+  /**
+   * Journals mutations only a failover acknowledged, so they can be replayed
+   * to the primary once it is healthy again.
+   */
+  private void journal(final List<? extends Row> mutations) {
+    if (journal == null) {
+      return;
+    }
+    for (Row mutation : mutations) {
+      try {
+        journal.append(getName(), (Mutation)mutation);
+      } catch (IOException e) {
+        LOG.error("Unable to journal a mutation only a failover acknowledged", e);
+      }
+    }
+  }
+
+  private static void throwIfFailed(final List<? extends Row> actions, final Object[] results)
+          throws RetriesExhaustedWithDetailsException {
+    List<Throwable> exceptions = new ArrayList<Throwable>();
+    List<Row> failedActions = new ArrayList<Row>();
+    List<String> hostnames = new ArrayList<String>();
+    for (int i = 0; i < actions.size(); i++) {
+      if (results[i] instanceof Throwable) {
+        exceptions.add((Throwable)results[i]);
+        failedActions.add(actions.get(i));
+        hostnames.add("");
+      }
+    }
+    if (!exceptions.isEmpty()) {
+      throw new RetriesExhaustedWithDetailsException(exceptions, failedActions, hostnames);
+    }
+  }
+
   public Result get(final Get get) throws IOException {
     return multiClusterGet(get).originalReturn;
   }
 
   public Tuple<Result> multiClusterGet(final Get get) throws IOException {
-    long ts = System.currentTimeMillis();
+    long ts = System.nanoTime();
+
+    HTableInterface writer = recentWriterOf(get.getRow());
+    if (writer != null) {
+      try {
+        Result writerResult = writer.get(get);
+        stats.addGet(false, System.nanoTime() - ts);
+        return new Tuple<Result>(false, writerResult);
+      } catch (IOException e) {
+        LOG.debug("Unable to read a recently written row from failover " +
+            writer.getName() + ", hedging it", e);
+      }
+    }
 
     HBaseTableFunction<Result> function = new HBaseTableFunction<Result>() {
       @Override
@@ -188,11 +604,11 @@ public class HTableMultiCluster implements HTableInterface {
     };
 
     SpeculativeRequester.ResultWrapper<Result> result = (new SpeculativeRequester<Result>(
-            waitTimeBeforeRequestingFailover, waitTimeBeforeAcceptingResults, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail)).
+            hedgeDelays.get(MultiClusterOperation.GET), circuitBreaker.circuitFor(get.getRow()),
+            hedgingBudget, hedgingScheduler, failoverSelector)).
             request(function, primaryHTable, failoverHTables);
 
-    stats.addGet(result.isPrimary, System.currentTimeMillis() - ts);
+    stats.addGet(result.isPrimary, System.nanoTime() - ts);
 
     Result returnResults = result.t;
     return new Tuple<Result>(result.isPrimary, returnResults);
@@ -203,25 +619,17 @@ public class HTableMultiCluster implements HTableInterface {
   }
 
   public Tuple<Result[]> multiClusterGet(final List<Get> gets) throws IOException {
-    long ts = System.currentTimeMillis();
-
-    HBaseTableFunction<Result[]> function = new HBaseTableFunction<Result[]>() {
-      @Override
-      public Result[] call(HTableInterface table) throws Exception {
-        return table.get(gets);
-      }
-    };
+    long ts = System.nanoTime();
 
-    SpeculativeRequester.ResultWrapper<Result[]> result = (new SpeculativeRequester<Result[]>(
-            waitTimeBeforeRequestingFailover, waitTimeBeforeAcceptingResults, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail)).
-            request(function, primaryHTable, failoverHTables);
+    Object[] results = new Object[gets.size()];
+    boolean isPrimary = requestGets(gets, results, null);
 
+    stats.addGetList(isPrimary, System.nanoTime() - ts);
+    throwIfFailed(gets, results);
 
-    stats.addGetList(result.isPrimary, System.currentTimeMillis() - ts);
-
-    Result[] returnResults = result.t;
-    return new Tuple<Result[]>(result.isPrimary, returnResults);
+    Result[] returnResults = new Result[results.length];
+    System.arraycopy(results, 0, returnResults, 0, results.length);
+    return new Tuple<Result[]>(isPrimary, returnResults);
   }
 
   @Deprecated
@@ -231,7 +639,7 @@ public class HTableMultiCluster implements HTableInterface {
   }
 
   public Tuple<Result> multiClusterGetRowOrBefore(final byte[] row, final byte[] family) {
-    long ts = System.currentTimeMillis();
+    long ts = System.nanoTime();
 
     HBaseTableFunction<Result> function = new HBaseTableFunction<Result>() {
       @Override
@@ -241,11 +649,11 @@ public class HTableMultiCluster implements HTableInterface {
     };
 
     SpeculativeRequester.ResultWrapper<Result> result = (new SpeculativeRequester<Result>(
-            waitTimeBeforeRequestingFailover, waitTimeBeforeAcceptingResults, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail)).
+            hedgeDelays.get(MultiClusterOperation.GET), circuitBreaker.circuitFor(row),
+            hedgingBudget, hedgingScheduler, failoverSelector)).
             request(function, primaryHTable, failoverHTables);
 
-    stats.addGet(result.isPrimary, System.currentTimeMillis() - ts);
+    stats.addGet(result.isPrimary, System.nanoTime() - ts);
 
     Result returnResult = result.t;
     return new Tuple<Result>(result.isPrimary, returnResult);
@@ -257,22 +665,31 @@ public class HTableMultiCluster implements HTableInterface {
   }
 
   public Tuple<ResultScanner> multiClusterGetScanner(final Scan scan) throws IOException {
-    long ts = System.currentTimeMillis();
+    long ts = System.nanoTime();
+
+    final List<HTableInterface> tables = new ArrayList<HTableInterface>(failoverHTables.size() + 1);
+    tables.add(primaryHTable);
+    tables.addAll(failoverHTables);
 
     HBaseTableFunction<ResultScanner> function = new HBaseTableFunction<ResultScanner>() {
       @Override
       public ResultScanner call(HTableInterface table) throws Exception {
-        return table.getScanner(scan);
+        return new MultiClusterResultScanner(scan, tables, tables.indexOf(table),
+                scannerStallTimeout, scannerPrefetchChunks, scannerPrefetchMaxBytes, hedgingScheduler);
       }
     };
 
     SpeculativeRequester.ResultWrapper<ResultScanner> result = (new SpeculativeRequester<ResultScanner>(
-            waitTimeBeforeRequestingFailover, waitTimeBeforeAcceptingResults, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail)).
-            request(function, primaryHTable, failoverHTables);
+            hedgeDelays.get(MultiClusterOperation.SCAN_OPEN), circuitBreaker.circuitFor(scan.getStartRow()),
+            hedgingBudget, hedgingScheduler, failoverSelector)).
+            request(function, primaryHTable, failoverHTables, CLOSE_SCANNER);
+
+    if (result == null) {
+      throw new IOException("Unable to open a scanner on any cluster");
+    }
 
     // need to add a scanner
-    stats.addGet(result.isPrimary, System.currentTimeMillis() - ts);
+    stats.addGet(result.isPrimary, System.nanoTime() - ts);
 
     ResultScanner resultScanner = result.t;
     return new Tuple<ResultScanner>(result.isPrimary, resultScanner);
@@ -283,24 +700,9 @@ public class HTableMultiCluster implements HTableInterface {
   }
 
   public Tuple<ResultScanner> multiClusterGetScanner(final byte[] family) throws IOException {
-    long ts = System.currentTimeMillis();
-
-    HBaseTableFunction<ResultScanner> function = new HBaseTableFunction<ResultScanner>() {
-      @Override
-      public ResultScanner call(HTableInterface table) throws Exception {
-        return table.getScanner(family);
-      }
-    };
-
-    SpeculativeRequester.ResultWrapper<ResultScanner> result = (new SpeculativeRequester<ResultScanner>(
-            waitTimeBeforeRequestingFailover, waitTimeBeforeAcceptingResults, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail)).
-            request(function, primaryHTable, failoverHTables);
-
-    // need to add a scanner
-    stats.addGet(result.isPrimary, System.currentTimeMillis() - ts);
-
-    return new Tuple(result.isPrimary, result.t);
+    Scan scan = new Scan();
+    scan.addFamily(family);
+    return multiClusterGetScanner(scan);
   }
 
   public ResultScanner getScanner(final byte[] family, final byte[] qualifier)
@@ -310,24 +712,9 @@ public class HTableMultiCluster implements HTableInterface {
 
   public Tuple<ResultScanner> multiClusterGetScanner(final byte[] family, final byte[] qualifier)
           throws IOException {
-    long ts = System.currentTimeMillis();
-
-    HBaseTableFunction<ResultScanner> function = new HBaseTableFunction<ResultScanner>() {
-      @Override
-      public ResultScanner call(HTableInterface table) throws Exception {
-        return table.getScanner(family, qualifier);
-      }
-    };
-
-    SpeculativeRequester.ResultWrapper<ResultScanner> result = (new SpeculativeRequester<ResultScanner>(
-            waitTimeBeforeRequestingFailover, waitTimeBeforeAcceptingResults, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail)).
-            request(function, primaryHTable, failoverHTables);
-
-    // need to add a scanner
-    stats.addGet(result.isPrimary, System.currentTimeMillis() - ts);
-
-    return new Tuple(result.isPrimary, result.t);
+    Scan scan = new Scan();
+    scan.addColumn(family, qualifier);
+    return multiClusterGetScanner(scan);
   }
 
 
@@ -341,47 +728,94 @@ public class HTableMultiCluster implements HTableInterface {
     if (autoFlush) {
       return autoFlushMutliClusterPut(put);
     } else {
-      bufferPutList.add(put);
-      currentWriteBufferSize += put.heapSize();
-      if (currentWriteBufferSize > writeBufferSize) {
-        Boolean isPrimary = autoFlushMutliClusterPut(bufferPutList);
-        bufferPutList.clear();
-        currentWriteBufferSize = 0l;
-        return isPrimary;
+      // Stamp now so the order of buffered puts is kept in their timestamps
+      return bufferMutation(setTimeStampOfUnsetValues(put, System.currentTimeMillis()));
+    }
+  }
+
+  /**
+   * Buffers the mutation; the background flusher writes it once the buffer
+   * is over the write buffer size or the flush interval expires.
+   */
+  private Boolean bufferMutation(final Mutation mutation) throws IOException {
+    getWriteBufferFlusher().add(mutation);
+    return true;
+  }
+
+  /**
+   * Sends the mutations as batches that hold at most one mutation per row,
+   * so the mutations of a row reach each cluster in the order they were
+   * buffered.  Mutations that fail are dropped and reported once every batch
+   * was sent.
+   *
+   * @return false if a failover answered part of the mutations
+   */
+  Boolean sendMutations(final List<Mutation> mutations) throws IOException {
+    boolean isPrimary = true;
+
+    List<Throwable> exceptions = new ArrayList<Throwable>();
+    List<Row> failedActions = new ArrayList<Row>();
+    List<String> hostnames = new ArrayList<String>();
+    for (List<Mutation> run : MutationBuffer.splitIntoRuns(mutations)) {
+      try {
+        isPrimary &= multiClusterBatchCallback(run, new Object[run.size()], null);
+      } catch (RetriesExhaustedWithDetailsException e) {
+        for (int i = 0; i < e.getNumExceptions(); i++) {
+          exceptions.add(e.getCause(i));
+          failedActions.add(e.getRow(i));
+          hostnames.add(e.getHostnamePort(i));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while flushing the write buffer");
       }
-      return true;
     }
+    if (!exceptions.isEmpty()) {
+      throw new RetriesExhaustedWithDetailsException(exceptions, failedActions, hostnames);
+    }
+    return isPrimary;
   }
 
   private Boolean autoFlushMutliClusterPut(final Put put) throws IOException {
     long ts = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
 
     final Put newPut = setTimeStampOfUnsetValues(put, ts);
 
     HBaseTableFunction<Void> function = new HBaseTableFunction<Void>() {
       @Override
       public Void call(HTableInterface table) throws Exception {
-        synchronized (table) {
-          System.out.println("table.put.start:" + table.getConfiguration().get("hbase.zookeeper.quorum") + " " + table.getName() + " " + Bytes.toString(newPut.getRow()));
-          try {
-            table.put(newPut);
-          } catch (Exception e) {
-            System.out.println("table.put.exception:" + table.getName() + " " + Bytes.toString(newPut.getRow()));
-            throw new RuntimeException(e);
+        try {
+          table.put(newPut);
+        } catch (IOException e) {
+          if (putLog.isDebugSampled()) {
+            putLog.debug("Put of " + Bytes.toStringBinary(newPut.getRow()) + " to " +
+                (table == primaryHTable ? "primary " : "failover ") + table.getName() + " failed", e);
           }
-          System.out.println("table.put.done:" + table);
+          throw e;
+        }
+        if (putLog.isDebugSampled()) {
+          putLog.debug("Put " + Bytes.toStringBinary(newPut.getRow()) + " to " +
+              (table == primaryHTable ? "primary " : "failover ") + table.getName());
         }
         return null;
       }
     };
 
+    final AtomicReference<HTableInterface> answeredBy = recentWrites == null ?
+        null : new AtomicReference<HTableInterface>();
     Boolean isPrimary = SpeculativeMutater.mutate(
-            waitTimeBeforeAcceptingBatchResults,
+            hedgeDelays.get(MultiClusterOperation.PUT),
             waitTimeBeforeMutatingFailoverWithPrimaryException,
-            function, primaryHTable, failoverHTables, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail);
+            function, primaryHTable, failoverHTables,
+            circuitBreaker.circuitFor(put.getRow()),
+            hedgingBudget, hedgingScheduler, answeredBy,
+            journalUnlessPrimary(Collections.singletonList(newPut)));
+    if (recentWrites != null) {
+      recordWrites(Collections.singletonList(newPut), isPrimary, answeredBy);
+    }
 
-    long time = System.currentTimeMillis() - ts;
+    long time = System.nanoTime() - startNanos;
 
 
 
@@ -389,22 +823,67 @@ public class HTableMultiCluster implements HTableInterface {
     return isPrimary;
   }
 
-  private Put setTimeStampOfUnsetValues(final Put put, long ts)
-          throws IOException {
-    final Put newPut = new Put(put.getRow());
-    for (Entry<byte[], List<Cell>> entity : put.getFamilyCellMap().entrySet()) {
-      for (Cell cell : entity.getValue()) {
-        // If no timestamp was given then use now.
-        // This will protect us from a multicluster sumbission
-        if (cell.getTimestamp() == HConstants.LATEST_TIMESTAMP) {
-          newPut
-                  .add(cell.getFamily(), cell.getQualifier(), ts, cell.getValue());
+  /**
+   * Gives the cells of the put that have no timestamp the time of the call,
+   * so every cluster stores them with the same version.  The cells are
+   * stamped in place, as the region server would stamp them, rather than
+   * copied into a new put.
+   */
+  static Put setTimeStampOfUnsetValues(final Put put, long ts) {
+    byte[] stamp = null;
+    for (List<Cell> cells : put.getFamilyCellMap().values()) {
+      for (int i = 0; i < cells.size(); i++) {
+        Cell cell = cells.get(i);
+        if (cell.getTimestamp() != HConstants.LATEST_TIMESTAMP) {
+          continue;
+        }
+        if (cell instanceof KeyValue) {
+          if (stamp == null) {
+            stamp = Bytes.toBytes(ts);
+          }
+          ((KeyValue)cell).updateLatestStamp(stamp);
         } else {
-          newPut.add(cell);
+          cells.set(i, new KeyValue(cell.getRow(), cell.getFamily(), cell.getQualifier(),
+              ts, cell.getValue()));
         }
       }
     }
-    return newPut;
+    return put;
+  }
+
+  /**
+   * Gives the delete markers of the delete that have no timestamp the time
+   * of the call.  A buffered delete is sent after the puts buffered behind
+   * it were already stamped, so left unstamped the region server would give
+   * it a newer timestamp than those puts and hide them.  Deletes of the
+   * latest version of a column keep no timestamp, as the region server
+   * resolves them to the version they delete.
+   */
+  static Delete setTimeStampOfUnsetValues(final Delete delete, long ts) {
+    if (delete.getTimeStamp() == HConstants.LATEST_TIMESTAMP) {
+      // a delete of the whole row gets its family markers from this
+      delete.setTimestamp(ts);
+    }
+    byte[] stamp = null;
+    for (List<Cell> cells : delete.getFamilyCellMap().values()) {
+      for (int i = 0; i < cells.size(); i++) {
+        Cell cell = cells.get(i);
+        if (cell.getTimestamp() != HConstants.LATEST_TIMESTAMP ||
+            cell.getTypeByte() == KeyValue.Type.Delete.getCode()) {
+          continue;
+        }
+        if (cell instanceof KeyValue) {
+          if (stamp == null) {
+            stamp = Bytes.toBytes(ts);
+          }
+          ((KeyValue)cell).updateLatestStamp(stamp);
+        } else {
+          cells.set(i, new KeyValue(cell.getRow(), cell.getFamily(), cell.getQualifier(),
+              ts, KeyValue.Type.codeToType(cell.getTypeByte())));
+        }
+      }
+    }
+    return delete;
   }
 
   public void put(final List<Put> puts) throws IOException {
@@ -415,23 +894,19 @@ public class HTableMultiCluster implements HTableInterface {
     if (autoFlush) {
       return autoFlushMutliClusterPut(puts);
     } else {
-      bufferPutList.addAll(puts);
-      for (int i = 0; i < puts.size(); i++) {
-        currentWriteBufferSize += puts.get(0).heapSize();
-      }
-
-      if (currentWriteBufferSize > writeBufferSize) {
-        Boolean isPrimary = autoFlushMutliClusterPut(bufferPutList);
-        bufferPutList.clear();
-        currentWriteBufferSize = 0l;
-        return isPrimary;
+      long ts = System.currentTimeMillis();
+      List<Put> newPuts = new ArrayList<Put>(puts.size());
+      for (Put put : puts) {
+        newPuts.add(setTimeStampOfUnsetValues(put, ts));
       }
+      getWriteBufferFlusher().add(newPuts);
       return true;
     }
   }
 
   public Boolean autoFlushMutliClusterPut(final List<Put> puts) throws IOException {
     long ts = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
 
     final List<Put> newPuts = new ArrayList<Put>();
     for (Put put : puts) {
@@ -446,13 +921,19 @@ public class HTableMultiCluster implements HTableInterface {
       }
     };
 
+    final AtomicReference<HTableInterface> answeredBy = recentWrites == null ?
+        null : new AtomicReference<HTableInterface>();
     Boolean isPrimary = SpeculativeMutater.mutate(
-            waitTimeBeforeAcceptingBatchResults,
+            hedgeDelays.get(MultiClusterOperation.PUT_LIST),
             waitTimeBeforeMutatingFailoverWithPrimaryException,
-            function, primaryHTable, failoverHTables, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail);
+            function, primaryHTable, failoverHTables,
+            circuitBreaker.circuitFor(newPuts),
+            hedgingBudget, hedgingScheduler, answeredBy, journalUnlessPrimary(newPuts));
+    if (recentWrites != null) {
+      recordWrites(newPuts, isPrimary, answeredBy);
+    }
 
-    stats.addPutList(isPrimary, System.currentTimeMillis() - ts);
+    stats.addPutList(isPrimary, System.nanoTime() - startNanos);
     return isPrimary;
   }
 
@@ -467,7 +948,11 @@ public class HTableMultiCluster implements HTableInterface {
   }
 
   public Boolean multiClusterDelete(final Delete delete) throws IOException {
-    long ts = System.currentTimeMillis();
+    if (!autoFlush) {
+      // Stamp now, like buffered puts, so the delete keeps its place among them
+      return bufferMutation(setTimeStampOfUnsetValues(delete, System.currentTimeMillis()));
+    }
+    long ts = System.nanoTime();
 
     HBaseTableFunction<Void> function = new HBaseTableFunction<Void>() {
       @Override
@@ -477,13 +962,20 @@ public class HTableMultiCluster implements HTableInterface {
       }
     };
 
+    final AtomicReference<HTableInterface> answeredBy = recentWrites == null ?
+        null : new AtomicReference<HTableInterface>();
     Boolean isPrimary = SpeculativeMutater.mutate(
-            waitTimeBeforeAcceptingBatchResults,
+            hedgeDelays.get(MultiClusterOperation.DELETE),
             waitTimeBeforeMutatingFailoverWithPrimaryException,
-            function, primaryHTable, failoverHTables, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail);
+            function, primaryHTable, failoverHTables,
+            circuitBreaker.circuitFor(delete.getRow()),
+            hedgingBudget, hedgingScheduler, answeredBy,
+            journalUnlessPrimary(Collections.singletonList(delete)));
+    if (recentWrites != null) {
+      recordWrites(Collections.singletonList(delete), isPrimary, answeredBy);
+    }
 
-    stats.addDelete(isPrimary, System.currentTimeMillis() - ts);
+    stats.addDelete(isPrimary, System.nanoTime() - ts);
     return isPrimary;
   }
 
@@ -492,23 +984,44 @@ public class HTableMultiCluster implements HTableInterface {
   }
 
   public Boolean multiClusterDelete(final List<Delete> deletes) throws IOException {
-    long ts = System.currentTimeMillis();
+    if (!autoFlush) {
+      long ts = System.currentTimeMillis();
+      for (Delete delete : deletes) {
+        setTimeStampOfUnsetValues(delete, ts);
+      }
+      getWriteBufferFlusher().add(deletes);
+      return true;
+    }
+    long ts = System.nanoTime();
 
+    // HTable#delete(List) removes the deletes it applied from its list, so
+    // every cluster gets a copy of its own and the snapshot stays whole.
+    final List<Delete> toSend = new ArrayList<Delete>(deletes);
     HBaseTableFunction<Void> function = new HBaseTableFunction<Void>() {
       @Override
       public Void call(HTableInterface table) throws Exception {
-        table.delete(deletes);
+        table.delete(new ArrayList<Delete>(toSend));
         return null;
       }
     };
 
+    final AtomicReference<HTableInterface> answeredBy = recentWrites == null ?
+        null : new AtomicReference<HTableInterface>();
     Boolean isPrimary = SpeculativeMutater.mutate(
-            waitTimeBeforeAcceptingBatchResults,
+            hedgeDelays.get(MultiClusterOperation.DELETE_LIST),
             waitTimeBeforeMutatingFailoverWithPrimaryException,
-            function, primaryHTable, failoverHTables, lastPrimaryFail,
-            waitTimeFromLastPrimaryFail);
+            function, primaryHTable, failoverHTables,
+            circuitBreaker.circuitFor(toSend),
+            hedgingBudget, hedgingScheduler, answeredBy, journalUnlessPrimary(toSend));
+    if (recentWrites != null) {
+      recordWrites(toSend, isPrimary, answeredBy);
+    }
+    if (isPrimary != null) {
+      // like HTable, leave only the deletes that failed in the caller's list
+      deletes.clear();
+    }
 
-    stats.addDeleteList(isPrimary, System.currentTimeMillis() - ts);
+    stats.addDeleteList(isPrimary, System.nanoTime() - ts);
     return isPrimary;
   }
 
@@ -549,42 +1062,36 @@ public class HTableMultiCluster implements HTableInterface {
   }
 
   public boolean isAutoFlush() {
-
-    boolean primaryAnswer = primaryHTable.isAutoFlush();
-
-    return primaryAnswer;
+    return autoFlush;
   }
 
   public void flushCommits() throws IOException {
-    if (bufferPutList.size() > 0) {
-      autoFlushMutliClusterPut(bufferPutList);
-      bufferPutList.clear();
-      currentWriteBufferSize = 0l;
+    WriteBufferFlusher flusher = writeBufferFlusher;
+    if (flusher != null) {
+      flusher.flush();
     }
-
   }
 
   public void close() throws IOException {
-    if (bufferPutList.size() > 0) {
-      autoFlushMutliClusterPut(bufferPutList);
-      bufferPutList.clear();
-      currentWriteBufferSize = 0l;
+    WriteBufferFlusher flusher = writeBufferFlusher;
+    if (flusher != null) {
+      flusher.close();
+    }
+    if (!isOwningTables) {
+      // the connection closes the tables it shares between handles
+      return;
     }
 
     Exception lastException = null;
     try {
-      synchronized (primaryHTable) {
-        primaryHTable.close();
-      }
+      primaryHTable.close();
     } catch (Exception e) {
       LOG.error("Exception while flushCommits primary", e);
       lastException = e;
     }
     for (final HTableInterface failoverTable : failoverHTables) {
       try {
-        synchronized (failoverTable) {
-          failoverTable.close();
-        }
+        failoverTable.close();
       } catch (Exception e) {
         LOG.error("Exception while flushCommitsy failover", e);
         lastException = e;
@@ -617,11 +1124,10 @@ public class HTableMultiCluster implements HTableInterface {
   @Deprecated
   public void setAutoFlush(boolean autoFlush) {
     this.autoFlush = autoFlush;
-    if (autoFlush == true && bufferPutList.size() > 0) {
+    WriteBufferFlusher flusher = writeBufferFlusher;
+    if (autoFlush == true && flusher != null && writeBuffer.getSize() > 0) {
       try {
-        autoFlushMutliClusterPut(bufferPutList);
-        bufferPutList.clear();
-        currentWriteBufferSize = 0l;
+        flusher.flush();
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
@@ -629,24 +1135,31 @@ public class HTableMultiCluster implements HTableInterface {
 
   }
 
+  /**
+   * Unlike HTable, this ignores clearBufferOnFail: the buffer is flushed in
+   * the background, so mutations that failed on every cluster are always
+   * dropped from it, and {@link #flushCommits()} throws them once.  Kept as
+   * retries they would be sent after the mutations buffered behind them,
+   * out of their order.
+   */
   public void setAutoFlush(boolean autoFlush, boolean clearBufferOnFail) {
-    // TODO Auto-generated method stub
-
+    setAutoFlush(autoFlush);
   }
 
   public void setAutoFlushTo(boolean autoFlush) {
-    // TODO Auto-generated method stub
-
+    this.autoFlush = autoFlush;
   }
 
   public long getWriteBufferSize() {
-    // TODO Auto-generated method stub
-    return 0;
+    return writeBufferSize;
   }
 
   public void setWriteBufferSize(long writeBufferSize) throws IOException {
-    // TODO Auto-generated method stub
-
+    this.writeBufferSize = writeBufferSize;
+    WriteBufferFlusher flusher = writeBufferFlusher;
+    if (flusher != null) {
+      flusher.setFlushSize(writeBufferSize);
+    }
   }
 
   public <R extends Message> Map<byte[], R> batchCoprocessorService(
@@ -4,12 +4,30 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.log4j.Logger;
 
 import java.io.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Counts and latencies of the operations of a table.
+ *
+ * Latencies are recorded in nanoseconds into a {@link LatencyRecorder} per
+ * operation and per side that answered (primary, failover, or none when the
+ * operation failed).  {@link #rollInterval} starts a new interval for all of
+ * them at once; for the tables of a connection its {@link ConnectionStats}
+ * does, and reports the interval's percentiles and counts.
+ *
+ * Counters are striped so they do not turn into a contended cache line,
+ * and each cluster of the table has a {@link ClusterStats} of its own.
+ */
 public class HTableStats {
 
   Logger LOG = Logger.getLogger(HTableStats.class);
@@ -21,54 +39,100 @@ public class HTableStats {
   AtomicLong maxGetTime = new AtomicLong(0);
   AtomicLong maxGetListTime = new AtomicLong(0);
 
-  AtomicLong putPrimary = new AtomicLong(0);
-  AtomicLong putFailover = new AtomicLong(0);
-  AtomicLong putListPrimary = new AtomicLong(0);
-  AtomicLong putListFailover = new AtomicLong(0);
-  AtomicLong getPrimary = new AtomicLong(0);
-  AtomicLong getFailover = new AtomicLong(0);
-  AtomicLong getListPrimary = new AtomicLong(0);
-  AtomicLong getListFailover = new AtomicLong(0);
-  AtomicLong deletePrimary = new AtomicLong(0);
-  AtomicLong deleteFailover = new AtomicLong(0);
-  AtomicLong deleteListPrimary = new AtomicLong(0);
-  AtomicLong deleteListFailover = new AtomicLong(0);
-  
-  long lastPutPrimary = 0;
-  long lastPutFailover = 0;
-  long lastPutListPrimary = 0;
-  long lastPutListFailover = 0;
-  long lastGetPrimary = 0;
-  long lastGetFailover = 0;
-  long lastGetListPrimary = 0;
-  long lastGetListFailover = 0;
-  long lastDeletePrimary = 0;
-  long lastDeleteFailover = 0;
-  long lastDeleteListPrimary = 0;
-  long lastDeleteListFailover = 0;
-
-  static final int ROLLING_AVG_WINDOW = 90;
-  BlockingQueue<Long> putRollingAverage = new LinkedBlockingQueue<Long>();
-  BlockingQueue<Long> putListRollingAverage = new LinkedBlockingQueue<Long>();
-  BlockingQueue<Long> getRollingAverage = new LinkedBlockingQueue<Long>();
-  BlockingQueue<Long> getListRollingAverage = new LinkedBlockingQueue<Long>();
-  BlockingQueue<Long> deleteRollingAverage = new LinkedBlockingQueue<Long>();
-  BlockingQueue<Long> deleteListRollingAverage = new LinkedBlockingQueue<Long>();
+  final StripedCounter putPrimary = new StripedCounter();
+  final StripedCounter putFailover = new StripedCounter();
+  final StripedCounter putListPrimary = new StripedCounter();
+  final StripedCounter putListFailover = new StripedCounter();
+  final StripedCounter getPrimary = new StripedCounter();
+  final StripedCounter getFailover = new StripedCounter();
+  final StripedCounter getListPrimary = new StripedCounter();
+  final StripedCounter getListFailover = new StripedCounter();
+  final StripedCounter deletePrimary = new StripedCounter();
+  final StripedCounter deleteFailover = new StripedCounter();
+  final StripedCounter deleteListPrimary = new StripedCounter();
+  final StripedCounter deleteListFailover = new StripedCounter();
   
+  static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.MINUTES.toNanos(1);
+  static final int LATENCY_SUB_BUCKET_BITS = 6;
+
+  static final int PRIMARY = 0;
+  static final int FAILOVER = 1;
+  static final int FAILED = 2;
+
+  final EnumMap<MultiClusterOperation, LatencyRecorder[]> latencies =
+      new EnumMap<MultiClusterOperation, LatencyRecorder[]>(MultiClusterOperation.class);
+  volatile Interval lastInterval;
+
+  final ConcurrentHashMap<String, ClusterStats> clusters =
+      new ConcurrentHashMap<String, ClusterStats>();
+
   static final String newLine = System.getProperty("line.separator");
+  static final long NANOS_PER_MILLI = 1000000L;
+  static final long NANOS_PER_MICRO = 1000L;
 
-  Thread printingThread = null;
-  boolean continuePrinting = false;
-  
   public HTableStats() {
-    for (int i = 0; i < ROLLING_AVG_WINDOW; i++) {
-      putRollingAverage.add(-1l);
-      putListRollingAverage.add(-1l);
-      getRollingAverage.add(-1l);
-      getListRollingAverage.add(-1l);
-      deleteRollingAverage.add(-1l);
-      deleteListRollingAverage.add(-1l);
-    } 
+    for (MultiClusterOperation operation : MultiClusterOperation.values()) {
+      LatencyRecorder[] recorders = new LatencyRecorder[3];
+      for (int i = 0; i < recorders.length; i++) {
+        recorders[i] = new LatencyRecorder(HIGHEST_TRACKABLE_LATENCY, LATENCY_SUB_BUCKET_BITS);
+      }
+      latencies.put(operation, recorders);
+    }
+    lastInterval = rollInterval();
+  }
+
+  /**
+   * Starts a new interval for every operation and cluster at once.
+   *
+   * @return the interval that just ended
+   */
+  public synchronized Interval rollInterval() {
+    EnumMap<MultiClusterOperation, LatencyRecorder.Snapshot[]> snapshots =
+        new EnumMap<MultiClusterOperation, LatencyRecorder.Snapshot[]>(MultiClusterOperation.class);
+    for (MultiClusterOperation operation : MultiClusterOperation.values()) {
+      LatencyRecorder[] recorders = latencies.get(operation);
+      LatencyRecorder.Snapshot[] operationSnapshots = new LatencyRecorder.Snapshot[recorders.length];
+      for (int i = 0; i < recorders.length; i++) {
+        operationSnapshots[i] = recorders[i].getIntervalSnapshot();
+      }
+      snapshots.put(operation, operationSnapshots);
+    }
+    Map<String, LatencyRecorder.Snapshot[]> clusterSnapshots =
+        new HashMap<String, LatencyRecorder.Snapshot[]>();
+    for (ClusterStats clusterStats : clusters.values()) {
+      clusterSnapshots.put(clusterStats.getName(), clusterStats.rollInterval());
+    }
+    lastInterval = new Interval(snapshots, clusterSnapshots);
+    return lastInterval;
+  }
+
+  /**
+   * @return the stats of the named cluster, created on first use
+   */
+  public ClusterStats getClusterStats(String name) {
+    ClusterStats clusterStats = clusters.get(name);
+    if (clusterStats == null) {
+      clusterStats = new ClusterStats(name);
+      ClusterStats existing = clusters.putIfAbsent(name, clusterStats);
+      if (existing != null) {
+        clusterStats = existing;
+      }
+    }
+    return clusterStats;
+  }
+
+  /**
+   * @return the stats of every cluster by name
+   */
+  public Map<String, ClusterStats> getClusterStats() {
+    return Collections.unmodifiableMap(clusters);
+  }
+
+  /**
+   * @return the interval the last {@link #rollInterval} ended
+   */
+  public Interval getLastInterval() {
+    return lastInterval;
   }
   
   public void printPrettyStats() {
@@ -79,20 +143,14 @@ public class HTableStats {
     LOG.info(" > maxGetListTime:    " + maxGetListTime);
     LOG.info(" > maxDeleteTime:     " + maxDeleteTime);
     LOG.info(" > maxDeleteListTime: " + maxDeleteListTime);
-    LOG.info("Stats: Rolling Avg");
-    LOG.info(" > put:               " + getRollingAvg(putRollingAverage));
-    LOG.info(" > putList:           " + getRollingAvg(putListRollingAverage));
-    LOG.info(" > get:               " + getRollingAvg(getRollingAverage));
-    LOG.info(" > getList:           " + getRollingAvg(getListRollingAverage));
-    LOG.info(" > delete:            " + getRollingAvg(deleteRollingAverage));
-    LOG.info(" > deleteList:        " + getRollingAvg(deleteListRollingAverage));
-    LOG.info("Stats: Rolling Max");
-    LOG.info(" > put:               " + getRollingMax(putRollingAverage));
-    LOG.info(" > putList:           " + getRollingMax(putListRollingAverage));
-    LOG.info(" > get:               " + getRollingMax(getRollingAverage));
-    LOG.info(" > getList:           " + getRollingMax(getListRollingAverage));
-    LOG.info(" > delete:            " + getRollingMax(deleteRollingAverage));
-    LOG.info(" > deleteList:        " + getRollingMax(deleteListRollingAverage));
+    Interval interval = lastInterval;
+    LOG.info("Stats: Last Interval p50/p90/p99/p99.9/max (us)");
+    LOG.info(" > put:               " + interval.describe(MultiClusterOperation.PUT));
+    LOG.info(" > putList:           " + interval.describe(MultiClusterOperation.PUT_LIST));
+    LOG.info(" > get:               " + interval.describe(MultiClusterOperation.GET));
+    LOG.info(" > getList:           " + interval.describe(MultiClusterOperation.GET_LIST));
+    LOG.info(" > delete:            " + interval.describe(MultiClusterOperation.DELETE));
+    LOG.info(" > deleteList:        " + interval.describe(MultiClusterOperation.DELETE_LIST));
     LOG.info("Stats: Dst");
     LOG.info(" > put:               " + putPrimary + "/" + putFailover);
     LOG.info(" > putList:           " + putListPrimary + "/" + putListFailover);
@@ -100,138 +158,16 @@ public class HTableStats {
     LOG.info(" > getList:           " + getListPrimary + "/" + getListFailover);
     LOG.info(" > delete:            " + deletePrimary + "/" + deleteFailover);
     LOG.info(" > deleteList:        " + deleteListPrimary + "/" + deleteListFailover);
-  }
-
-  public void stopPrintingStats() {
-    continuePrinting = false;
-    printingThread = null;
-  }
-
-  public void printStats(final BufferedWriter writer, final long secondsHeartbeat) {
-
-    try {
-      writer.append("maxPutTime," +
-              "maxPutListTime + ," +
-              "maxGetTime," +
-              "maxGetListTime," +
-              "maxDeleteTime," +
-              "maxDeleteListTime," +
-              "putRollingAverage," +
-              "putListRollingAverage," +
-              "getRollingAverage," +
-              "getListRollingAverage," +
-              "deleteRollingAverage," +
-              "deleteListRollingAverage," +
-              "putRollingMax," +
-              "putListRollingMax," +
-              "getRollingMax," +
-              "getListRollingMax," +
-              "deleteRollingMax," +
-              "deleteListRollingMax," +
-              "putPrimaryTotalCount," +
-              "putPrimaryRollingCount," +
-              "putFailoverTotalCount," +
-              "putFailoverRollingCount," +
-              "putListPrimaryTotalCount," +
-              "putListPrimaryRollingCount," +
-              "putListFailoverTotalCount," +
-              "putListFailoverRollingCount," +
-              "getPrimaryCount," +
-              "getPrimaryRollingCount," +
-              "getFailoverCount," +
-              "getFailoverRollingCount," +
-              "getListPrimaryCount," +
-              "getListPrimaryRollingCount," +
-              "getListFailoverCount," +
-              "getListFailoverRollingCount," +
-              "deletePrimaryCount," +
-              "deletePrimaryRollingCount," +
-              "deleteFailoverCount," +
-              "deleteFailoverRollingCount," +
-              "deleteListPrimaryCount," +
-              "deleteListPrimaryRollingCount," +
-              "deleteListFailoverCount," +
-              "deleteListFailoverRollingCount," +
-              newLine);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-
-    Runnable printerRunnable = new Runnable() {
-      @Override
-      public void run() {
-        while(continuePrinting) {
-
-          try {
-            Thread.sleep(secondsHeartbeat);
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          }
-
-          String statStr = maxPutTime +
-                  "," + maxPutListTime +
-                  "," + maxGetTime +
-                  "," + maxGetListTime +
-                  "," + maxDeleteTime +
-                  "," + maxDeleteListTime +
-                  "," + getRollingAvg(putRollingAverage) +
-                  "," + getRollingAvg(putListRollingAverage) +
-                  "," + getRollingAvg(getRollingAverage) +
-                  "," + getRollingAvg(getListRollingAverage) +
-                  "," + getRollingAvg(deleteRollingAverage) +
-                  "," + getRollingAvg(deleteListRollingAverage) +
-                  "," + getRollingMax(putRollingAverage) +
-                  "," + getRollingMax(putListRollingAverage) +
-                  "," + getRollingMax(getRollingAverage) +
-                  "," + getRollingMax(getListRollingAverage) +
-                  "," + getRollingMax(deleteRollingAverage) +
-                  "," + getRollingMax(deleteListRollingAverage) +
-                  "," + putPrimary +
-                  "," + (putPrimary.get() - lastPutPrimary) +
-                  "," + putFailover +
-                  "," + (putFailover.get() - lastPutFailover) +
-                  "," + putListPrimary +
-                  "," + (putListPrimary.get() - lastPutListPrimary) +
-                  "," + putListFailover +
-                  "," + (putListFailover.get() - lastPutListFailover) +
-                  "," + getPrimary +
-                  "," + (getPrimary.get() - lastGetPrimary) +
-                  "," + (getFailover.get()) +
-                  "," + (getFailover.get() - lastGetFailover) +
-                  "," + (getListPrimary.get()) +
-                  "," + (getListPrimary.get() - lastGetListPrimary) +
-                  "," + (getListFailover.get()) +
-                  "," + (getFailover.get() - lastGetFailover) +
-                  "," + (deletePrimary.get()) +
-                  "," + (deletePrimary.get() - lastDeletePrimary) +
-                  "," + (deleteFailover.get()) +
-                  "," + (deleteFailover.get() - lastDeleteFailover) +
-                  "," + (deleteListPrimary.get()) +
-                  "," + (deleteListPrimary.get() - lastDeleteListPrimary) +
-                  "," + (deleteListFailover.get()) +
-                  "," + (deleteListFailover.get() - lastDeleteListFailover);
-
-          try {
-            writer.write(statStr);
-            writer.newLine();
-          } catch (IOException e) {
-            break;
-          }
-        }
-        System.out.println("---- Stats Stopped ----");
+    for (ClusterStats clusterStats : clusters.values()) {
+      LOG.info("Stats: Cluster " + clusterStats.getName() + " requests/errors/rows/bytes");
+      for (MultiClusterOperation operation : MultiClusterOperation.values()) {
+        LOG.info(" > " + operation + ": " +
+            clusterStats.getRequests(operation) + "/" +
+            clusterStats.getErrors(operation) + "/" +
+            clusterStats.getRows(operation) + "/" +
+            clusterStats.getBytes(operation));
       }
-    };
-
-    printingThread = new Thread(printerRunnable);
-    continuePrinting = true;
-    printingThread.start();
-  }
-
-  public void printStats(final OutputStream outputStream, final long secondsHeartbeat) {
-
-    final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream));
-
-    printStats(writer, secondsHeartbeat);
+    }
   }
 
   public static void printCSVHeaders(Writer writer) throws IOException {
@@ -282,151 +218,287 @@ public class HTableStats {
   
   
   
+  /**
+   * Prints the stats of the interval since the previous call, which starts a
+   * new interval.
+   */
   public void printCSVStats(Writer writer) throws IOException {
-    writer.append(maxPutTime + "," +
-        maxPutListTime + "," +
-        maxGetTime + "," +
-        maxGetListTime + "," +
-        maxDeleteTime + "," + 
-        maxDeleteListTime + "," +
-        getRollingAvg(putRollingAverage) + "," + 
-        getRollingAvg(putListRollingAverage) + "," + 
-        getRollingAvg(getRollingAverage) + "," + 
-        getRollingAvg(getListRollingAverage) + "," + 
-        getRollingAvg(deleteRollingAverage) + "," + 
-        getRollingAvg(deleteListRollingAverage) + "," +
-        getRollingMax(putRollingAverage) + "," + 
-        getRollingMax(putListRollingAverage) + "," + 
-        getRollingMax(getRollingAverage) + "," + 
-        getRollingMax(getListRollingAverage) + "," + 
-        getRollingMax(deleteRollingAverage) + "," + 
-        getRollingMax(deleteListRollingAverage) + "," +
-        putPrimary + "," + 
-        (putPrimary.get()-lastPutPrimary) + "," + 
-        putFailover + "," +
-        (putFailover.get()-lastPutFailover) + "," +
-        putListPrimary + "," +
-        (putListPrimary.get()-lastPutListPrimary) + "," +
-        putListFailover + "," +
-        (putListFailover.get()-lastPutListFailover) + "," +
-        getPrimary + "," +
-        (getPrimary.get()-lastGetPrimary) + "," + 
-        (getFailover.get()) + "," + 
-        (getFailover.get()-lastGetFailover) + "," + 
-        (getListPrimary.get()) + "," +
-        (getListPrimary.get()-lastGetListPrimary) + "," +
-        (getListFailover.get()) + "," +
-        (getListFailover.get()-lastGetListFailover) + "," +
-        (deletePrimary.get()) + "," + 
-        (deletePrimary.get()-lastDeletePrimary) + "," + 
-        (deleteFailover.get()) + "," +
-        (deleteFailover.get()-lastDeleteFailover) + "," +
-        (deleteListPrimary.get()) + "," +
-        (deleteListPrimary.get()-lastDeleteListPrimary) + "," +
-        (deleteListFailover.get()) + "," +
-        (deleteListFailover.get()-lastDeleteListFailover) +
-        newLine);
-    
-    lastPutPrimary = putPrimary.get();
-    lastPutFailover = putFailover.get();
-    lastPutListPrimary = putListPrimary.get();
-    lastPutListFailover = putListFailover.get();
-    lastGetPrimary = getPrimary.get();
-    lastGetFailover = getFailover.get();
-    lastGetListPrimary = getListPrimary.get();
-    lastGetListFailover = getListFailover.get();
-    lastDeletePrimary = deletePrimary.get();
-    lastDeleteFailover = deleteFailover.get();
-    lastDeleteListPrimary = deleteListPrimary.get();
-    lastDeleteListFailover = deleteListFailover.get();
-    
+    writer.append(formatCSVStats(rollInterval()) + newLine);
   }
-  
-  public static long getRollingAvg(BlockingQueue<Long> queue) {
-    Long[] times = queue.toArray(new Long[0]);
-    
-    long totalTime = 0;
-    long totalCount = 0;
-    
-    for (Long time: times) {
-      if (time > -1) {
-        totalCount++;
-        totalTime += time;
+
+  /**
+   * The rolling columns hold the interval's mean and max in ms and the
+   * interval's counts.
+   */
+  String formatCSVStats(Interval interval) {
+    return formatCSVStats(Collections.singletonList(this), interval);
+  }
+
+  /**
+   * Formats the stats of several tables as one: the highest max times, the
+   * summed counts and the interval they share.
+   */
+  static String formatCSVStats(Collection<HTableStats> tableStats, Interval interval) {
+    MultiClusterOperation[] operations = {
+        MultiClusterOperation.PUT, MultiClusterOperation.PUT_LIST,
+        MultiClusterOperation.GET, MultiClusterOperation.GET_LIST,
+        MultiClusterOperation.DELETE, MultiClusterOperation.DELETE_LIST };
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < operations.length; i++) {
+      long maxTime = 0;
+      for (HTableStats stats : tableStats) {
+        maxTime = Math.max(maxTime, stats.getMaxTime(operations[i]));
       }
+      builder.append(i == 0 ? "" : ",").append(maxTime);
     }
-    if (totalCount != 0) {
-      return totalTime/totalCount;
-    } else {
-      return 0;
+    for (MultiClusterOperation operation : operations) {
+      builder.append(",").append(
+          (long)interval.getLatency(operation).getMean() / NANOS_PER_MILLI);
     }
-  }
-  
-  public static long getRollingMax(BlockingQueue<Long> queue) {
-    Long[] times = queue.toArray(new Long[0]);
-    
-    long maxTime = 0;
-    
-    for (Long time: times) {
-      if (time > maxTime) {
-        maxTime = time;
+    for (MultiClusterOperation operation : operations) {
+      builder.append(",").append(interval.getLatency(operation).getMax() / NANOS_PER_MILLI);
+    }
+    for (MultiClusterOperation operation : operations) {
+      long primaryCount = 0;
+      long failoverCount = 0;
+      for (HTableStats stats : tableStats) {
+        primaryCount += stats.getCount(operation, true);
+        failoverCount += stats.getCount(operation, false);
       }
+      builder.append(",").append(primaryCount)
+          .append(",").append(interval.getLatency(operation, true).getCount())
+          .append(",").append(failoverCount)
+          .append(",").append(interval.getLatency(operation, false).getCount());
     }
-    
-    return maxTime;
-    
+    return builder.toString();
   }
-  
+
+  /**
+   * @return the highest latency of the operations of the type in ms, since
+   * the stats were created; scans are not timed
+   */
+  public long getMaxTime(MultiClusterOperation operation) {
+    switch (operation) {
+      case PUT:
+        return maxPutTime.get();
+      case PUT_LIST:
+        return maxPutListTime.get();
+      case GET:
+        return maxGetTime.get();
+      case GET_LIST:
+        return maxGetListTime.get();
+      case DELETE:
+        return maxDeleteTime.get();
+      case DELETE_LIST:
+        return maxDeleteListTime.get();
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * @return how many operations of the type the primary, or a failover,
+   * answered since the stats were created; scans are not counted
+   */
+  public long getCount(MultiClusterOperation operation, boolean isPrimary) {
+    StripedCounter primaryCount;
+    StripedCounter failoverCount;
+    switch (operation) {
+      case PUT:
+        primaryCount = putPrimary;
+        failoverCount = putFailover;
+        break;
+      case PUT_LIST:
+        primaryCount = putListPrimary;
+        failoverCount = putListFailover;
+        break;
+      case GET:
+        primaryCount = getPrimary;
+        failoverCount = getFailover;
+        break;
+      case GET_LIST:
+        primaryCount = getListPrimary;
+        failoverCount = getListFailover;
+        break;
+      case DELETE:
+        primaryCount = deletePrimary;
+        failoverCount = deleteFailover;
+        break;
+      case DELETE_LIST:
+        primaryCount = deleteListPrimary;
+        failoverCount = deleteListFailover;
+        break;
+      default:
+        return 0;
+    }
+    return (isPrimary ? primaryCount : failoverCount).sum();
+  }
+
   public void addPut(Boolean isPrimary, long time) {
-    updateStat(isPrimary, time, maxPutTime, putPrimary, putFailover, putRollingAverage);
+    updateStat(isPrimary, time, maxPutTime, putPrimary, putFailover, MultiClusterOperation.PUT);
   }
   
   public void addPutList(Boolean isPrimary, long time) {
-    updateStat(isPrimary, time, maxPutListTime, putListPrimary, putListFailover, putListRollingAverage);
+    updateStat(isPrimary, time, maxPutListTime, putListPrimary, putListFailover, MultiClusterOperation.PUT_LIST);
   }
   
   public void addGet(Boolean isPrimary, long time) {
-    updateStat(isPrimary, time, maxGetTime, getPrimary, getFailover, getRollingAverage);
+    updateStat(isPrimary, time, maxGetTime, getPrimary, getFailover, MultiClusterOperation.GET);
   }
   
   public void addGetList(Boolean isPrimary, long time) {
-    updateStat(isPrimary, time, maxGetListTime, getListPrimary, getListFailover, getListRollingAverage);
+    updateStat(isPrimary, time, maxGetListTime, getListPrimary, getListFailover, MultiClusterOperation.GET_LIST);
   }
 
   public void addDelete(Boolean isPrimary, long time) {
-    updateStat(isPrimary, time, maxDeleteTime, deletePrimary, deleteFailover, deleteRollingAverage);
+    updateStat(isPrimary, time, maxDeleteTime, deletePrimary, deleteFailover, MultiClusterOperation.DELETE);
   }
   
   public void addDeleteList(Boolean isPrimary, long time) {
-    updateStat(isPrimary, time, maxDeleteListTime, deleteListPrimary, deleteListFailover, deleteListRollingAverage);
+    updateStat(isPrimary, time, maxDeleteListTime, deleteListPrimary, deleteListFailover, MultiClusterOperation.DELETE_LIST);
   }
   
-  private static void updateStat(Boolean isPrimary, 
-      long time, 
-      AtomicLong maxTime, 
-      AtomicLong primaryCount, 
-      AtomicLong failoverCount, 
-      BlockingQueue<Long> rollingAverage) {
-    
+  /**
+   * @param time nanoseconds the operation took
+   */
+  private void updateStat(Boolean isPrimary,
+      long time,
+      AtomicLong maxTime,
+      StripedCounter primaryCount,
+      StripedCounter failoverCount,
+      MultiClusterOperation operation) {
+
+    long timeMs = time / NANOS_PER_MILLI;
     long max = maxTime.get();
-    while (time > max) {
-      if (!maxTime.compareAndSet(max, time)) {
+    while (timeMs > max) {
+      if (!maxTime.compareAndSet(max, timeMs)) {
         max = maxTime.get();
       } else {
         break;
       }
     }
-    
+
     if (isPrimary != null) {
       if (isPrimary == true) {
-        primaryCount.addAndGet(1);
+        primaryCount.increment();
       } else {
-        failoverCount.addAndGet(1);
+        failoverCount.increment();
       }
     }
-    
-    rollingAverage.add(time);
-    if (rollingAverage.size() > 100) {
-      rollingAverage.poll();
+
+    latencies.get(operation)[sideOf(isPrimary)].record(time);
+  }
+
+  static int sideOf(Boolean isPrimary) {
+    return isPrimary == null ? FAILED : isPrimary ? PRIMARY : FAILOVER;
+  }
+
+  /**
+   * The latencies of every operation during one interval, in ns, as the
+   * table saw them and as each cluster did.
+   */
+  public static class Interval {
+    final EnumMap<MultiClusterOperation, LatencyRecorder.Snapshot[]> snapshots;
+    final Map<String, LatencyRecorder.Snapshot[]> clusterSnapshots;
+
+    Interval(EnumMap<MultiClusterOperation, LatencyRecorder.Snapshot[]> snapshots,
+             Map<String, LatencyRecorder.Snapshot[]> clusterSnapshots) {
+      this.snapshots = snapshots;
+      this.clusterSnapshots = clusterSnapshots;
+    }
+
+    /**
+     * @return the latencies of the calls the cluster answered, or null if
+     * the cluster had no stats when the interval ended
+     */
+    public LatencyRecorder.Snapshot getClusterLatency(String cluster,
+                                                      MultiClusterOperation operation) {
+      LatencyRecorder.Snapshot[] latencies = clusterSnapshots.get(cluster);
+      return latencies == null ? null : latencies[operation.ordinal()];
+    }
+
+    /**
+     * @param isPrimary true for the operations the primary answered, false
+     * for those a failover answered and null for those that failed
+     */
+    public LatencyRecorder.Snapshot getLatency(MultiClusterOperation operation, Boolean isPrimary) {
+      return snapshots.get(operation)[sideOf(isPrimary)];
+    }
+
+    /**
+     * @return the latencies of all the operations of the type, whoever
+     * answered them
+     */
+    public LatencyRecorder.Snapshot getLatency(MultiClusterOperation operation) {
+      LatencyRecorder.Snapshot[] sides = snapshots.get(operation);
+      return sides[PRIMARY].merge(sides[FAILOVER]).merge(sides[FAILED]);
+    }
+
+    /**
+     * Merges the intervals of several tables, with the latencies of a
+     * cluster merged across the tables.  Each latency takes one histogram
+     * however many tables there are.
+     */
+    public static Interval merge(Collection<Interval> intervals) {
+      EnumMap<MultiClusterOperation, LatencyRecorder.Snapshot[]> snapshots =
+          new EnumMap<MultiClusterOperation, LatencyRecorder.Snapshot[]>(MultiClusterOperation.class);
+      List<LatencyRecorder.Snapshot> toMerge =
+          new ArrayList<LatencyRecorder.Snapshot>(intervals.size());
+      for (MultiClusterOperation operation : MultiClusterOperation.values()) {
+        LatencyRecorder.Snapshot[] sides = new LatencyRecorder.Snapshot[3];
+        for (int side = 0; side < sides.length; side++) {
+          toMerge.clear();
+          for (Interval interval : intervals) {
+            toMerge.add(interval.snapshots.get(operation)[side]);
+          }
+          sides[side] = mergeLatencies(toMerge);
+        }
+        snapshots.put(operation, sides);
+      }
+
+      Map<String, List<LatencyRecorder.Snapshot[]>> byCluster =
+          new HashMap<String, List<LatencyRecorder.Snapshot[]>>();
+      for (Interval interval : intervals) {
+        for (Map.Entry<String, LatencyRecorder.Snapshot[]> entry :
+            interval.clusterSnapshots.entrySet()) {
+          List<LatencyRecorder.Snapshot[]> clusterIntervals = byCluster.get(entry.getKey());
+          if (clusterIntervals == null) {
+            clusterIntervals = new ArrayList<LatencyRecorder.Snapshot[]>();
+            byCluster.put(entry.getKey(), clusterIntervals);
+          }
+          clusterIntervals.add(entry.getValue());
+        }
+      }
+      Map<String, LatencyRecorder.Snapshot[]> clusterSnapshots =
+          new HashMap<String, LatencyRecorder.Snapshot[]>();
+      for (Map.Entry<String, List<LatencyRecorder.Snapshot[]>> entry : byCluster.entrySet()) {
+        LatencyRecorder.Snapshot[] operations =
+            new LatencyRecorder.Snapshot[MultiClusterOperation.values().length];
+        for (int i = 0; i < operations.length; i++) {
+          toMerge.clear();
+          for (LatencyRecorder.Snapshot[] clusterInterval : entry.getValue()) {
+            toMerge.add(clusterInterval[i]);
+          }
+          operations[i] = mergeLatencies(toMerge);
+        }
+        clusterSnapshots.put(entry.getKey(), operations);
+      }
+      return new Interval(snapshots, clusterSnapshots);
+    }
+
+    private static LatencyRecorder.Snapshot mergeLatencies(List<LatencyRecorder.Snapshot> snapshots) {
+      return LatencyRecorder.Snapshot.merge(snapshots, HIGHEST_TRACKABLE_LATENCY,
+          LATENCY_SUB_BUCKET_BITS);
+    }
+
+    String describe(MultiClusterOperation operation) {
+      LatencyRecorder.Snapshot latency = getLatency(operation);
+      return latency.get50thPercentile() / NANOS_PER_MICRO +
+          "/" + latency.get90thPercentile() / NANOS_PER_MICRO +
+          "/" + latency.get99thPercentile() / NANOS_PER_MICRO +
+          "/" + latency.get999thPercentile() / NANOS_PER_MICRO +
+          "/" + latency.getMax() / NANOS_PER_MICRO +
+          " (" + latency.getCount() + " ops)";
     }
   }
 }
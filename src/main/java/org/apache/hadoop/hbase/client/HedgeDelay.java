@@ -0,0 +1,101 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedge delays of one operation type.
+ *
+ * In static mode the configured delays are used as is.  In adaptive mode the
+ * request delay follows a high percentile of the primary latency observed in
+ * the last complete window, clamped between a floor and a ceiling, and the
+ * accept delay keeps the configured gap to the request delay.  Until a window
+ * has seen enough samples the configured delays are used.
+ */
+public class HedgeDelay {
+
+  static final long HIGHEST_TRACKABLE_LATENCY = 3600000L;
+
+  final long staticRequestDelay;
+  final long staticAcceptDelay;
+  final boolean isAdaptive;
+  final double percentile;
+  final long floor;
+  final long ceiling;
+  final long windowMs;
+  final long minSamples;
+
+  final LatencyHistogram[] windows;
+  final AtomicLong windowStart;
+  volatile int currentWindow = 0;
+
+  volatile long requestDelay;
+  volatile long acceptDelay;
+
+  public HedgeDelay(long requestDelay, long acceptDelay) {
+    this(requestDelay, acceptDelay, false, 0, 0, 0, 0, 0);
+  }
+
+  public HedgeDelay(long requestDelay, long acceptDelay, boolean isAdaptive,
+                    double percentile, long floor, long ceiling,
+                    long windowMs, long minSamples) {
+    this.staticRequestDelay = requestDelay;
+    this.staticAcceptDelay = acceptDelay;
+    this.requestDelay = requestDelay;
+    this.acceptDelay = acceptDelay;
+    this.isAdaptive = isAdaptive;
+    this.percentile = percentile;
+    this.floor = floor;
+    this.ceiling = ceiling;
+    this.windowMs = windowMs;
+    this.minSamples = minSamples;
+
+    if (isAdaptive) {
+      windows = new LatencyHistogram[] {
+          new LatencyHistogram(HIGHEST_TRACKABLE_LATENCY, 5),
+          new LatencyHistogram(HIGHEST_TRACKABLE_LATENCY, 5)};
+    } else {
+      windows = null;
+    }
+    windowStart = new AtomicLong(System.currentTimeMillis());
+  }
+
+  public long getRequestDelay() {
+    return requestDelay;
+  }
+
+  public long getAcceptDelay() {
+    return acceptDelay;
+  }
+
+  public boolean isAdaptive() {
+    return isAdaptive;
+  }
+
+  /**
+   * Records how long a successful primary call took, in milliseconds.
+   */
+  public void recordPrimaryLatency(long time) {
+    if (!isAdaptive) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    long start = windowStart.get();
+    if (now - start >= windowMs && windowStart.compareAndSet(start, now)) {
+      rollWindow();
+    }
+    windows[currentWindow].record(time);
+  }
+
+  private void rollWindow() {
+    LatencyHistogram finished = windows[currentWindow];
+    int next = 1 - currentWindow;
+    windows[next].reset();
+    currentWindow = next;
+
+    if (finished.getTotalCount() >= minSamples) {
+      long delay = Math.min(ceiling, Math.max(floor, finished.getValueAtPercentile(percentile)));
+      requestDelay = delay;
+      acceptDelay = delay + Math.max(0, staticAcceptDelay - staticRequestDelay);
+    }
+  }
+}
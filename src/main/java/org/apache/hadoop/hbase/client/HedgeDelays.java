@@ -0,0 +1,60 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.EnumMap;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The {@link HedgeDelay} of every {@link MultiClusterOperation}, shared by all
+ * the tables of a connection so adaptive delays learn from all the traffic.
+ */
+public class HedgeDelays {
+
+  final EnumMap<MultiClusterOperation, HedgeDelay> delays =
+      new EnumMap<MultiClusterOperation, HedgeDelay>(MultiClusterOperation.class);
+
+  public HedgeDelays(Configuration conf,
+                     int waitTimeBeforeRequestingFailover,
+                     int waitTimeBeforeAcceptingResults,
+                     int waitTimeBeforeRequestingBatchFailover,
+                     int waitTimeBeforeAcceptingBatchResults,
+                     int waitTimeBeforeMutatingFailover,
+                     int waitTimeBeforeMutatingBatchFailover) {
+    boolean isAdaptive = conf.getBoolean(ConfigConst.HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_CONFIG, false);
+    double percentile = conf.getFloat(ConfigConst.HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_PERCENTILE_CONFIG, 95f);
+    long floor = conf.getLong(ConfigConst.HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_FLOOR_CONFIG, 5);
+    long ceiling = conf.getLong(ConfigConst.HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_CEILING_CONFIG, 1000);
+    long windowMs = conf.getLong(ConfigConst.HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_WINDOW_CONFIG, 10000);
+    long minSamples = conf.getLong(ConfigConst.HBASE_MULTI_CLUSTER_ADAPTIVE_HEDGE_MIN_SAMPLES_CONFIG, 100);
+
+    for (MultiClusterOperation operation : MultiClusterOperation.values()) {
+      long requestDelay;
+      long acceptDelay;
+      switch (operation) {
+        case GET_LIST:
+          requestDelay = waitTimeBeforeRequestingBatchFailover;
+          acceptDelay = waitTimeBeforeAcceptingBatchResults;
+          break;
+        case PUT:
+        case DELETE:
+          requestDelay = waitTimeBeforeMutatingFailover;
+          acceptDelay = waitTimeBeforeMutatingFailover;
+          break;
+        case PUT_LIST:
+        case DELETE_LIST:
+          requestDelay = waitTimeBeforeMutatingBatchFailover;
+          acceptDelay = waitTimeBeforeMutatingBatchFailover;
+          break;
+        default:
+          requestDelay = waitTimeBeforeRequestingFailover;
+          acceptDelay = waitTimeBeforeAcceptingResults;
+      }
+      delays.put(operation, new HedgeDelay(requestDelay, acceptDelay, isAdaptive,
+          percentile, floor, ceiling, windowMs, minSamples));
+    }
+  }
+
+  public HedgeDelay get(MultiClusterOperation operation) {
+    return delays.get(operation);
+  }
+}
@@ -0,0 +1,92 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket capping hedged requests to a fraction of the primary requests.
+ *
+ * Every request sent to the primary deposits ratio tokens, up to burst
+ * tokens, and every hedge takes one.  A request whose hedge delay expires
+ * without a token keeps waiting for the primary until the deadline and only
+ * then hedges.  Failover calls made because the primary failed or its circuit
+ * is open are not hedges and never wait for the budget.
+ */
+public class HedgingBudget {
+
+  static final long TOKEN = 1000;
+
+  final long ratio;
+  final long burst;
+  final long deadline;
+  final boolean isUnlimited;
+
+  final AtomicLong tokens;
+  final AtomicLong hedgesAllowed = new AtomicLong(0);
+  final AtomicLong hedgesThrottled = new AtomicLong(0);
+  final AtomicLong hedgesAfterDeadline = new AtomicLong(0);
+
+  public HedgingBudget(float ratio, int burst, long deadline) {
+    this.ratio = (long)(ratio * TOKEN);
+    this.burst = burst * TOKEN;
+    this.deadline = deadline;
+    this.isUnlimited = ratio >= 1;
+    this.tokens = new AtomicLong(this.burst);
+  }
+
+  public void recordPrimaryRequest() {
+    if (isUnlimited) {
+      return;
+    }
+    long current = tokens.get();
+    while (current < burst) {
+      if (tokens.compareAndSet(current, Math.min(burst, current + ratio))) {
+        break;
+      }
+      current = tokens.get();
+    }
+  }
+
+  /**
+   * @return true if the request may hedge now, false if it is over budget and
+   * should wait until {@link #getDeadline()}
+   */
+  public boolean tryHedge() {
+    if (isUnlimited) {
+      hedgesAllowed.incrementAndGet();
+      return true;
+    }
+    long current = tokens.get();
+    while (current >= TOKEN) {
+      if (tokens.compareAndSet(current, current - TOKEN)) {
+        hedgesAllowed.incrementAndGet();
+        return true;
+      }
+      current = tokens.get();
+    }
+    hedgesThrottled.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Records a throttled request that reached its deadline and hedged anyway.
+   */
+  public void recordHedgeAfterDeadline() {
+    hedgesAfterDeadline.incrementAndGet();
+  }
+
+  public long getDeadline() {
+    return deadline;
+  }
+
+  public long getHedgesAllowed() {
+    return hedgesAllowed.get();
+  }
+
+  public long getHedgesThrottled() {
+    return hedgesThrottled.get();
+  }
+
+  public long getHedgesAfterDeadline() {
+    return hedgesAfterDeadline.get();
+  }
+}
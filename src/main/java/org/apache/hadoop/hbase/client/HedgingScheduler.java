@@ -0,0 +1,81 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Shared scheduler used by the speculative engines.
+ *
+ * Calls run on a worker pool sized by
+ * {@link ConfigConst#HBASE_MULTI_CLUSTER_CONNECTION_POOL_SIZE}, while hedge
+ * delays are tracked by a single timer thread.  A failover call therefore only
+ * takes a worker once its delay has expired and the primary is still
+ * outstanding, instead of parking a worker in Thread.sleep for every request.
+ */
+public class HedgingScheduler {
+
+  static final Log LOG = LogFactory.getLog(HedgingScheduler.class);
+
+  final ThreadPoolExecutor executor;
+  final ScheduledThreadPoolExecutor timer;
+
+  public HedgingScheduler(int poolSize) {
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        Threads.newDaemonThreadFactory("multi-cluster-hedge"));
+    this.executor.allowCoreThreadTimeOut(true);
+
+    this.timer = new ScheduledThreadPoolExecutor(1,
+        Threads.newDaemonThreadFactory("multi-cluster-hedge-timer"));
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  public <T> Future<T> submit(Callable<T> callable) {
+    return executor.submit(callable);
+  }
+
+  /**
+   * Runs the task on the timer thread after the delay.  Tasks are expected to
+   * do nothing more than hand work over to the worker pool.
+   */
+  public ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+    return timer.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs the task on the timer thread every period, for periodic triggers
+   * that hand work over to another pool.
+   */
+  public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long periodMs) {
+    return timer.scheduleWithFixedDelay(task, periodMs, periodMs, TimeUnit.MILLISECONDS);
+  }
+
+  public void shutdown() {
+    timer.shutdownNow();
+    executor.shutdown();
+  }
+
+  /**
+   * Waits for the calls still running on the worker pool after
+   * {@link #shutdown}, including the hedged ones that outlive their request.
+   *
+   * @return false if some were still running after timeoutMs
+   */
+  public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+    return executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+  }
+}
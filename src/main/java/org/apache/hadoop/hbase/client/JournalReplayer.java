@@ -0,0 +1,182 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Re-applies the {@link MutationJournal} to the primary.
+ *
+ * Segments are replayed oldest first.  The records of a segment are grouped
+ * by the primary region of their row, and the regions are written in
+ * parallel, each in journal order.  A segment is deleted once all of it is
+ * written; if any region fails the segment and the newer ones are kept for
+ * the next replay.
+ */
+public class JournalReplayer {
+
+  static final Log LOG = LogFactory.getLog(JournalReplayer.class);
+
+  final MutationJournal journal;
+  final HConnection primaryConnection;
+  final int threads;
+  final AtomicBoolean isReplaying = new AtomicBoolean(false);
+
+  public JournalReplayer(MutationJournal journal, HConnection primaryConnection, int threads) {
+    this.journal = journal;
+    this.primaryConnection = primaryConnection;
+    this.threads = threads;
+  }
+
+  /**
+   * @return the number of mutations replayed, or 0 if a replay is already
+   * running
+   */
+  public long replay() throws IOException {
+    return replay(false);
+  }
+
+  /**
+   * Replays only once a get of the row of the oldest journaled mutation
+   * succeeds on the primary, for connections with nothing else telling
+   * whether the primary is back.
+   *
+   * @return the number of mutations replayed, or 0 if the primary did not
+   * answer or a replay is already running
+   */
+  public long replayIfPrimaryAnswers() throws IOException {
+    return replay(true);
+  }
+
+  private long replay(boolean isTrialFirst) throws IOException {
+    if (!isReplaying.compareAndSet(false, true)) {
+      return 0;
+    }
+    try {
+      if (isTrialFirst && !isPrimaryAnswering()) {
+        return 0;
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(threads,
+          Threads.newDaemonThreadFactory("multi-cluster-journal-replay"));
+      try {
+        long replayed = 0;
+        for (File segment : journal.seal()) {
+          replayed += replaySegment(segment, pool);
+          if (!segment.delete()) {
+            LOG.warn("Unable to delete replayed journal segment " + segment);
+          }
+        }
+        if (replayed > 0) {
+          LOG.info("Replayed " + replayed + " journaled mutations to the primary");
+        }
+        return replayed;
+      } finally {
+        pool.shutdown();
+      }
+    } finally {
+      isReplaying.set(false);
+    }
+  }
+
+  /**
+   * Gets the row of the oldest journaled mutation from the primary, without
+   * sealing the segment being written.
+   */
+  boolean isPrimaryAnswering() {
+    File[] segments = journal.listSegments();
+    if (segments.length == 0) {
+      return false;
+    }
+    try {
+      List<Entry<TableName, Mutation>> oldest = MutationJournal.read(segments[0], 1);
+      if (oldest.isEmpty()) {
+        // nothing to try, replaying only drops the empty segment
+        return true;
+      }
+      HTableInterface table = primaryConnection.getTable(oldest.get(0).getKey());
+      try {
+        table.exists(new Get(oldest.get(0).getValue().getRow()));
+      } finally {
+        table.close();
+      }
+      return true;
+    } catch (IOException e) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("The primary did not answer the trial get before the journal replay", e);
+      }
+      return false;
+    }
+  }
+
+  private long replaySegment(File segment, ExecutorService pool) throws IOException {
+    List<Entry<TableName, Mutation>> records = MutationJournal.read(segment);
+
+    final Map<String, TableName> regionTables = new LinkedHashMap<String, TableName>();
+    final Map<String, List<Mutation>> regionMutations = new LinkedHashMap<String, List<Mutation>>();
+    for (Entry<TableName, Mutation> record : records) {
+      HRegionLocation location = primaryConnection.locateRegion(record.getKey(),
+          record.getValue().getRow());
+      String region = location.getRegionInfo().getRegionNameAsString();
+      List<Mutation> mutations = regionMutations.get(region);
+      if (mutations == null) {
+        mutations = new ArrayList<Mutation>();
+        regionMutations.put(region, mutations);
+        regionTables.put(region, record.getKey());
+      }
+      mutations.add(record.getValue());
+    }
+
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (final Entry<String, List<Mutation>> region : regionMutations.entrySet()) {
+      futures.add(pool.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          HTableInterface table = primaryConnection.getTable(regionTables.get(region.getKey()));
+          try {
+            // A batch does not keep the order of its actions, so send the
+            // mutations as runs that hold each row at most once.
+            for (List<Mutation> run : MutationBuffer.splitIntoRuns(region.getValue())) {
+              table.batch(run, new Object[run.size()]);
+            }
+          } finally {
+            table.close();
+          }
+          return null;
+        }
+      }));
+    }
+
+    IOException failure = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        failure = e.getCause() instanceof IOException ?
+            (IOException)e.getCause() : new IOException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while replaying " + segment);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return records.size();
+  }
+}
@@ -0,0 +1,142 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory, lock-free latency histogram.
+ *
+ * Values are counted in log-linear buckets: every power of two is split into
+ * 2^subBucketBits linear sub-buckets, so the relative error of a reported
+ * value is bounded by 1/2^subBucketBits no matter how large it is.  Recording
+ * is a couple of atomic increments and never allocates.
+ */
+public class LatencyHistogram {
+
+  final int subBucketBits;
+  final int subBucketCount;
+  final long highestTrackableValue;
+  final AtomicLongArray counts;
+  final AtomicLong totalCount = new AtomicLong(0);
+  final AtomicLong maxValue = new AtomicLong(0);
+
+  public LatencyHistogram(long highestTrackableValue, int subBucketBits) {
+    this.subBucketBits = subBucketBits;
+    this.subBucketCount = 1 << subBucketBits;
+    this.highestTrackableValue = highestTrackableValue;
+    this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+  }
+
+  int indexOf(long value) {
+    if (value < subBucketCount) {
+      return (int)value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+    return (subBucketCount * shift) + (int)(value >>> shift);
+  }
+
+  /**
+   * @return the highest value that falls into the bucket at the index
+   */
+  long highestValueAt(int index) {
+    if (index < subBucketCount * 2) {
+      return index;
+    }
+    int shift = index / subBucketCount - 1;
+    long mantissa = index - ((long)subBucketCount * shift);
+    return ((mantissa + 1) << shift) - 1;
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > highestTrackableValue) {
+      value = highestTrackableValue;
+    }
+    counts.incrementAndGet(indexOf(value));
+    totalCount.incrementAndGet();
+
+    long max = maxValue.get();
+    while (value > max) {
+      if (maxValue.compareAndSet(max, value)) {
+        break;
+      }
+      max = maxValue.get();
+    }
+  }
+
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  public long getMaxValue() {
+    return maxValue.get();
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the value at the percentile, or 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long total = totalCount.get();
+    if (total == 0) {
+      return 0;
+    }
+    long countAtPercentile = Math.max(1, (long)Math.ceil(percentile / 100.0 * total));
+    long runningCount = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      runningCount += counts.get(i);
+      if (runningCount >= countAtPercentile) {
+        return Math.min(highestValueAt(i), maxValue.get());
+      }
+    }
+    return maxValue.get();
+  }
+
+  /**
+   * @return the mean of the recorded values, accurate to the bucket width
+   */
+  public double getMean() {
+    long total = totalCount.get();
+    if (total == 0) {
+      return 0;
+    }
+    double sum = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      long count = counts.get(i);
+      if (count > 0) {
+        sum += count * (double)Math.min(highestValueAt(i), maxValue.get());
+      }
+    }
+    return sum / total;
+  }
+
+  /**
+   * Adds the counts of a histogram of the same range and precision.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length(); i++) {
+      long count = other.counts.get(i);
+      if (count > 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+    totalCount.addAndGet(other.totalCount.get());
+    long otherMax = other.maxValue.get();
+    long max = maxValue.get();
+    while (otherMax > max) {
+      if (maxValue.compareAndSet(max, otherMax)) {
+        break;
+      }
+      max = maxValue.get();
+    }
+  }
+
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    totalCount.set(0);
+    maxValue.set(0);
+  }
+}
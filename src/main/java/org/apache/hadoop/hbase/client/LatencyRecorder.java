@@ -0,0 +1,169 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records latencies into a {@link LatencyHistogram} and hands out the
+ * samples of an interval at once, like HdrHistogram's Recorder.
+ *
+ * Writers never block: they enter the current phase by bumping a counter,
+ * record into the active histogram and leave by bumping the end counter of
+ * their phase.  Taking an interval swaps in a fresh histogram and waits for
+ * the writers still in the old phase, so every sample lands in exactly one
+ * interval and a snapshot never shows part of a recording.
+ */
+public class LatencyRecorder {
+
+  final long highestTrackableValue;
+  final int subBucketBits;
+
+  final AtomicLong startEpoch = new AtomicLong(0);
+  final AtomicLong evenEndEpoch = new AtomicLong(0);
+  final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+  volatile LatencyHistogram active;
+  long intervalStart = System.currentTimeMillis();
+
+  public LatencyRecorder(long highestTrackableValue, int subBucketBits) {
+    this.highestTrackableValue = highestTrackableValue;
+    this.subBucketBits = subBucketBits;
+    this.active = new LatencyHistogram(highestTrackableValue, subBucketBits);
+  }
+
+  public void record(long value) {
+    long epoch = startEpoch.getAndIncrement();
+    try {
+      active.record(value);
+    } finally {
+      if (epoch < 0) {
+        oddEndEpoch.getAndIncrement();
+      } else {
+        evenEndEpoch.getAndIncrement();
+      }
+    }
+  }
+
+  /**
+   * @return the samples recorded since the previous call, which starts a
+   * new interval
+   */
+  public synchronized Snapshot getIntervalSnapshot() {
+    LatencyHistogram interval = active;
+    active = new LatencyHistogram(highestTrackableValue, subBucketBits);
+    flipPhase();
+    long now = System.currentTimeMillis();
+    Snapshot snapshot = new Snapshot(interval, intervalStart, now);
+    intervalStart = now;
+    return snapshot;
+  }
+
+  /**
+   * Starts a new phase and waits until every writer that entered the old one
+   * has left it, and with it the histogram it was recording into.
+   */
+  private void flipPhase() {
+    boolean isNextPhaseEven = startEpoch.get() < 0;
+    long initialStartValue = isNextPhaseEven ? 0 : Long.MIN_VALUE;
+    if (isNextPhaseEven) {
+      evenEndEpoch.set(initialStartValue);
+    } else {
+      oddEndEpoch.set(initialStartValue);
+    }
+    long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+    AtomicLong oldEndEpoch = isNextPhaseEven ? oddEndEpoch : evenEndEpoch;
+    while (oldEndEpoch.get() != startValueAtFlip) {
+      Thread.yield();
+    }
+  }
+
+  /**
+   * The samples of one interval.  Nothing records into it any more.
+   */
+  public static class Snapshot {
+    final LatencyHistogram histogram;
+    final long startTime;
+    final long endTime;
+
+    Snapshot(LatencyHistogram histogram, long startTime, long endTime) {
+      this.histogram = histogram;
+      this.startTime = startTime;
+      this.endTime = endTime;
+    }
+
+    /**
+     * @return a snapshot holding the samples of both, over the interval
+     * covering both
+     */
+    public Snapshot merge(Snapshot other) {
+      LatencyHistogram merged = new LatencyHistogram(
+          histogram.highestTrackableValue, histogram.subBucketBits);
+      merged.add(histogram);
+      merged.add(other.histogram);
+      return new Snapshot(merged, Math.min(startTime, other.startTime),
+          Math.max(endTime, other.endTime));
+    }
+
+    /**
+     * Merges any number of snapshots into a single histogram, rather than
+     * one per pair.
+     *
+     * @return a snapshot holding the samples of all, over the interval
+     * covering all, or an empty one if there are none
+     */
+    public static Snapshot merge(List<Snapshot> snapshots, long highestTrackableValue,
+                                 int subBucketBits) {
+      LatencyHistogram merged = new LatencyHistogram(highestTrackableValue, subBucketBits);
+      long startTime = Long.MAX_VALUE;
+      long endTime = Long.MIN_VALUE;
+      for (Snapshot snapshot : snapshots) {
+        merged.add(snapshot.histogram);
+        startTime = Math.min(startTime, snapshot.startTime);
+        endTime = Math.max(endTime, snapshot.endTime);
+      }
+      if (snapshots.isEmpty()) {
+        startTime = endTime = System.currentTimeMillis();
+      }
+      return new Snapshot(merged, startTime, endTime);
+    }
+
+    public long getCount() {
+      return histogram.getTotalCount();
+    }
+
+    public double getMean() {
+      return histogram.getMean();
+    }
+
+    public long getValueAtPercentile(double percentile) {
+      return histogram.getValueAtPercentile(percentile);
+    }
+
+    public long get50thPercentile() {
+      return histogram.getValueAtPercentile(50);
+    }
+
+    public long get90thPercentile() {
+      return histogram.getValueAtPercentile(90);
+    }
+
+    public long get99thPercentile() {
+      return histogram.getValueAtPercentile(99);
+    }
+
+    public long get999thPercentile() {
+      return histogram.getValueAtPercentile(99.9);
+    }
+
+    public long getMax() {
+      return histogram.getMaxValue();
+    }
+
+    public long getStartTime() {
+      return startTime;
+    }
+
+    public long getEndTime() {
+      return endTime;
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Logs about one in every rate calls at debug level, so hot paths can log
+ * per-operation diagnostics without paying for them on every call.
+ */
+public class LogSampler {
+
+  final Log log;
+  final int rate;
+
+  /**
+   * @param rate log one in this many calls; 1 logs every call, 0 or less
+   * logs none
+   */
+  public LogSampler(Log log, int rate) {
+    this.log = log;
+    this.rate = rate;
+  }
+
+  /**
+   * @return true if debug is enabled and this call was sampled; build the
+   * message only then
+   */
+  public boolean isDebugSampled() {
+    return rate > 0 && log.isDebugEnabled() &&
+        (rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0);
+  }
+
+  public void debug(Object message) {
+    log.debug(message);
+  }
+
+  public void debug(Object message, Throwable t) {
+    log.debug(message, t);
+  }
+}
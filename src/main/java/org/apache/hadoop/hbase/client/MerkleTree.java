@@ -0,0 +1,129 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+
+/**
+ * Hash tree of the cells of a key range.
+ *
+ * Rows are assigned to leaves by the hash of the row key, and a leaf is the
+ * sum of the hashes of its cells.  A sum does not depend on the order cells
+ * are added in, so a tree can be built straight from a scan and extended
+ * later with the cells of a newer time window.  Inner nodes hash their two
+ * children, and {@link #diff(MerkleTree)} only descends into subtrees whose
+ * hashes differ.
+ */
+public class MerkleTree {
+
+  final long[] leaves;
+  long[] nodes;
+
+  /**
+   * @param leafCount rounded up to a power of two
+   */
+  public MerkleTree(int leafCount) {
+    this(new long[leafCount <= 1 ? 1 : Integer.highestOneBit(leafCount - 1) << 1]);
+  }
+
+  MerkleTree(long[] leaves) {
+    this.leaves = leaves;
+  }
+
+  public int getLeafCount() {
+    return leaves.length;
+  }
+
+  public int leafOf(byte[] row) {
+    return leafOf(row, 0, row.length);
+  }
+
+  public void add(Cell cell) {
+    long h = FNV_OFFSET;
+    h = hash(h, cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+    h = hash(h, cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+    h = hash(h, cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+    h = (h ^ cell.getTimestamp()) * FNV_PRIME;
+    h = (h ^ cell.getTypeByte()) * FNV_PRIME;
+    h = hash(h, cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+    int leaf = leafOf(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+    leaves[leaf] += mix(h);
+    nodes = null;
+  }
+
+  /**
+   * Adds the leaves of the other tree to this one, which is the tree of the
+   * cells of both.
+   */
+  public void add(MerkleTree other) {
+    for (int i = 0; i < leaves.length; i++) {
+      leaves[i] += other.leaves[i];
+    }
+    nodes = null;
+  }
+
+  public long getRoot() {
+    return getNodes()[1];
+  }
+
+  /**
+   * @return the leaves that differ between the trees
+   */
+  public List<Integer> diff(MerkleTree other) {
+    List<Integer> differing = new ArrayList<Integer>();
+    diff(other.getNodes(), getNodes(), 1, differing);
+    return differing;
+  }
+
+  private void diff(long[] otherNodes, long[] nodes, int node, List<Integer> differing) {
+    if (nodes[node] == otherNodes[node]) {
+      return;
+    }
+    if (node >= leaves.length) {
+      differing.add(node - leaves.length);
+      return;
+    }
+    diff(otherNodes, nodes, node * 2, differing);
+    diff(otherNodes, nodes, node * 2 + 1, differing);
+  }
+
+  /**
+   * Nodes in heap order: the root at 1, the children of n at 2n and 2n+1,
+   * and the leaves from getLeafCount() on.
+   */
+  private long[] getNodes() {
+    if (nodes == null) {
+      long[] built = new long[leaves.length * 2];
+      System.arraycopy(leaves, 0, built, leaves.length, leaves.length);
+      for (int node = leaves.length - 1; node >= 1; node--) {
+        built[node] = mix(built[node * 2] * FNV_PRIME ^ built[node * 2 + 1]);
+      }
+      nodes = built;
+    }
+    return nodes;
+  }
+
+  private int leafOf(byte[] bytes, int offset, int length) {
+    return (int)(hash(FNV_OFFSET, bytes, offset, length) & (leaves.length - 1));
+  }
+
+  static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  static final long FNV_PRIME = 0x100000001b3L;
+
+  static long hash(long h, byte[] bytes, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      h = (h ^ (bytes[i] & 0xff)) * FNV_PRIME;
+    }
+    return h;
+  }
+
+  static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
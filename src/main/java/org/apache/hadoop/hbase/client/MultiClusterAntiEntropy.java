@@ -0,0 +1,495 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Finds and repairs divergence between the primary and the failover clusters.
+ *
+ * A table is split into the primary's regions, and every cluster hashes each
+ * region range into a {@link MerkleTree} in parallel.  Ranges whose trees
+ * differ are the only ones scanned again to repair, and within them only the
+ * rows of the differing leaves are compared.  Repair copies the union of the
+ * cells of a row to every cluster missing some of them; a cell present with
+ * different values keeps the primary's value.
+ *
+ * Both scans are raw, so delete markers are hashed and copied like any other
+ * cell.  A row deleted on the primary but still held by a failover gets the
+ * primary's marker there, and the cells copied back to the primary stay
+ * hidden under that marker until a major compaction drops them together.
+ *
+ * The part of every tree older than the replication lag is saved in the
+ * state directory.  Later runs only hash the cells written since, and add
+ * them to the saved trees.  Removed cells, for example deleted or expired
+ * ones, are only noticed by a full run.
+ */
+public class MultiClusterAntiEntropy {
+
+  static final Log LOG = LogFactory.getLog(MultiClusterAntiEntropy.class);
+
+  static final int STATE_VERSION = 2;
+  static final int REPAIR_BATCH_SIZE = 1000;
+
+  final HConnection[] clusters;
+  final File stateDir;
+  final int leafCount;
+  final long lag;
+  final int threads;
+
+  public MultiClusterAntiEntropy(HConnectionMultiCluster connection, File stateDir) {
+    this(clustersOf(connection), stateDir,
+        connection.getConfiguration().getInt(
+            ConfigConst.HBASE_MULTI_CLUSTER_ANTI_ENTROPY_LEAVES_CONFIG, 1024),
+        connection.getConfiguration().getLong(
+            ConfigConst.HBASE_MULTI_CLUSTER_ANTI_ENTROPY_LAG_CONFIG, 3600000),
+        connection.getConfiguration().getInt(
+            ConfigConst.HBASE_MULTI_CLUSTER_ANTI_ENTROPY_THREADS_CONFIG, 8));
+  }
+
+  MultiClusterAntiEntropy(HConnection[] clusters, File stateDir, int leafCount, long lag,
+                          int threads) {
+    this.clusters = clusters;
+    this.stateDir = stateDir;
+    this.leafCount = leafCount;
+    this.lag = lag;
+    this.threads = threads;
+  }
+
+  /**
+   * @return the primary connection followed by the failover ones
+   */
+  private static HConnection[] clustersOf(HConnectionMultiCluster connection) {
+    HConnection[] clusters = new HConnection[connection.failoverConnections.length + 1];
+    clusters[0] = connection.primaryConnection;
+    System.arraycopy(connection.failoverConnections, 0, clusters, 1,
+        connection.failoverConnections.length);
+    return clusters;
+  }
+
+  /**
+   * Compares the table on all clusters, and repairs the differing rows if
+   * isRepair is set.
+   *
+   * @param isFull hash everything instead of only what changed since the
+   * last run
+   */
+  public Report run(final TableName tableName, boolean isFull, boolean isRepair) throws IOException {
+    final long sealTime = System.currentTimeMillis() - lag;
+    File stateFile = new File(stateDir, tableName.getNameAsString().replace(':', '_') + ".state");
+    TreeMap<byte[], RangeState> previous = isFull ? null : loadState(stateFile);
+
+    List<RangeState> ranges = new ArrayList<RangeState>();
+    for (HRegionLocation location : clusters[0].locateRegions(tableName)) {
+      byte[] startKey = location.getRegionInfo().getStartKey();
+      byte[] endKey = location.getRegionInfo().getEndKey();
+      RangeState last = previous == null ? null : previous.get(startKey);
+      if (last != null && Bytes.equals(last.endKey, endKey)) {
+        ranges.add(last);
+      } else {
+        ranges.add(new RangeState(startKey, endKey, 0, emptyTrees()));
+      }
+    }
+
+    Report report = new Report();
+    ExecutorService pool = Executors.newFixedThreadPool(threads,
+        Threads.newDaemonThreadFactory("multi-cluster-anti-entropy"));
+    try {
+      List<Future<MerkleTree[]>> futures = new ArrayList<Future<MerkleTree[]>>();
+      for (final RangeState range : ranges) {
+        for (final HConnection cluster : clusters) {
+          futures.add(pool.submit(new Callable<MerkleTree[]>() {
+            public MerkleTree[] call() throws Exception {
+              return hashRange(cluster, tableName, range, sealTime);
+            }
+          }));
+        }
+      }
+
+      List<RangeState> nextState = new ArrayList<RangeState>();
+      for (int r = 0; r < ranges.size(); r++) {
+        RangeState range = ranges.get(r);
+        MerkleTree[] compared = new MerkleTree[clusters.length];
+        MerkleTree[] sealed = new MerkleTree[clusters.length];
+        for (int c = 0; c < clusters.length; c++) {
+          MerkleTree[] hashed = get(futures.get(r * clusters.length + c));
+          compared[c] = new MerkleTree(range.sealed[c].leaves.clone());
+          compared[c].add(hashed[0]);
+          sealed[c] = new MerkleTree(range.sealed[c].leaves.clone());
+          sealed[c].add(hashed[1]);
+        }
+
+        Set<Integer> differingLeaves = new HashSet<Integer>();
+        for (int c = 1; c < clusters.length; c++) {
+          differingLeaves.addAll(compared[0].diff(compared[c]));
+        }
+        report.ranges++;
+        if (differingLeaves.isEmpty()) {
+          nextState.add(new RangeState(range.startKey, range.endKey, sealTime, sealed));
+          continue;
+        }
+
+        report.differingRanges++;
+        report.differingLeaves += differingLeaves.size();
+        LOG.info("Range " + Bytes.toStringBinary(range.startKey) + " - " +
+            Bytes.toStringBinary(range.endKey) + " of " + tableName + " differs in " +
+            differingLeaves.size() + " of " + leafCount + " leaves");
+        if (isRepair) {
+          // Repaired cells keep their timestamps, so the saved trees no longer
+          // match the clusters; the next run hashes the range in full.
+          report.repairedRows += repairRange(tableName, range, differingLeaves, compared[0]);
+        } else {
+          nextState.add(new RangeState(range.startKey, range.endKey, sealTime, sealed));
+        }
+      }
+      saveState(stateFile, nextState);
+    } finally {
+      pool.shutdown();
+    }
+    LOG.info("Anti-entropy of " + tableName + ": " + report);
+    return report;
+  }
+
+  /**
+   * @return the tree of the cells written since the range was last hashed,
+   * and the tree of those of them older than sealTime
+   */
+  MerkleTree[] hashRange(HConnection cluster, TableName tableName, RangeState range, long sealTime)
+      throws IOException {
+    MerkleTree window = new MerkleTree(leafCount);
+    MerkleTree sealed = new MerkleTree(leafCount);
+
+    Scan scan = new Scan(range.startKey, range.endKey);
+    scan.setRaw(true);
+    scan.setMaxVersions();
+    scan.setCacheBlocks(false);
+    scan.setCaching(REPAIR_BATCH_SIZE);
+    if (range.sealTime > 0) {
+      scan.setTimeRange(range.sealTime, Long.MAX_VALUE);
+    }
+
+    HTableInterface table = cluster.getTable(tableName);
+    try {
+      ResultScanner scanner = table.getScanner(scan);
+      try {
+        for (Result result : scanner) {
+          for (Cell cell : result.rawCells()) {
+            window.add(cell);
+            if (cell.getTimestamp() < sealTime) {
+              sealed.add(cell);
+            }
+          }
+        }
+      } finally {
+        scanner.close();
+      }
+    } finally {
+      table.close();
+    }
+    return new MerkleTree[] { window, sealed };
+  }
+
+  /**
+   * Walks the range on all clusters at once and copies to each cluster the
+   * cells it is missing of the rows in the differing leaves.  Delete markers
+   * are copied with a Delete, since a Put only carries values.
+   *
+   * @return the number of rows written to at least one cluster
+   */
+  long repairRange(TableName tableName, RangeState range, Set<Integer> leaves, MerkleTree tree)
+      throws IOException {
+    HTableInterface[] tables = new HTableInterface[clusters.length];
+    ResultScanner[] scanners = new ResultScanner[clusters.length];
+    Result[] heads = new Result[clusters.length];
+    List<List<Put>> pendingPuts = new ArrayList<List<Put>>();
+    List<List<Delete>> pendingDeletes = new ArrayList<List<Delete>>();
+    long repairedRows = 0;
+    try {
+      for (int c = 0; c < clusters.length; c++) {
+        Scan scan = new Scan(range.startKey, range.endKey);
+        scan.setRaw(true);
+        scan.setMaxVersions();
+        scan.setCacheBlocks(false);
+        scan.setCaching(REPAIR_BATCH_SIZE);
+        tables[c] = clusters[c].getTable(tableName);
+        scanners[c] = tables[c].getScanner(scan);
+        heads[c] = scanners[c].next();
+        pendingPuts.add(new ArrayList<Put>());
+        pendingDeletes.add(new ArrayList<Delete>());
+      }
+
+      while (true) {
+        byte[] row = null;
+        for (Result head : heads) {
+          if (head != null && (row == null || Bytes.compareTo(head.getRow(), row) < 0)) {
+            row = head.getRow();
+          }
+        }
+        if (row == null) {
+          break;
+        }
+
+        Result[] rowResults = new Result[clusters.length];
+        for (int c = 0; c < clusters.length; c++) {
+          if (heads[c] != null && Bytes.equals(heads[c].getRow(), row)) {
+            rowResults[c] = heads[c];
+            heads[c] = scanners[c].next();
+          }
+        }
+        if (!leaves.contains(tree.leafOf(row))) {
+          continue;
+        }
+
+        // The primary comes first, so its value wins when the values differ.
+        TreeSet<KeyValue> union = new TreeSet<KeyValue>(KeyValue.COMPARATOR);
+        List<TreeSet<KeyValue>> clusterCells = new ArrayList<TreeSet<KeyValue>>();
+        for (Result result : rowResults) {
+          TreeSet<KeyValue> cells = new TreeSet<KeyValue>(KeyValue.COMPARATOR);
+          if (result != null) {
+            for (Cell cell : result.rawCells()) {
+              KeyValue kv = KeyValueUtil.ensureKeyValue(cell);
+              cells.add(kv);
+              union.add(kv);
+            }
+          }
+          clusterCells.add(cells);
+        }
+
+        boolean isRepaired = false;
+        for (int c = 0; c < clusters.length; c++) {
+          Put put = null;
+          Delete delete = null;
+          for (KeyValue kv : union) {
+            KeyValue existing = clusterCells.get(c).ceiling(kv);
+            boolean isPresent = existing != null && KeyValue.COMPARATOR.compare(existing, kv) == 0;
+            if (isPresent && (c == 0 || Bytes.equals(existing.getValue(), kv.getValue()))) {
+              continue;
+            }
+            if (kv.isDelete()) {
+              if (delete == null) {
+                delete = new Delete(row);
+              }
+              delete.addDeleteMarker(kv);
+            } else {
+              if (put == null) {
+                put = new Put(row);
+              }
+              put.add(kv);
+            }
+          }
+          if (put != null) {
+            isRepaired = true;
+            pendingPuts.get(c).add(put);
+            if (pendingPuts.get(c).size() >= REPAIR_BATCH_SIZE) {
+              tables[c].put(pendingPuts.get(c));
+              pendingPuts.get(c).clear();
+            }
+          }
+          if (delete != null) {
+            isRepaired = true;
+            pendingDeletes.get(c).add(delete);
+            if (pendingDeletes.get(c).size() >= REPAIR_BATCH_SIZE) {
+              tables[c].delete(pendingDeletes.get(c));
+              pendingDeletes.get(c).clear();
+            }
+          }
+        }
+        if (isRepaired) {
+          repairedRows++;
+        }
+      }
+
+      for (int c = 0; c < clusters.length; c++) {
+        if (!pendingPuts.get(c).isEmpty()) {
+          tables[c].put(pendingPuts.get(c));
+        }
+        if (!pendingDeletes.get(c).isEmpty()) {
+          tables[c].delete(pendingDeletes.get(c));
+        }
+      }
+    } finally {
+      for (int c = 0; c < clusters.length; c++) {
+        if (scanners[c] != null) {
+          scanners[c].close();
+        }
+        if (tables[c] != null) {
+          tables[c].close();
+        }
+      }
+    }
+    return repairedRows;
+  }
+
+  private MerkleTree[] emptyTrees() {
+    MerkleTree[] trees = new MerkleTree[clusters.length];
+    for (int c = 0; c < clusters.length; c++) {
+      trees[c] = new MerkleTree(leafCount);
+    }
+    return trees;
+  }
+
+  private static MerkleTree[] get(Future<MerkleTree[]> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException ?
+          (IOException)e.getCause() : new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while hashing ranges");
+    }
+  }
+
+  TreeMap<byte[], RangeState> loadState(File stateFile) throws IOException {
+    if (!stateFile.exists()) {
+      return null;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(stateFile));
+    try {
+      if (in.readInt() != STATE_VERSION || in.readInt() != clusters.length ||
+          in.readInt() != new MerkleTree(leafCount).getLeafCount()) {
+        LOG.info("State " + stateFile + " does not match the clusters or leaves, hashing in full");
+        return null;
+      }
+      TreeMap<byte[], RangeState> ranges = new TreeMap<byte[], RangeState>(Bytes.BYTES_COMPARATOR);
+      int rangeCount = in.readInt();
+      for (int r = 0; r < rangeCount; r++) {
+        byte[] startKey = Bytes.readByteArray(in);
+        byte[] endKey = Bytes.readByteArray(in);
+        long sealTime = in.readLong();
+        MerkleTree[] sealed = emptyTrees();
+        for (MerkleTree tree : sealed) {
+          for (int i = 0; i < tree.leaves.length; i++) {
+            tree.leaves[i] = in.readLong();
+          }
+        }
+        ranges.put(startKey, new RangeState(startKey, endKey, sealTime, sealed));
+      }
+      return ranges;
+    } finally {
+      in.close();
+    }
+  }
+
+  void saveState(File stateFile, List<RangeState> ranges) throws IOException {
+    if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+      throw new IOException("Unable to create the state directory " + stateDir);
+    }
+    File tmp = new File(stateFile.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+    try {
+      out.writeInt(STATE_VERSION);
+      out.writeInt(clusters.length);
+      out.writeInt(new MerkleTree(leafCount).getLeafCount());
+      out.writeInt(ranges.size());
+      for (RangeState range : ranges) {
+        Bytes.writeByteArray(out, range.startKey);
+        Bytes.writeByteArray(out, range.endKey);
+        out.writeLong(range.sealTime);
+        for (MerkleTree tree : range.sealed) {
+          for (long leaf : tree.leaves) {
+            out.writeLong(leaf);
+          }
+        }
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(stateFile)) {
+      stateFile.delete();
+      if (!tmp.renameTo(stateFile)) {
+        throw new IOException("Unable to save the state " + stateFile);
+      }
+    }
+  }
+
+  /**
+   * The saved trees of a range, covering the cells older than sealTime.
+   */
+  static class RangeState {
+    final byte[] startKey;
+    final byte[] endKey;
+    final long sealTime;
+    final MerkleTree[] sealed;
+
+    RangeState(byte[] startKey, byte[] endKey, long sealTime, MerkleTree[] sealed) {
+      this.startKey = startKey;
+      this.endKey = endKey;
+      this.sealTime = sealTime;
+      this.sealed = sealed;
+    }
+  }
+
+  public static class Report {
+    public long ranges;
+    public long differingRanges;
+    public long differingLeaves;
+    public long repairedRows;
+
+    @Override
+    public String toString() {
+      return ranges + " ranges, " + differingRanges + " differing ranges, " +
+          differingLeaves + " differing leaves, " + repairedRows + " repaired rows";
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.out.println("MultiClusterAntiEntropy <hbase-site file> <tableName> <stateDir> [--full] [--repair]");
+      return;
+    }
+
+    Configuration config = HBaseConfiguration.create();
+    config.addResource(new FileInputStream(new File(args[0])));
+
+    boolean isFull = false;
+    boolean isRepair = false;
+    for (int i = 3; i < args.length; i++) {
+      if ("--full".equals(args[i])) {
+        isFull = true;
+      } else if ("--repair".equals(args[i])) {
+        isRepair = true;
+      }
+    }
+
+    HConnection connection = HConnectionManagerMultiClusterWrapper.createConnection(config);
+    try {
+      if (!(connection instanceof HConnectionMultiCluster)) {
+        System.out.println("No failover clusters are configured in " + args[0]);
+        return;
+      }
+      Report report = new MultiClusterAntiEntropy((HConnectionMultiCluster)connection,
+          new File(args[2])).run(TableName.valueOf(args[1]), isFull, isRepair);
+      System.out.println(report);
+    } finally {
+      connection.close();
+    }
+  }
+}
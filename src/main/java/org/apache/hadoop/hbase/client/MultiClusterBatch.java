@@ -0,0 +1,188 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.hadoop.hbase.client.coprocessor.Batch.Callback;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Per-action results of a batch sent to several clusters.
+ *
+ * Every action keeps the first result any cluster returns for it, and the
+ * callback fires once per action as soon as that result arrives.  Each call
+ * of {@link #function} only sends the actions still unanswered at that time,
+ * so a hedged failover call re-sends only what the primary has not answered.
+ * The function returns normally only once every action has a result, which
+ * lets the speculative engines treat it like any single-cluster call.
+ */
+class MultiClusterBatch<R> {
+
+  final List<? extends Row> actions;
+  final Callback<R> callback;
+  final HTableInterface primaryTable;
+
+  final AtomicReferenceArray<Object> results;
+  final AtomicReferenceArray<Throwable> errors;
+  final AtomicInteger remaining;
+  final AtomicReferenceArray<HTableInterface> answeredBy;
+  final AtomicIntegerArray isAppliedByPrimary;
+  volatile boolean isAllPrimary = true;
+
+  MultiClusterBatch(List<? extends Row> actions, Callback<R> callback,
+                    HTableInterface primaryTable) {
+    this.actions = actions;
+    this.callback = callback;
+    this.primaryTable = primaryTable;
+    this.results = new AtomicReferenceArray<Object>(actions.size());
+    this.errors = new AtomicReferenceArray<Throwable>(actions.size());
+    this.remaining = new AtomicInteger(actions.size());
+    this.answeredBy = new AtomicReferenceArray<HTableInterface>(actions.size());
+    this.isAppliedByPrimary = new AtomicIntegerArray(actions.size());
+  }
+
+  boolean isDone() {
+    return remaining.get() == 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  void complete(int index, byte[] region, byte[] row, Object result, HTableInterface table) {
+    if (results.compareAndSet(index, null, result)) {
+      answeredBy.set(index, table);
+      remaining.decrementAndGet();
+      if (table != primaryTable) {
+        isAllPrimary = false;
+      }
+      if (callback != null) {
+        callback.update(region, row, (R)result);
+      }
+    }
+  }
+
+  /**
+   * Only final once the primary's call has finished.
+   *
+   * @return the actions whose result came from a failover and that the
+   * primary did not apply
+   */
+  List<Row> getMissedByPrimary() {
+    List<Row> missed = new ArrayList<Row>();
+    for (int i = 0; i < actions.size(); i++) {
+      HTableInterface table = answeredBy.get(i);
+      if (table != null && table != primaryTable && isAppliedByPrimary.get(i) == 0) {
+        missed.add(actions.get(i));
+      }
+    }
+    return missed;
+  }
+
+  /**
+   * @return the table whose cluster answered the action, or null if none did
+   */
+  HTableInterface getAnsweredBy(int index) {
+    return answeredBy.get(index);
+  }
+
+  /**
+   * Copies the result of every action to its index in the caller's array.
+   * An action no cluster answered gets the last error a cluster returned for
+   * it instead, like HTable#batch does.
+   */
+  void fill(Object[] callerResults, List<Integer> callerIndexes) {
+    for (int i = 0; i < actions.size(); i++) {
+      callerResults[callerIndexes.get(i)] = getResult(i);
+    }
+  }
+
+  void fill(Object[] callerResults) {
+    for (int i = 0; i < actions.size(); i++) {
+      callerResults[i] = getResult(i);
+    }
+  }
+
+  private Object getResult(int index) {
+    Object result = results.get(index);
+    if (result == null) {
+      Throwable error = errors.get(index);
+      result = error != null ? error : new IOException("No cluster answered the action");
+    }
+    return result;
+  }
+
+  final HBaseTableFunction<Void> function = new HBaseTableFunction<Void>() {
+    @Override
+    public Void call(final HTableInterface table) throws Exception {
+      final int[] indexes = new int[actions.size()];
+      int count = 0;
+      for (int i = 0; i < actions.size(); i++) {
+        if (results.get(i) == null) {
+          indexes[count++] = i;
+        }
+      }
+      if (count == 0) {
+        return null;
+      }
+
+      final List<Row> subActions = new ArrayList<Row>(count);
+      final Object[] subResults = new Object[count];
+      final AtomicIntegerArray isClaimed = new AtomicIntegerArray(count);
+      final TreeMap<byte[], List<Integer>> subIndexesByRow =
+          new TreeMap<byte[], List<Integer>>(Bytes.BYTES_COMPARATOR);
+      for (int sub = 0; sub < count; sub++) {
+        Row action = actions.get(indexes[sub]);
+        subActions.add(action);
+        List<Integer> subIndexes = subIndexesByRow.get(action.getRow());
+        if (subIndexes == null) {
+          subIndexes = new ArrayList<Integer>(1);
+          subIndexesByRow.put(action.getRow(), subIndexes);
+        }
+        subIndexes.add(sub);
+      }
+
+      RetriesExhaustedWithDetailsException failure = null;
+      try {
+        // The result array gets the very result object right before the
+        // callback fires with it, which tells which of the actions on that
+        // row just completed even when several of them already have.
+        table.batchCallback(subActions, subResults, new Callback<Object>() {
+          @Override
+          public void update(byte[] region, byte[] row, Object result) {
+            for (int sub : subIndexesByRow.get(row)) {
+              if (result != null && subResults[sub] == result && isClaimed.compareAndSet(sub, 0, 1)) {
+                complete(indexes[sub], region, row, result, table);
+                break;
+              }
+            }
+          }
+        });
+      } catch (RetriesExhaustedWithDetailsException e) {
+        failure = e;
+      }
+
+      for (int sub = 0; sub < count; sub++) {
+        Object result = subResults[sub];
+        if (result instanceof Throwable) {
+          errors.set(indexes[sub], (Throwable)result);
+          continue;
+        }
+        if (result != null && table == primaryTable) {
+          // the primary applied it even if a failover answered first
+          isAppliedByPrimary.set(indexes[sub], 1);
+        }
+        if (result != null && isClaimed.compareAndSet(sub, 0, 1)) {
+          complete(indexes[sub], null, subActions.get(sub).getRow(), result, table);
+        }
+      }
+
+      if (failure != null && !isDone()) {
+        throw failure;
+      }
+      return null;
+    }
+  };
+}
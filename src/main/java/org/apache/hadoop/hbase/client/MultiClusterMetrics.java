@@ -0,0 +1,396 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+
+/**
+ * Publishes the stats of every table of a connection: latency percentiles
+ * per table, operation and side that answered, routing counts, and per
+ * cluster the requests, errors, rows, bytes and latency percentiles of
+ * every operation.
+ *
+ * Every interval the {@link ConnectionStats} of the connection ends
+ * becomes, with the counters, an immutable {@link Snapshot}.  The
+ * Hadoop metrics2 source, the JMX bean metrics2 registers for it and the
+ * optional {@link PrometheusEndpoint} all read that snapshot, so scraping
+ * never touches the recorders and costs the same however often it is done.
+ */
+public class MultiClusterMetrics implements MetricsSource, ConnectionStats.Listener {
+
+  static final Log LOG = LogFactory.getLog(MultiClusterMetrics.class);
+
+  static final String METRICS_SYSTEM_NAME = "HBase";
+  static final String METRICS_NAME = "MultiClusterClient";
+  static final String METRICS_DESCRIPTION = "Multi-cluster HBase client";
+  static final String METRICS_CONTEXT = "multicluster";
+
+  static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+  static final String[] QUANTILES = { "0.5", "0.9", "0.99", "0.999" };
+
+  static final String[] SIDES = { "primary", "failover", "failed" };
+
+  /** Numbers the sources of the connections of the JVM, the first has none. */
+  static final AtomicInteger SOURCES = new AtomicInteger(0);
+
+  static final Family LATENCY = new Family("latency_us", false,
+      "Latency percentiles of the operations of the last interval, in us");
+  static final Family LATENCY_MAX = new Family("latency_max_us", false,
+      "Highest latency of the operations of the last interval, in us");
+  static final Family INTERVAL_OPS = new Family("interval_ops", false,
+      "Operations of the last interval");
+  static final Family OPS = new Family("ops_total", true,
+      "Operations answered, by the side that answered them");
+  static final Family CLUSTER_LATENCY = new Family("cluster_latency_us", false,
+      "Latency percentiles of the successful calls to the cluster in the last interval, in us");
+  static final Family CLUSTER_LATENCY_MAX = new Family("cluster_latency_max_us", false,
+      "Highest latency of the successful calls to the cluster in the last interval, in us");
+  static final Family CLUSTER_REQUESTS = new Family("cluster_requests_total", true,
+      "Calls sent to the cluster, including hedged calls that lost");
+  static final Family CLUSTER_ERRORS = new Family("cluster_errors_total", true,
+      "Calls the cluster failed");
+  static final Family CLUSTER_ROWS = new Family("cluster_rows_total", true,
+      "Rows read from or written to the cluster");
+  static final Family CLUSTER_BYTES = new Family("cluster_bytes_total", true,
+      "Bytes of the cells read from or written to the cluster");
+  static final Family CLUSTER_HEALTHY = new Family("cluster_healthy", false,
+      "1 while the cluster is healthy, 0 otherwise");
+  static final Family HEDGES_ALLOWED = new Family("hedges_allowed_total", true,
+      "Hedged requests the hedging budget allowed");
+  static final Family HEDGES_THROTTLED = new Family("hedges_throttled_total", true,
+      "Hedged requests the hedging budget throttled");
+  static final Family HEDGES_AFTER_DEADLINE = new Family("hedges_after_deadline_total", true,
+      "Requests hedged after the deadline regardless of the budget");
+  static final Family UNJOURNALED_DELETES = new Family("unjournaled_deletes_total", true,
+      "Deletes of the latest version only a failover acknowledged, left to anti-entropy repair");
+
+  final ClusterHealth[] clusterHealths;
+  final HedgingBudget hedgingBudget;
+  final MutationJournal journal;
+  volatile Snapshot snapshot = new Snapshot(new ArrayList<Metric>(), System.currentTimeMillis());
+  String sourceName;
+  PrometheusEndpoint prometheusEndpoint;
+
+  /**
+   * @param journal the journal of the connection, or null if it has none
+   */
+  public MultiClusterMetrics(ClusterHealth[] clusterHealths, HedgingBudget hedgingBudget,
+                             MutationJournal journal) {
+    this.clusterHealths = clusterHealths;
+    this.hedgingBudget = hedgingBudget;
+    this.journal = journal;
+  }
+
+  /**
+   * Registers the metrics2 source, under a name of its own for every
+   * connection of the JVM, and starts the Prometheus endpoint.  Neither
+   * failing fails the connection, the metrics are then only not published
+   * there.
+   *
+   * @param prometheusPort the port of the Prometheus endpoint, or 0 for
+   * none
+   */
+  public void start(int prometheusPort) {
+    int source = SOURCES.getAndIncrement();
+    try {
+      DefaultMetricsSystem.initialize(METRICS_SYSTEM_NAME);
+      sourceName = DefaultMetricsSystem.sourceName(
+          source == 0 ? METRICS_NAME : METRICS_NAME + "-" + source, false);
+      DefaultMetricsSystem.instance().register(sourceName, METRICS_DESCRIPTION, this);
+    } catch (RuntimeException e) {
+      LOG.warn("Could not register the metrics source, metrics are not published to " +
+          "metrics2 and JMX", e);
+      sourceName = null;
+    }
+
+    if (prometheusPort > 0) {
+      try {
+        prometheusEndpoint = new PrometheusEndpoint(this, prometheusPort);
+        prometheusEndpoint.start();
+        LOG.info("Serving multi-cluster metrics on port " + prometheusEndpoint.getPort());
+      } catch (IOException e) {
+        LOG.warn("Could not serve the metrics on port " + prometheusPort +
+            ", metrics are not published to Prometheus", e);
+        prometheusEndpoint = null;
+      }
+    }
+  }
+
+  public void stop() {
+    if (prometheusEndpoint != null) {
+      prometheusEndpoint.stop();
+    }
+    if (sourceName != null) {
+      DefaultMetricsSystem.instance().unregisterSource(sourceName);
+    }
+  }
+
+  /**
+   * @return the metrics of the last interval
+   */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Publishes the interval that just ended.
+   */
+  @Override
+  public void onInterval(ConnectionStats stats) {
+    List<Metric> metrics = new ArrayList<Metric>();
+    Map<TableName, HTableStats> tableStats = stats.getTableStats();
+    for (Map.Entry<TableName, HTableStats.Interval> entry : stats.getLastIntervals().entrySet()) {
+      HTableStats table = tableStats.get(entry.getKey());
+      if (table != null) {
+        addTableMetrics(metrics, entry.getKey().getNameAsString(), table, entry.getValue());
+      }
+    }
+    for (ClusterHealth health : clusterHealths) {
+      metrics.add(new Metric(CLUSTER_HEALTHY, new String[] { "cluster", health.getName() },
+          health.isHealthy() ? 1 : 0));
+    }
+    metrics.add(new Metric(HEDGES_ALLOWED, new String[0], hedgingBudget.getHedgesAllowed()));
+    metrics.add(new Metric(HEDGES_THROTTLED, new String[0], hedgingBudget.getHedgesThrottled()));
+    metrics.add(new Metric(HEDGES_AFTER_DEADLINE, new String[0],
+        hedgingBudget.getHedgesAfterDeadline()));
+    if (journal != null) {
+      metrics.add(new Metric(UNJOURNALED_DELETES, new String[0], journal.getUnjournaledDeletes()));
+    }
+    snapshot = new Snapshot(metrics, System.currentTimeMillis());
+  }
+
+  static void addTableMetrics(List<Metric> metrics, String table, HTableStats stats,
+                              HTableStats.Interval interval) {
+    for (MultiClusterOperation operation : MultiClusterOperation.values()) {
+      if (operation == MultiClusterOperation.SCAN_OPEN) {
+        // the table does not time scans, only the clusters do
+        continue;
+      }
+      for (int side = 0; side < SIDES.length; side++) {
+        String[] labels = { "table", table, "operation", operation.name(),
+            "answered_by", SIDES[side] };
+        addLatencyMetrics(metrics, LATENCY, LATENCY_MAX, labels,
+            interval.snapshots.get(operation)[side]);
+        metrics.add(new Metric(INTERVAL_OPS, labels,
+            interval.snapshots.get(operation)[side].getCount()));
+      }
+      metrics.add(new Metric(OPS, new String[] { "table", table, "operation", operation.name(),
+          "answered_by", SIDES[HTableStats.PRIMARY] }, stats.getCount(operation, true)));
+      metrics.add(new Metric(OPS, new String[] { "table", table, "operation", operation.name(),
+          "answered_by", SIDES[HTableStats.FAILOVER] }, stats.getCount(operation, false)));
+    }
+
+    for (ClusterStats clusterStats : stats.getClusterStats().values()) {
+      for (MultiClusterOperation operation : MultiClusterOperation.values()) {
+        String[] labels = { "table", table, "cluster", clusterStats.getName(),
+            "operation", operation.name() };
+        LatencyRecorder.Snapshot latency =
+            interval.getClusterLatency(clusterStats.getName(), operation);
+        if (latency != null) {
+          addLatencyMetrics(metrics, CLUSTER_LATENCY, CLUSTER_LATENCY_MAX, labels, latency);
+        }
+        metrics.add(new Metric(CLUSTER_REQUESTS, labels, clusterStats.getRequests(operation)));
+        metrics.add(new Metric(CLUSTER_ERRORS, labels, clusterStats.getErrors(operation)));
+        metrics.add(new Metric(CLUSTER_ROWS, labels, clusterStats.getRows(operation)));
+        metrics.add(new Metric(CLUSTER_BYTES, labels, clusterStats.getBytes(operation)));
+      }
+    }
+  }
+
+  private static void addLatencyMetrics(List<Metric> metrics, Family percentiles, Family max,
+                                        String[] labels, LatencyRecorder.Snapshot latency) {
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      String[] quantileLabels = new String[labels.length + 2];
+      System.arraycopy(labels, 0, quantileLabels, 0, labels.length);
+      quantileLabels[labels.length] = "quantile";
+      quantileLabels[labels.length + 1] = QUANTILES[i];
+      metrics.add(new Metric(percentiles, quantileLabels,
+          latency.getValueAtPercentile(PERCENTILES[i]) / HTableStats.NANOS_PER_MICRO));
+    }
+    metrics.add(new Metric(max, labels, latency.getMax() / HTableStats.NANOS_PER_MICRO));
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder builder = collector.addRecord(sourceName).setContext(METRICS_CONTEXT);
+    for (Metric metric : snapshot.metrics) {
+      if (metric.family.isCounter) {
+        builder.addCounter(Interns.info(metric.getFlatName(), metric.family.help),
+            (long)metric.value);
+      } else {
+        builder.addGauge(Interns.info(metric.getFlatName(), metric.family.help), metric.value);
+      }
+    }
+  }
+
+  /**
+   * A kind of metric, with the name and type Prometheus knows it by.
+   */
+  static class Family {
+    final String name;
+    final boolean isCounter;
+    final String help;
+
+    Family(String name, boolean isCounter, String help) {
+      this.name = name;
+      this.isCounter = isCounter;
+      this.help = help;
+    }
+  }
+
+  /**
+   * One value of a family, told apart from the others by its labels.
+   */
+  public static class Metric {
+    final Family family;
+    /** label names and values, alternating */
+    final String[] labels;
+    final double value;
+
+    Metric(Family family, String[] labels, double value) {
+      this.family = family;
+      this.labels = labels;
+      this.value = value;
+    }
+
+    public String getName() {
+      return family.name;
+    }
+
+    public double getValue() {
+      return value;
+    }
+
+    /**
+     * @return the value of the label, or null if the metric has no such
+     * label
+     */
+    public String getLabel(String name) {
+      for (int i = 0; i < labels.length; i += 2) {
+        if (labels[i].equals(name)) {
+          return labels[i + 1];
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return the name metrics2 and JMX know the metric by, which has no
+     * labels, so it joins them with the family name
+     */
+    String getFlatName() {
+      StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < labels.length; i += 2) {
+        builder.append(labels[i]).append('_').append(labels[i + 1]).append('_');
+      }
+      return builder.append(family.name).toString();
+    }
+  }
+
+  /**
+   * The metrics of one period.  Nothing changes it once published.
+   */
+  public static class Snapshot {
+    final List<Metric> metrics;
+    final long time;
+    volatile String prometheusText;
+
+    Snapshot(List<Metric> metrics, long time) {
+      this.metrics = metrics;
+      this.time = time;
+    }
+
+    public List<Metric> getMetrics() {
+      return metrics;
+    }
+
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * @return the metrics in the Prometheus text format, rendered on the
+     * first call
+     */
+    public String getPrometheusText() {
+      String text = prometheusText;
+      if (text == null) {
+        text = toPrometheusText(metrics);
+        prometheusText = text;
+      }
+      return text;
+    }
+
+    static String toPrometheusText(Collection<Metric> metrics) {
+      // the samples of a family have to be together
+      Map<Family, List<Metric>> families = new LinkedHashMap<Family, List<Metric>>();
+      for (Metric metric : metrics) {
+        List<Metric> samples = families.get(metric.family);
+        if (samples == null) {
+          samples = new ArrayList<Metric>();
+          families.put(metric.family, samples);
+        }
+        samples.add(metric);
+      }
+
+      StringBuilder builder = new StringBuilder();
+      for (Map.Entry<Family, List<Metric>> entry : families.entrySet()) {
+        Family family = entry.getKey();
+        String name = "hbase_multicluster_" + family.name;
+        builder.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ')
+            .append(family.isCounter ? "counter" : "gauge").append('\n');
+        for (Metric metric : entry.getValue()) {
+          builder.append(name);
+          if (metric.labels.length > 0) {
+            builder.append('{');
+            for (int i = 0; i < metric.labels.length; i += 2) {
+              if (i > 0) {
+                builder.append(',');
+              }
+              builder.append(metric.labels[i]).append("=\"");
+              escape(builder, metric.labels[i + 1]);
+              builder.append('"');
+            }
+            builder.append('}');
+          }
+          builder.append(' ').append(format(metric.value)).append('\n');
+        }
+      }
+      return builder.toString();
+    }
+
+    private static void escape(StringBuilder builder, String value) {
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '\\' || c == '"') {
+          builder.append('\\').append(c);
+        } else if (c == '\n') {
+          builder.append("\\n");
+        } else {
+          builder.append(c);
+        }
+      }
+    }
+
+    private static String format(double value) {
+      if (value == Math.rint(value) && !Double.isInfinite(value)) {
+        return Long.toString((long)value);
+      }
+      return Double.toString(value);
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package org.apache.hadoop.hbase.client;
+
+/**
+ * The operation types the multi-cluster client tracks separately, both for
+ * hedge delays and for stats.
+ */
+public enum MultiClusterOperation {
+  GET,
+  GET_LIST,
+  SCAN_OPEN,
+  PUT,
+  PUT_LIST,
+  DELETE,
+  DELETE_LIST
+}
@@ -0,0 +1,286 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A scanner that resumes on another cluster when the one it reads from
+ * stalls or fails.
+ *
+ * Rows are fetched a chunk of scan caching at a time on a worker, so a fetch
+ * that takes longer than the stall timeout can be abandoned.  The scan is
+ * then reopened on the next cluster at the last row fetched, and whatever
+ * was already fetched of that row is skipped.
+ *
+ * While the caller consumes a chunk the next one is prefetched, keeping up to
+ * prefetchChunks chunks and prefetchMaxBytes of cells buffered ahead.
+ */
+public class MultiClusterResultScanner extends AbstractClientScanner {
+
+  static final Log LOG = LogFactory.getLog(MultiClusterResultScanner.class);
+
+  static final int DEFAULT_CHUNK_SIZE = 100;
+
+  final Scan scan;
+  final List<HTableInterface> tables;
+  final long stallTimeout;
+  final int prefetchChunks;
+  final long prefetchMaxBytes;
+  final HedgingScheduler scheduler;
+  final int chunkSize;
+  final ArrayDeque<Result> buffer = new ArrayDeque<Result>();
+
+  int tableIndex;
+  ResultScanner scanner;
+  Future<Result[]> pending;
+  long bufferedBytes = 0;
+  byte[] lastRow;
+  int lastRowCellCount;
+  byte[] skipRow;
+  int skipCellCount;
+  boolean isExhausted = false;
+  boolean isClosed = false;
+
+  /**
+   * Opens the scan on the table at tableIndex; the other tables are the ones
+   * the scan resumes on.
+   */
+  public MultiClusterResultScanner(Scan scan,
+                                   List<HTableInterface> tables,
+                                   int tableIndex,
+                                   long stallTimeout,
+                                   int prefetchChunks,
+                                   long prefetchMaxBytes,
+                                   HedgingScheduler scheduler) throws IOException {
+    this.scan = scan;
+    this.tables = tables;
+    this.tableIndex = tableIndex;
+    this.stallTimeout = stallTimeout;
+    this.prefetchChunks = prefetchChunks;
+    this.prefetchMaxBytes = prefetchMaxBytes;
+    this.scheduler = scheduler;
+    this.scanner = tables.get(tableIndex).getScanner(scan);
+    this.chunkSize = scan.getCaching() > 0 ? scan.getCaching() : DEFAULT_CHUNK_SIZE;
+    prefetch();
+  }
+
+  public synchronized HTableInterface getTable() {
+    return tables.get(tableIndex);
+  }
+
+  @Override
+  public synchronized Result next() throws IOException {
+    while (buffer.isEmpty()) {
+      if (isExhausted || isClosed) {
+        return null;
+      }
+      fetch();
+    }
+
+    Result result = buffer.poll();
+    bufferedBytes -= sizeOf(result);
+    prefetch();
+    return result;
+  }
+
+  @Override
+  public Result[] next(int nbRows) throws IOException {
+    ArrayList<Result> results = new ArrayList<Result>(nbRows);
+    for (int i = 0; i < nbRows; i++) {
+      Result result = next();
+      if (result == null) {
+        break;
+      }
+      results.add(result);
+    }
+    return results.toArray(new Result[results.size()]);
+  }
+
+  @Override
+  public synchronized void close() {
+    isClosed = true;
+    buffer.clear();
+    bufferedBytes = 0;
+    abandon();
+  }
+
+  /**
+   * Waits for the next chunk, moving to the next cluster each time a fetch
+   * fails, until every cluster has been tried once.
+   */
+  private void fetch() throws IOException {
+    IOException lastException = null;
+    for (int attempt = 0; attempt < tables.size(); attempt++) {
+      try {
+        if (scanner == null) {
+          reopen();
+        }
+        if (pending == null) {
+          pending = submitChunk();
+        }
+        add(await());
+        return;
+      } catch (InterruptedIOException e) {
+        throw e;
+      } catch (IOException e) {
+        lastException = e;
+        LOG.warn("Scanner on " + tables.get(tableIndex).getName() + " of cluster " + tableIndex +
+            " failed or stalled, resuming on the next cluster", e);
+        abandon();
+        tableIndex = (tableIndex + 1) % tables.size();
+      }
+    }
+    throw lastException;
+  }
+
+  /**
+   * Starts fetching the next chunk in the background if less than the
+   * prefetch limits are buffered.
+   */
+  private void prefetch() {
+    if (pending == null && scanner != null && !isExhausted && !isClosed &&
+        buffer.size() < prefetchChunks * chunkSize && bufferedBytes < prefetchMaxBytes) {
+      pending = submitChunk();
+    }
+  }
+
+  private Future<Result[]> submitChunk() {
+    final ResultScanner current = scanner;
+    return scheduler.submit(new Callable<Result[]>() {
+      public Result[] call() throws Exception {
+        return current.next(chunkSize);
+      }
+    });
+  }
+
+  private Result[] await() throws IOException {
+    try {
+      Result[] chunk = pending.get(stallTimeout, TimeUnit.MILLISECONDS);
+      pending = null;
+      return chunk;
+    } catch (TimeoutException e) {
+      throw new IOException("Scanner stalled for more than " + stallTimeout + " ms", e);
+    } catch (ExecutionException e) {
+      pending = null;
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the scanner");
+    }
+  }
+
+  private void add(Result[] chunk) {
+    if (chunk == null || chunk.length == 0) {
+      isExhausted = true;
+      return;
+    }
+    for (Result result : chunk) {
+      result = skipFetched(result);
+      if (result == null) {
+        continue;
+      }
+      buffer.add(result);
+      bufferedBytes += sizeOf(result);
+      if (lastRow != null && Bytes.equals(lastRow, result.getRow())) {
+        lastRowCellCount += result.size();
+      } else {
+        lastRow = result.getRow();
+        lastRowCellCount = result.size();
+      }
+    }
+  }
+
+  /**
+   * Drops the current scanner.  A fetch still running on it is cancelled and
+   * the scanner is closed on a worker, since a stalled scanner may block in
+   * close as well.
+   */
+  private void abandon() {
+    final ResultScanner abandoned = scanner;
+    final Future<Result[]> abandonedFetch = pending;
+    scanner = null;
+    pending = null;
+    if (abandoned == null) {
+      return;
+    }
+    if (abandonedFetch == null) {
+      abandoned.close();
+      return;
+    }
+    abandonedFetch.cancel(true);
+    scheduler.submit(new Callable<Void>() {
+      public Void call() {
+        try {
+          abandoned.close();
+        } catch (Exception e) {
+          LOG.debug("Exception while closing an abandoned scanner", e);
+        }
+        return null;
+      }
+    });
+  }
+
+  private void reopen() throws IOException {
+    Scan resumed = new Scan(scan);
+    if (lastRow != null) {
+      resumed.setStartRow(lastRow);
+      skipRow = lastRow;
+      skipCellCount = lastRowCellCount;
+    }
+    scanner = tables.get(tableIndex).getScanner(resumed);
+  }
+
+  /**
+   * @return the part of the result not fetched before the scan was reopened,
+   * or null if all of it was
+   */
+  private Result skipFetched(Result result) {
+    if (skipRow == null) {
+      return result;
+    }
+    if (!Bytes.equals(skipRow, result.getRow())) {
+      skipRow = null;
+      return result;
+    }
+    // Without a batch size every result is a whole row, so the row the scan
+    // resumed at was fetched in full.
+    if (scan.getBatch() <= 0) {
+      skipRow = null;
+      return null;
+    }
+    if (result.size() <= skipCellCount) {
+      skipCellCount -= result.size();
+      return null;
+    }
+    Cell[] cells = result.rawCells();
+    Result rest = Result.create(Arrays.copyOfRange(cells, skipCellCount, cells.length));
+    skipRow = null;
+    return rest;
+  }
+
+  private static long sizeOf(Result result) {
+    long size = 0;
+    for (Cell cell : result.rawCells()) {
+      size += cell.getRowLength() + cell.getFamilyLength() + cell.getQualifierLength() +
+          cell.getValueLength();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,127 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+
+/**
+ * What all {@link HTableMultiCluster} handles of one table share: the
+ * tables of every cluster, the stats, the primary circuit breakers, the
+ * failover selector, the recent failover writes and the settings read from
+ * the configuration.  The connection keeps one per table name, so getting a
+ * handle neither creates tables nor reads the configuration.
+ */
+public class MultiClusterTableState {
+
+  static final Log LOG = LogFactory.getLog(MultiClusterTableState.class);
+
+  final TableName tableName;
+  final HTableInterface primaryHTable;
+  final Collection<HTableInterface> failoverHTables;
+  final RegionCircuitBreaker circuitBreaker;
+  final FailoverSelector failoverSelector;
+  final HTableStats stats;
+  final RecentWritesTracker recentWrites;
+
+  final long writeBufferSize;
+  final int writeBufferStripes;
+  final long writeBufferFlushInterval;
+  final long writeBufferMemoryLimit;
+  final int writeBufferFlushThreads;
+  final long scannerStallTimeout;
+  final int scannerPrefetchChunks;
+  final long scannerPrefetchMaxBytes;
+  final LogSampler putLog;
+
+  public MultiClusterTableState(Configuration conf,
+                                TableName tableName,
+                                HTableInterface primaryHTable,
+                                Collection<HTableInterface> failoverHTables,
+                                RegionCircuitBreaker circuitBreaker,
+                                FailoverSelector failoverSelector) {
+    this(conf, tableName, primaryHTable, failoverHTables, circuitBreaker, failoverSelector,
+        new HTableStats());
+  }
+
+  /**
+   * @param stats the stats of the table, which the cluster tables may
+   * already count into
+   */
+  public MultiClusterTableState(Configuration conf,
+                                TableName tableName,
+                                HTableInterface primaryHTable,
+                                Collection<HTableInterface> failoverHTables,
+                                RegionCircuitBreaker circuitBreaker,
+                                FailoverSelector failoverSelector,
+                                HTableStats stats) {
+    this.tableName = tableName;
+    this.stats = stats;
+    this.primaryHTable = primaryHTable;
+    this.failoverHTables = failoverHTables;
+    this.circuitBreaker = circuitBreaker;
+    this.failoverSelector = failoverSelector;
+
+    this.writeBufferSize = conf.getLong("hbase.client.write.buffer", 2097152L);
+    this.writeBufferStripes = conf.getInt(
+        ConfigConst.HBASE_MULTI_CLUSTER_WRITE_BUFFER_STRIPES_CONFIG, 16);
+    this.writeBufferFlushInterval = conf.getLong(
+        ConfigConst.HBASE_MULTI_CLUSTER_WRITE_BUFFER_FLUSH_INTERVAL_CONFIG, 1000);
+    this.writeBufferMemoryLimit = conf.getLong(
+        ConfigConst.HBASE_MULTI_CLUSTER_WRITE_BUFFER_MEMORY_LIMIT_CONFIG, 4 * writeBufferSize);
+    this.writeBufferFlushThreads = conf.getInt(
+        ConfigConst.HBASE_MULTI_CLUSTER_WRITE_BUFFER_FLUSH_THREADS_CONFIG, 4);
+    this.scannerStallTimeout = conf.getLong(
+        ConfigConst.HBASE_MULTI_CLUSTER_SCANNER_STALL_TIMEOUT_CONFIG, 10000);
+    this.scannerPrefetchChunks = conf.getInt(
+        ConfigConst.HBASE_MULTI_CLUSTER_SCANNER_PREFETCH_CHUNKS_CONFIG, 1);
+    this.scannerPrefetchMaxBytes = conf.getLong(
+        ConfigConst.HBASE_MULTI_CLUSTER_SCANNER_PREFETCH_MAX_BYTES_CONFIG, 16777216L);
+    this.putLog = new LogSampler(HTableMultiCluster.LOG, conf.getInt(
+        ConfigConst.HBASE_MULTI_CLUSTER_LOG_SAMPLE_RATE_CONFIG, 1000));
+
+    long readYourWritesWindow = conf.getLong(
+        ConfigConst.HBASE_MULTI_CLUSTER_READ_YOUR_WRITES_WINDOW_CONFIG, 0);
+    this.recentWrites = readYourWritesWindow <= 0 ? null : new RecentWritesTracker(
+        conf.getInt(ConfigConst.HBASE_MULTI_CLUSTER_READ_YOUR_WRITES_SLOTS_CONFIG, 65536),
+        readYourWritesWindow);
+  }
+
+  public TableName getTableName() {
+    return tableName;
+  }
+
+  public HTableStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Closes the tables of every cluster.
+   */
+  public void close() throws IOException {
+    List<HTableInterface> tables = new ArrayList<HTableInterface>();
+    tables.add(primaryHTable);
+    tables.addAll(failoverHTables);
+    close(tables);
+  }
+
+  static void close(Collection<HTableInterface> tables) throws IOException {
+    Exception lastException = null;
+    for (HTableInterface table : tables) {
+      try {
+        table.close();
+      } catch (Exception e) {
+        LOG.error("Exception while closing " + table.getName(), e);
+        lastException = e;
+      }
+    }
+    if (lastException != null) {
+      throw new IOException(lastException);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Write buffer of Puts and Deletes that any number of threads can add to.
+ *
+ * Mutations are spread over lock-striped lists by row, so concurrent writers
+ * rarely contend and all the mutations of a row stay in one list in the order
+ * they were added.  The buffered size is the exact heap size of the buffered
+ * mutations.
+ */
+public class MutationBuffer {
+
+  final Stripe[] stripes;
+  final AtomicLong size = new AtomicLong(0);
+
+  public MutationBuffer(int stripeCount) {
+    this.stripes = new Stripe[Math.max(1, stripeCount)];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * @return the buffered size after adding the mutation
+   */
+  public long add(Mutation mutation) {
+    long heapSize = mutation.heapSize();
+    Stripe stripe = stripes[(Bytes.hashCode(mutation.getRow()) & Integer.MAX_VALUE) % stripes.length];
+    synchronized (stripe) {
+      stripe.mutations.add(mutation);
+      stripe.size += heapSize;
+    }
+    return size.addAndGet(heapSize);
+  }
+
+  public long getSize() {
+    return size.get();
+  }
+
+  public int getStripeCount() {
+    return stripes.length;
+  }
+
+  public long getStripeSize(int index) {
+    Stripe stripe = stripes[index];
+    synchronized (stripe) {
+      return stripe.size;
+    }
+  }
+
+  /**
+   * Removes and returns everything buffered in one stripe, with the
+   * mutations of a row in the order they were added.  A row always maps to
+   * the same stripe, so stripes can be flushed independently.
+   */
+  public List<Mutation> drain(int index) {
+    Stripe stripe = stripes[index];
+    synchronized (stripe) {
+      if (stripe.mutations.isEmpty()) {
+        return new ArrayList<Mutation>(0);
+      }
+      List<Mutation> drained = stripe.mutations;
+      stripe.mutations = new ArrayList<Mutation>();
+      size.addAndGet(-stripe.size);
+      stripe.size = 0;
+      return drained;
+    }
+  }
+
+  /**
+   * Splits the mutations into consecutive runs in which no row repeats.  A
+   * batch does not keep the order of its actions, so sending one run at a
+   * time is what keeps the mutations of a row in order.
+   */
+  public static List<List<Mutation>> splitIntoRuns(List<Mutation> mutations) {
+    List<List<Mutation>> runs = new ArrayList<List<Mutation>>();
+    List<Mutation> run = new ArrayList<Mutation>();
+    TreeSet<byte[]> rows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    for (Mutation mutation : mutations) {
+      if (!rows.add(mutation.getRow())) {
+        runs.add(run);
+        run = new ArrayList<Mutation>();
+        rows.clear();
+        rows.add(mutation.getRow());
+      }
+      run.add(mutation);
+    }
+    if (!run.isEmpty()) {
+      runs.add(run);
+    }
+    return runs;
+  }
+
+  static class Stripe {
+    List<Mutation> mutations = new ArrayList<Mutation>();
+    long size = 0;
+  }
+}
@@ -0,0 +1,337 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutationProto;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutationProto.MutationType;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Append-only local journal of the mutations only a failover acknowledged.
+ *
+ * The journal is a directory of memory-mapped segment files.  Every record is
+ * the table name and the MutationProto of one Put or Delete, deflated and
+ * prefixed by its length, its uncompressed length and a CRC32 of the
+ * compressed bytes.  A zero length marks the end of a segment.
+ *
+ * {@link JournalReplayer} re-applies the sealed segments to the primary and
+ * deletes them once every record they hold is written.
+ *
+ * Deletes of the latest version of a column are not journaled: replayed
+ * later they would delete whatever version is the latest by then.  They are
+ * counted instead, and left to anti-entropy repair.
+ */
+public class MutationJournal {
+
+  static final Log LOG = LogFactory.getLog(MutationJournal.class);
+
+  static final String SEGMENT_PREFIX = "journal-";
+  static final String SEGMENT_SUFFIX = ".log";
+  static final int HEADER_SIZE = 4 + 4 + 8;
+
+  final File dir;
+  final int segmentSize;
+  final boolean isSync;
+
+  final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  final CRC32 crc = new CRC32();
+  final byte[] deflateBuffer = new byte[4096];
+  final AtomicLong unjournaledDeletes = new AtomicLong();
+
+  long nextSegmentId;
+  boolean isClosed;
+  File segment;
+  MappedByteBuffer segmentBuffer;
+
+  public MutationJournal(File dir, int segmentSize, boolean isSync) throws IOException {
+    this.dir = dir;
+    this.segmentSize = segmentSize;
+    this.isSync = isSync;
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create the journal directory " + dir);
+    }
+    File[] segments = listSegments();
+    nextSegmentId = segments.length == 0 ? 0 : segmentId(segments[segments.length - 1]) + 1;
+  }
+
+  /**
+   * Records a mutation a failover acknowledged but the primary may not have.
+   * Deletes without a timestamp are stamped with now, so replaying them
+   * later does not delete what was written in between.  Deletes of the
+   * latest version of a column are only counted.
+   *
+   * @throws IOException if the journal is closed or the record does not fit
+   * a segment
+   */
+  public void append(TableName tableName, Mutation mutation) throws IOException {
+    MutationProto proto;
+    if (mutation instanceof Put) {
+      proto = ProtobufUtil.toMutation(MutationType.PUT, mutation);
+    } else if (mutation instanceof Delete) {
+      if (hasLatestVersionMarker((Delete)mutation)) {
+        long count = unjournaledDeletes.incrementAndGet();
+        if (count == 1 || count % 1000 == 0) {
+          LOG.warn("Not journaling the delete of the latest version of a column of " +
+              Bytes.toStringBinary(mutation.getRow()) + " in " + tableName + ", " + count +
+              " such deletes so far are left to anti-entropy repair");
+        }
+        return;
+      }
+      proto = ProtobufUtil.toMutation(MutationType.DELETE,
+          stampDelete((Delete)mutation, System.currentTimeMillis()));
+    } else {
+      return;
+    }
+
+    byte[] name = tableName.getName();
+    byte[] mutationBytes = proto.toByteArray();
+    byte[] raw = new byte[2 + name.length + mutationBytes.length];
+    Bytes.putShort(raw, 0, (short)name.length);
+    System.arraycopy(name, 0, raw, 2, name.length);
+    System.arraycopy(mutationBytes, 0, raw, 2 + name.length, mutationBytes.length);
+
+    synchronized (this) {
+      if (isClosed) {
+        throw new IOException("The journal is closed");
+      }
+      byte[] compressed = deflate(raw);
+      int recordSize = HEADER_SIZE + compressed.length;
+      if (recordSize + 4 > segmentSize) {
+        throw new IOException("Mutation of " + raw.length + " bytes does not fit a journal segment");
+      }
+      if (segmentBuffer == null || segmentBuffer.remaining() < recordSize + 4) {
+        roll();
+      }
+      crc.reset();
+      crc.update(compressed, 0, compressed.length);
+      segmentBuffer.putInt(compressed.length);
+      segmentBuffer.putInt(raw.length);
+      segmentBuffer.putLong(crc.getValue());
+      segmentBuffer.put(compressed);
+      if (isSync) {
+        segmentBuffer.force();
+      }
+    }
+  }
+
+  /**
+   * Seals the segment being written, so everything journaled so far can be
+   * replayed while new records go to a new segment.
+   *
+   * @return the sealed segments, oldest first
+   */
+  public synchronized File[] seal() throws IOException {
+    closeSegment();
+    return listSegments();
+  }
+
+  /**
+   * @return true if anything was journaled and not replayed yet
+   */
+  public synchronized boolean hasRecords() {
+    return segmentBuffer != null || listSegments().length > 0;
+  }
+
+  /**
+   * @return the deletes of the latest version of a column that were not
+   * journaled
+   */
+  public long getUnjournaledDeletes() {
+    return unjournaledDeletes.get();
+  }
+
+  public synchronized void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    closeSegment();
+    deflater.end();
+  }
+
+  private void roll() throws IOException {
+    closeSegment();
+    segment = new File(dir, SEGMENT_PREFIX + String.format("%020d", nextSegmentId++) + SEGMENT_SUFFIX);
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    try {
+      segmentBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    } finally {
+      file.close();
+    }
+  }
+
+  private void closeSegment() {
+    if (segmentBuffer != null) {
+      if (segmentBuffer.remaining() >= 4) {
+        segmentBuffer.putInt(0);
+      }
+      segmentBuffer.force();
+      segmentBuffer = null;
+      segment = null;
+    }
+  }
+
+  private byte[] deflate(byte[] raw) {
+    deflater.reset();
+    deflater.setInput(raw);
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+    while (!deflater.finished()) {
+      int count = deflater.deflate(deflateBuffer);
+      out.write(deflateBuffer, 0, count);
+    }
+    return out.toByteArray();
+  }
+
+  File[] listSegments() {
+    File[] segments = dir.listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    if (segments == null) {
+      return new File[0];
+    }
+    Arrays.sort(segments, new Comparator<File>() {
+      public int compare(File a, File b) {
+        return a.getName().compareTo(b.getName());
+      }
+    });
+    return segments;
+  }
+
+  static long segmentId(File segment) {
+    String name = segment.getName();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+        name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /**
+   * Reads the records of a sealed segment.  Reading stops at the end marker
+   * or at the first record whose CRC does not match, which is what a record
+   * torn by a crash looks like.
+   */
+  static List<Entry<TableName, Mutation>> read(File segment) throws IOException {
+    return read(segment, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Reads at most limit records of a segment.  The segment being written
+   * can be read too, its unwritten end reads as the end marker.
+   */
+  static List<Entry<TableName, Mutation>> read(File segment, int limit) throws IOException {
+    List<Entry<TableName, Mutation>> records = new ArrayList<Entry<TableName, Mutation>>();
+    RandomAccessFile file = new RandomAccessFile(segment, "r");
+    Inflater inflater = new Inflater();
+    CRC32 crc = new CRC32();
+    try {
+      ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+      while (records.size() < limit && buffer.remaining() >= HEADER_SIZE) {
+        int length = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining() - 12) {
+          break;
+        }
+        int rawLength = buffer.getInt();
+        long expectedCrc = buffer.getLong();
+        byte[] compressed = new byte[length];
+        buffer.get(compressed);
+
+        crc.reset();
+        crc.update(compressed, 0, length);
+        if (crc.getValue() != expectedCrc) {
+          LOG.warn("Journal segment " + segment + " has a corrupt record at " +
+              (buffer.position() - length - HEADER_SIZE) + ", ignoring the rest of it");
+          break;
+        }
+
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+          inflater.inflate(raw);
+        } catch (DataFormatException e) {
+          throw new IOException("Unable to inflate a record of " + segment, e);
+        }
+
+        int nameLength = Bytes.toShort(raw, 0);
+        TableName tableName = TableName.valueOf(Arrays.copyOfRange(raw, 2, 2 + nameLength));
+        MutationProto proto = MutationProto.parseFrom(
+            Arrays.copyOfRange(raw, 2 + nameLength, rawLength));
+        Mutation mutation = proto.getMutateType() == MutationType.PUT ?
+            ProtobufUtil.toPut(proto) : ProtobufUtil.toDelete(proto);
+        records.add(new SimpleImmutableEntry<TableName, Mutation>(tableName, mutation));
+      }
+    } finally {
+      inflater.end();
+      file.close();
+    }
+    return records;
+  }
+
+  /**
+   * @return true if the delete has a marker of a single version without a
+   * timestamp, which the region server resolves to the latest version
+   */
+  static boolean hasLatestVersionMarker(Delete delete) {
+    for (List<Cell> cells : delete.getFamilyCellMap().values()) {
+      for (Cell cell : cells) {
+        if (cell.getTimestamp() == HConstants.LATEST_TIMESTAMP &&
+            cell.getTypeByte() == KeyValue.Type.Delete.getCode()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gives row, family and column delete markers without a timestamp the
+   * timestamp ts.  Markers of a single version keep theirs, since without one
+   * they mean the latest version; {@link #append} does not journal those.
+   */
+  static Delete stampDelete(Delete delete, long ts) throws IOException {
+    if (delete.getFamilyCellMap().isEmpty()) {
+      return delete.getTimeStamp() == HConstants.LATEST_TIMESTAMP ?
+          new Delete(delete.getRow(), ts) : delete;
+    }
+    Delete stamped = new Delete(delete.getRow());
+    for (List<Cell> cells : delete.getFamilyCellMap().values()) {
+      for (Cell cell : cells) {
+        KeyValue kv = KeyValueUtil.ensureKeyValue(cell);
+        if (kv.getTimestamp() == HConstants.LATEST_TIMESTAMP &&
+            kv.getTypeByte() != KeyValue.Type.Delete.getCode()) {
+          kv = new KeyValue(kv.getRow(), kv.getFamily(), kv.getQualifier(), ts,
+              KeyValue.Type.codeToType(kv.getTypeByte()));
+        }
+        stamped.addDeleteMarker(kv);
+      }
+    }
+    return stamped;
+  }
+}
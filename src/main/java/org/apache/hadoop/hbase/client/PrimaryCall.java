@@ -0,0 +1,235 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The primary's call of a speculative request.
+ *
+ * The caller starts it on the worker pool and waits for it up to the hedge
+ * delay, which replaces the completion service, futures, flags and timer
+ * entry of the hedged path in the common case of a primary answering in
+ * time.  Only when it does not do the speculative engines build that path,
+ * and the call then reports to it through {@link #whenDone}.
+ *
+ * Calls are pooled per calling thread.  The caller and the worker each hold
+ * a reference, and whichever releases last returns the call to the pool of
+ * the thread that started it, so a primary still running when the request
+ * returns is never reused under its feet.  Nothing else holds a reference:
+ * hedged tasks that can outlive the request must keep the outcome they need
+ * themselves, for example from the {@link #whenDone} task.
+ */
+class PrimaryCall<T> implements Runnable {
+
+  static final int NEW = 0;
+  static final int RUNNING = 1;
+  static final int DONE = 2;
+  static final int INTERRUPTING = 3;
+  static final int CANCELLED = 4;
+
+  static final ThreadLocal<AtomicReference<PrimaryCall<?>>> POOL =
+      new ThreadLocal<AtomicReference<PrimaryCall<?>>>() {
+    @Override
+    protected AtomicReference<PrimaryCall<?>> initialValue() {
+      return new AtomicReference<PrimaryCall<?>>();
+    }
+  };
+
+  final AtomicReference<PrimaryCall<?>> pool;
+  final AtomicInteger state = new AtomicInteger(NEW);
+  final AtomicInteger references = new AtomicInteger(0);
+
+  HBaseTableFunction<T> function;
+  HTableInterface table;
+  CircuitBreaker circuitBreaker;
+  HedgeDelay hedgeDelay;
+  long startTime;
+
+  volatile T result;
+  volatile Exception error;
+  volatile boolean isSucceeded;
+  volatile boolean isDone;
+  volatile Thread waiter;
+  volatile Thread runner;
+  Runnable completion;
+
+  PrimaryCall(AtomicReference<PrimaryCall<?>> pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Runs the function against the primary table on the executor.  The
+   * circuit breaker and the hedge delay learn the outcome from the call.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> PrimaryCall<T> start(HBaseTableFunction<T> function,
+                                  HTableInterface table,
+                                  CircuitBreaker circuitBreaker,
+                                  HedgeDelay hedgeDelay,
+                                  long startTime,
+                                  Executor executor) {
+    AtomicReference<PrimaryCall<?>> pool = POOL.get();
+    PrimaryCall<T> call = (PrimaryCall<T>)pool.getAndSet(null);
+    if (call == null) {
+      call = new PrimaryCall<T>(pool);
+    }
+    call.function = function;
+    call.table = table;
+    call.circuitBreaker = circuitBreaker;
+    call.hedgeDelay = hedgeDelay;
+    call.startTime = startTime;
+    call.waiter = Thread.currentThread();
+    call.references.set(2);
+    try {
+      executor.execute(call);
+    } catch (RejectedExecutionException e) {
+      call.state.set(DONE);
+      call.error = e;
+      call.complete();
+      call.release();
+    }
+    return call;
+  }
+
+  @Override
+  public void run() {
+    try {
+      runner = Thread.currentThread();
+      if (!state.compareAndSet(NEW, RUNNING)) {
+        // cancelled before it ran
+        runner = null;
+        return;
+      }
+      try {
+        T t = function.call(table);
+        circuitBreaker.recordSuccess();
+        hedgeDelay.recordPrimaryLatency(System.currentTimeMillis() - startTime);
+        result = t;
+        isSucceeded = true;
+      } catch (InterruptedIOException e) {
+        error = e;
+      } catch (Exception e) {
+        circuitBreaker.recordFailure(e);
+        error = e;
+      }
+      runner = null;
+      if (!state.compareAndSet(RUNNING, DONE)) {
+        // Cancelled while running: wait for the interrupt to land so it does
+        // not leak into the next task of this worker.
+        while (state.get() == INTERRUPTING) {
+          Thread.yield();
+        }
+        Thread.interrupted();
+      }
+      complete();
+    } finally {
+      release();
+    }
+  }
+
+  private void complete() {
+    Runnable toRun;
+    synchronized (this) {
+      isDone = true;
+      toRun = completion;
+    }
+    if (toRun != null) {
+      toRun.run();
+    }
+    Thread toWake = waiter;
+    if (toWake != null) {
+      LockSupport.unpark(toWake);
+    }
+  }
+
+  /**
+   * Waits for the primary until the timeout.  An interrupt ends the wait and
+   * stays set for the caller to handle.
+   *
+   * @return true if the primary has answered or failed
+   */
+  boolean await(long timeout) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    while (!isDone) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+        break;
+      }
+      LockSupport.parkNanos(this, remaining);
+    }
+    waiter = null;
+    return isDone;
+  }
+
+  /**
+   * Runs the task once the primary has answered or failed, right away if it
+   * already has.  Only one task can be registered.
+   */
+  void whenDone(Runnable task) {
+    synchronized (this) {
+      if (!isDone) {
+        completion = task;
+        return;
+      }
+    }
+    task.run();
+  }
+
+  boolean isSucceeded() {
+    return isSucceeded;
+  }
+
+  T getResult() {
+    return result;
+  }
+
+  Exception getError() {
+    return error;
+  }
+
+  /**
+   * Interrupts the primary if it is still running.
+   */
+  void cancel() {
+    if (state.compareAndSet(NEW, CANCELLED)) {
+      return;
+    }
+    if (state.compareAndSet(RUNNING, INTERRUPTING)) {
+      Thread toInterrupt = runner;
+      if (toInterrupt != null) {
+        toInterrupt.interrupt();
+      }
+      state.set(CANCELLED);
+    }
+  }
+
+  /**
+   * Gives up the caller's or the worker's reference.  The last one returns
+   * the call to its pool.
+   */
+  void release() {
+    if (references.decrementAndGet() != 0) {
+      return;
+    }
+    function = null;
+    table = null;
+    circuitBreaker = null;
+    hedgeDelay = null;
+    result = null;
+    error = null;
+    isSucceeded = false;
+    waiter = null;
+    runner = null;
+    synchronized (this) {
+      isDone = false;
+      completion = null;
+    }
+    state.set(NEW);
+    pool.set(this);
+  }
+}
@@ -0,0 +1,58 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Serves the last {@link MultiClusterMetrics.Snapshot} in the Prometheus
+ * text format on /metrics, from the HTTP server the JDK comes with.  A
+ * scrape only writes out the text the snapshot rendered once.
+ */
+public class PrometheusEndpoint {
+
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  final MultiClusterMetrics metrics;
+  final HttpServer server;
+
+  public PrometheusEndpoint(MultiClusterMetrics metrics, int port) throws IOException {
+    this.metrics = metrics;
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext("/metrics", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        serve(exchange);
+      }
+    });
+  }
+
+  void serve(HttpExchange exchange) throws IOException {
+    try {
+      byte[] body = Bytes.toBytes(metrics.getSnapshot().getPrometheusText());
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.flush();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+}
@@ -0,0 +1,114 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers for a while which failover acknowledged the latest write of a
+ * row, so reads of the row can go to that cluster until the write reached
+ * the primary.
+ *
+ * Rows are hashed into a fixed table of slots, each packing the cluster, a
+ * fingerprint of the row and the expiry time into one long, so the tracker
+ * takes the same memory however many rows are written and never locks.  A
+ * row whose slot is taken over by another row is forgotten early, and a
+ * fingerprint collision can route a read to a failover needlessly; both
+ * only cost freshness of that read, never its success.
+ */
+public class RecentWritesTracker {
+
+  static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  static final long FNV_PRIME = 0x100000001b3L;
+  static final int CLUSTER_BITS = 8;
+  static final int FINGERPRINT_BITS = 24;
+  static final long EXPIRY_MASK = 0x7FFFFFFFL;
+
+  final AtomicLongArray slots;
+  final int mask;
+  final long window;
+  final long epoch = System.currentTimeMillis();
+  volatile long lastRecordTime = Long.MIN_VALUE / 2;
+
+  /**
+   * @param slotCount rounded up to a power of two
+   * @param window ms a failover write routes reads of its row
+   */
+  public RecentWritesTracker(int slotCount, long window) {
+    int size = slotCount <= 1 ? 1 : Integer.highestOneBit(slotCount - 1) << 1;
+    this.slots = new AtomicLongArray(size);
+    this.mask = size - 1;
+    this.window = Math.min(window, EXPIRY_MASK / 2);
+  }
+
+  static long hash(byte[] row) {
+    long hash = FNV_OFFSET_BASIS;
+    for (byte b : row) {
+      hash ^= b & 0xff;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Expiry times are kept in 31 bits of ms and compared modulo 2^31, which
+   * stays correct as long as the window is shorter than 12 days.
+   */
+  private long now() {
+    return (System.currentTimeMillis() - epoch) & EXPIRY_MASK;
+  }
+
+  private boolean isLive(long slot, long fingerprint, long now) {
+    if (slot == 0 || ((slot >>> CLUSTER_BITS) & ((1L << FINGERPRINT_BITS) - 1)) != fingerprint) {
+      return false;
+    }
+    long remaining = ((slot >>> (CLUSTER_BITS + FINGERPRINT_BITS)) - now) & EXPIRY_MASK;
+    return remaining > 0 && remaining <= window;
+  }
+
+  /**
+   * @param cluster index of the failover that acknowledged the write,
+   * starting at 1, or 0 if the primary did, which ends the routing
+   */
+  public void record(byte[] row, int cluster) {
+    long hash = hash(row);
+    int index = (int)hash & mask;
+    long fingerprint = (hash >>> 40) & ((1L << FINGERPRINT_BITS) - 1);
+    if (cluster <= 0) {
+      if (System.currentTimeMillis() - lastRecordTime <= window) {
+        long slot = slots.get(index);
+        if (isLive(slot, fingerprint, now())) {
+          slots.compareAndSet(index, slot, 0);
+        }
+      }
+      return;
+    }
+    long expiry = (now() + window) & EXPIRY_MASK;
+    slots.set(index, (expiry << (CLUSTER_BITS + FINGERPRINT_BITS)) |
+        (fingerprint << CLUSTER_BITS) | (cluster & ((1 << CLUSTER_BITS) - 1)));
+    lastRecordTime = System.currentTimeMillis();
+  }
+
+  /**
+   * @return the failover that acknowledged a write of the row within the
+   * window, starting at 1, or 0 if reads of the row need no routing
+   */
+  public int clusterOf(byte[] row) {
+    if (!isActive()) {
+      return 0;
+    }
+    long hash = hash(row);
+    long slot = slots.get((int)hash & mask);
+    long fingerprint = (hash >>> 40) & ((1L << FINGERPRINT_BITS) - 1);
+    if (!isLive(slot, fingerprint, now())) {
+      return 0;
+    }
+    return (int)(slot & ((1 << CLUSTER_BITS) - 1));
+  }
+
+  /**
+   * @return false if no failover write happened within the window, so no
+   * read needs to be checked
+   */
+  public boolean isActive() {
+    return System.currentTimeMillis() - lastRecordTime <= window;
+  }
+}
@@ -0,0 +1,294 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Circuit breakers for the primary cluster of one table, one per region (or
+ * per region server), so a failing region only sends its own key range to the
+ * failovers while the rest of the table keeps the primary path.
+ *
+ * Rows are mapped to circuits with the primary's region locations.  The map
+ * is loaded in the background and refreshed after failures, so looking up a
+ * circuit never blocks on meta.  Until it is loaded rows are spread over a
+ * few circuits by a hash of the row, so one failing region cannot shut the
+ * primary for the whole table in that window; those circuits are dropped
+ * once the map is loaded.
+ *
+ * When the primary's health is probed, circuits also stay shut while the
+ * prober finds the primary, or the circuit's region server, unhealthy.
+ */
+public class RegionCircuitBreaker {
+
+  static final Log LOG = LogFactory.getLog(RegionCircuitBreaker.class);
+
+  public static final String KEY_BY_REGION = "region";
+  public static final String KEY_BY_SERVER = "server";
+
+  static final String BUCKET_KEY_PREFIX = "bucket-";
+  static final int BUCKETS = 16;
+  static final long MIN_REFRESH_INTERVAL = 10000;
+
+  static final int CLOSED = 0;
+  static final int OPEN = 1;
+  static final int HALF_OPEN = 2;
+
+  final HConnection primaryConnection;
+  final TableName tableName;
+  final boolean isKeyedByServer;
+  final int failureThreshold;
+  final long openDuration;
+  final HedgingScheduler scheduler;
+  final ClusterHealth primaryHealth;
+
+  final ConcurrentSkipListMap<byte[], String> regionKeys =
+      new ConcurrentSkipListMap<byte[], String>(Bytes.BYTES_COMPARATOR);
+  final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+  final AtomicBoolean isRefreshing = new AtomicBoolean(false);
+  final AtomicLong lastRefresh = new AtomicLong(0);
+
+  public RegionCircuitBreaker(HConnection primaryConnection, TableName tableName,
+                              String keyBy, int failureThreshold, long openDuration,
+                              HedgingScheduler scheduler,
+                              ClusterHealth primaryHealth) {
+    this.primaryConnection = primaryConnection;
+    this.tableName = tableName;
+    this.isKeyedByServer = KEY_BY_SERVER.equals(keyBy);
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+    this.scheduler = scheduler;
+    this.primaryHealth = primaryHealth;
+  }
+
+  public Circuit circuitFor(byte[] row) {
+    Map.Entry<byte[], String> entry = regionKeys.floorEntry(row);
+    if (entry == null) {
+      return circuitForKey(BUCKET_KEY_PREFIX + ((Bytes.hashCode(row) & 0x7fffffff) % BUCKETS));
+    }
+    return circuitForKey(entry.getValue());
+  }
+
+  public CircuitBreaker circuitFor(List<? extends Row> rows) {
+    Set<Circuit> rowCircuits = new LinkedHashSet<Circuit>();
+    for (Row row : rows) {
+      rowCircuits.add(circuitFor(row.getRow()));
+    }
+    if (rowCircuits.size() == 1) {
+      return rowCircuits.iterator().next();
+    }
+    return new CircuitGroup(new ArrayList<Circuit>(rowCircuits));
+  }
+
+  Circuit circuitForKey(String key) {
+    Circuit circuit = circuits.get(key);
+    if (circuit == null) {
+      circuit = new Circuit(key);
+      Circuit existing = circuits.putIfAbsent(key, circuit);
+      if (existing != null) {
+        circuit = existing;
+      }
+    }
+    return circuit;
+  }
+
+  /**
+   * @return true if no circuit of the table is open or half-open
+   */
+  public boolean isClosed() {
+    for (Circuit circuit : circuits.values()) {
+      if (!circuit.isClosed()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Closes every circuit, for when the primary is known to have recovered.
+   */
+  public void reset() {
+    for (Circuit circuit : circuits.values()) {
+      circuit.recordSuccess();
+    }
+  }
+
+  /**
+   * Reloads the primary's region locations in the background, at most once
+   * every {@link #MIN_REFRESH_INTERVAL} ms.
+   */
+  public void refreshRegions() {
+    long last = lastRefresh.get();
+    if (System.currentTimeMillis() - last < MIN_REFRESH_INTERVAL ||
+        !isRefreshing.compareAndSet(false, true)) {
+      return;
+    }
+    scheduler.getExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          List<HRegionLocation> locations = primaryConnection.locateRegions(tableName);
+          updateRegions(locations);
+        } catch (Exception e) {
+          LOG.warn("Unable to load region locations of " + tableName, e);
+        } finally {
+          lastRefresh.set(System.currentTimeMillis());
+          isRefreshing.set(false);
+        }
+      }
+    });
+  }
+
+  void updateRegions(List<HRegionLocation> locations) {
+    Set<byte[]> startKeys = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    for (HRegionLocation location : locations) {
+      byte[] startKey = location.getRegionInfo().getStartKey();
+      String key = isKeyedByServer ?
+          location.getServerName().getHostAndPort() :
+          location.getRegionInfo().getEncodedName();
+      regionKeys.put(startKey, key);
+      startKeys.add(startKey);
+    }
+    regionKeys.keySet().retainAll(startKeys);
+
+    // Drop the circuits no row maps to any more: those of regions or servers
+    // gone from the map, and the hash buckets once it is loaded.  Left
+    // alone, an open one would keep the table from ever looking closed.
+    Set<String> keys = new HashSet<String>(regionKeys.values());
+    for (String key : circuits.keySet()) {
+      boolean isBucket = key.startsWith(BUCKET_KEY_PREFIX);
+      if (isBucket ? !regionKeys.isEmpty() : !keys.contains(key)) {
+        circuits.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Breaker of one region or region server.
+   */
+  public class Circuit implements CircuitBreaker {
+    final String key;
+    final AtomicInteger state = new AtomicInteger(CLOSED);
+    final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+    volatile long stateChangeTime = 0;
+
+    Circuit(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public boolean allowRequest() {
+      if (primaryHealth != null &&
+          !primaryHealth.isHealthy(isKeyedByServer ? key : null)) {
+        return false;
+      }
+      int currentState = state.get();
+      if (currentState == CLOSED) {
+        return true;
+      }
+      // Open, or half-open with a trial that never reported back.
+      if (System.currentTimeMillis() - stateChangeTime >= openDuration &&
+          state.compareAndSet(currentState, HALF_OPEN)) {
+        stateChangeTime = System.currentTimeMillis();
+        return true;
+      }
+      return false;
+    }
+
+    public boolean isClosed() {
+      return state.get() == CLOSED;
+    }
+
+    @Override
+    public void recordSuccess() {
+      consecutiveFailures.set(0);
+      if (state.get() != CLOSED) {
+        state.set(CLOSED);
+        LOG.info("Closed primary circuit " + tableName + "/" + key);
+      }
+    }
+
+    @Override
+    public void recordFailure(Throwable t) {
+      if (state.get() == HALF_OPEN ||
+          consecutiveFailures.incrementAndGet() >= failureThreshold) {
+        stateChangeTime = System.currentTimeMillis();
+        if (state.getAndSet(OPEN) != OPEN) {
+          LOG.info("Opened primary circuit " + tableName + "/" + key + ": " + t);
+        }
+        refreshRegions();
+      }
+    }
+
+    public String getKey() {
+      return key;
+    }
+  }
+
+  /**
+   * Breaker of a request spanning several circuits.  The primary is only
+   * skipped when none of them lets requests through, and failures are
+   * charged to the circuits of the rows that failed when the exception says
+   * which ones did.
+   */
+  class CircuitGroup implements CircuitBreaker {
+    final List<Circuit> members;
+
+    CircuitGroup(List<Circuit> members) {
+      this.members = members;
+    }
+
+    @Override
+    public boolean allowRequest() {
+      boolean isAllowed = false;
+      for (Circuit circuit : members) {
+        isAllowed |= circuit.allowRequest();
+      }
+      return isAllowed;
+    }
+
+    @Override
+    public void recordSuccess() {
+      for (Circuit circuit : members) {
+        circuit.recordSuccess();
+      }
+    }
+
+    @Override
+    public void recordFailure(Throwable t) {
+      if (t instanceof RetriesExhaustedWithDetailsException) {
+        RetriesExhaustedWithDetailsException details = (RetriesExhaustedWithDetailsException)t;
+        Set<Circuit> failed = new LinkedHashSet<Circuit>();
+        for (int i = 0; i < details.getNumExceptions(); i++) {
+          failed.add(circuitFor(details.getRow(i).getRow()));
+        }
+        for (Circuit circuit : members) {
+          if (failed.contains(circuit)) {
+            circuit.recordFailure(t);
+          } else {
+            circuit.recordSuccess();
+          }
+        }
+      } else {
+        for (Circuit circuit : members) {
+          circuit.recordFailure(t);
+        }
+      }
+    }
+  }
+}
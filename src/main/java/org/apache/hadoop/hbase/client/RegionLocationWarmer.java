@@ -0,0 +1,117 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+
+/**
+ * Loads the region locations of a set of tables into the meta cache of
+ * every cluster, so the first request a failover serves for a region does
+ * not wait on meta lookups while the primary is already in trouble.
+ *
+ * All cluster and table pairs load in parallel on the worker pool, once when
+ * the connection is created and then on every refresh interval.  Refreshes
+ * bypass the cache so moved regions are picked up before a request trips
+ * over them.
+ */
+public class RegionLocationWarmer {
+
+  static final Log LOG = LogFactory.getLog(RegionLocationWarmer.class);
+
+  final List<HConnection> connections;
+  final List<TableName> tableNames;
+  final HedgingScheduler scheduler;
+  final AtomicBoolean isWarming = new AtomicBoolean(false);
+  ScheduledFuture<?> periodicRefresh;
+
+  public RegionLocationWarmer(List<HConnection> connections,
+                              List<TableName> tableNames,
+                              HedgingScheduler scheduler) {
+    this.connections = connections;
+    this.tableNames = tableNames;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Starts loading the locations now and then every refresh interval.
+   *
+   * @param refreshInterval ms between refreshes, 0 or less to load once
+   */
+  public void start(long refreshInterval) {
+    warmUp(true);
+    if (refreshInterval > 0) {
+      periodicRefresh = scheduler.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          warmUp(false);
+        }
+      }, refreshInterval);
+    }
+  }
+
+  /**
+   * Loads the locations of every table on every cluster in the background,
+   * unless the previous load is still running.
+   *
+   * @param useCache false to reload locations that are already cached
+   */
+  public void warmUp(final boolean useCache) {
+    if (!isWarming.compareAndSet(false, true)) {
+      return;
+    }
+    final long startTime = System.currentTimeMillis();
+    final AtomicInteger pending = new AtomicInteger(connections.size() * tableNames.size());
+    final AtomicInteger regions = new AtomicInteger(0);
+    final AtomicInteger failures = new AtomicInteger(0);
+
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    for (int i = 0; i < connections.size(); i++) {
+      final HConnection connection = connections.get(i);
+      final String cluster = i == 0 ? "primary" : "failover " + i;
+      for (final TableName tableName : tableNames) {
+        tasks.add(new Runnable() {
+          public void run() {
+            try {
+              List<HRegionLocation> locations = connection.locateRegions(tableName, useCache, false);
+              regions.addAndGet(locations.size());
+            } catch (Exception e) {
+              failures.incrementAndGet();
+              LOG.warn("Unable to load region locations of " + tableName + " on " + cluster, e);
+            } finally {
+              if (pending.decrementAndGet() == 0) {
+                isWarming.set(false);
+                String message = "Loaded " + regions.get() + " region locations of " +
+                    tableNames.size() + " tables on " + connections.size() + " clusters in " +
+                    (System.currentTimeMillis() - startTime) + " ms, " + failures.get() + " failed";
+                if (useCache) {
+                  LOG.info(message);
+                } else if (LOG.isDebugEnabled()) {
+                  LOG.debug(message);
+                }
+              }
+            }
+          }
+        });
+      }
+    }
+    if (tasks.isEmpty()) {
+      isWarming.set(false);
+      return;
+    }
+    for (Runnable task : tasks) {
+      scheduler.getExecutor().execute(task);
+    }
+  }
+
+  public void stop() {
+    if (periodicRefresh != null) {
+      periodicRefresh.cancel(false);
+    }
+  }
+}
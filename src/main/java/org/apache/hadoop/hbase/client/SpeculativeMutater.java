@@ -1,14 +1,20 @@
 package org.apache.hadoop.hbase.client;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -16,84 +22,226 @@ import org.apache.commons.logging.LogFactory;
 public class SpeculativeMutater {
   static final Log LOG = LogFactory.getLog(SpeculativeMutater.class);
 
-  static ExecutorService exe = Executors.newFixedThreadPool(200);
-  
-  public static Boolean mutate(final long waitToSendFailover, 
-      final long waitToSendFailoverWithException, 
-      final HBaseTableFunction<Void> function, 
+  /**
+   * Told once a failover has acknowledged the mutation and the primary's
+   * own attempt at it has finished, or was never made because its circuit
+   * is open.  Runs on a worker of the pool, possibly after the mutation
+   * returned.
+   */
+  public interface FailoverListener {
+    void onFailoverAcknowledged(boolean isPrimarySucceeded);
+  }
+
+  public static Boolean mutate(final HedgeDelay hedgeDelay,
+      final long waitToSendFailoverWithException,
+      final HBaseTableFunction<Void> function,
+      final HTableInterface primaryTable,
+      final Collection<HTableInterface> failoverTables,
+      final CircuitBreaker circuitBreaker,
+      final HedgingBudget hedgingBudget,
+      final HedgingScheduler scheduler) {
+    return mutate(hedgeDelay, waitToSendFailoverWithException, function, primaryTable,
+        failoverTables, circuitBreaker, hedgingBudget, scheduler, null, null);
+  }
+
+  /**
+   * Like {@link SpeculativeRequester}, a primary acknowledging within the
+   * hedge delay only costs the pooled {@link PrimaryCall}.
+   *
+   * @param answeredBy if not null, set to the failover table whose mutation
+   * succeeded first when the result is false
+   * @param failoverListener if not null, told when a failover acknowledged
+   * the mutation, see {@link FailoverListener}
+   */
+  public static Boolean mutate(final HedgeDelay hedgeDelay,
+      final long waitToSendFailoverWithException,
+      final HBaseTableFunction<Void> function,
       final HTableInterface primaryTable,
       final Collection<HTableInterface> failoverTables,
-      final AtomicLong lastPrimaryFail,
-      final int waitTimeFromLastPrimaryFail) {
-    ExecutorCompletionService<Boolean> exeS = new ExecutorCompletionService<Boolean>(exe);
-    
-    ArrayList<Callable<Boolean>> callables = new ArrayList<Callable<Boolean>>();
-    
-    final AtomicBoolean isPrimarySuccess = new AtomicBoolean(false);
+      final CircuitBreaker circuitBreaker,
+      final HedgingBudget hedgingBudget,
+      final HedgingScheduler scheduler,
+      final AtomicReference<HTableInterface> answeredBy,
+      final FailoverListener failoverListener) {
     final long startTime = System.currentTimeMillis();
-    final long lastPrimaryFinalFail = lastPrimaryFail.get();
-    
-    if (System.currentTimeMillis() - lastPrimaryFinalFail > 5000) {
-      callables.add(new Callable<Boolean>() {
-        public Boolean call() throws Exception {
-          try {
-            LOG.info(" --- CallingPrimary.1:" + isPrimarySuccess.get() + ", " + (System.currentTimeMillis() - startTime));
-            function.call(primaryTable);
-            LOG.info(" --- CallingPrimary.2:" + isPrimarySuccess.get() + ", " + (System.currentTimeMillis() - startTime));
-            isPrimarySuccess.set(true);
-            return true; 
-          } catch (java.io.InterruptedIOException e) {
-            Thread.currentThread().interrupt();
-          } catch (Exception e) {
-            lastPrimaryFail.set(System.currentTimeMillis());
-            Thread.currentThread().interrupt();
-          }
-          return null;
-        }
-      });
+    if (!circuitBreaker.allowRequest()) {
+      return mutateHedged(hedgeDelay, waitToSendFailoverWithException, function,
+          failoverTables, hedgingBudget, scheduler, answeredBy, failoverListener, null, startTime);
     }
-    
+    hedgingBudget.recordPrimaryRequest();
+    PrimaryCall<Void> primary = PrimaryCall.start(function, primaryTable, circuitBreaker,
+        hedgeDelay, startTime, scheduler.getExecutor());
+    try {
+      if (primary.await(hedgeDelay.getRequestDelay()) && primary.isSucceeded()) {
+        return true;
+      }
+      return mutateHedged(hedgeDelay, waitToSendFailoverWithException, function,
+          failoverTables, hedgingBudget, scheduler, answeredBy, failoverListener, primary,
+          startTime);
+    } finally {
+      primary.release();
+    }
+  }
 
-    for (final HTableInterface failoverTable : failoverTables) {
-      callables.add(new Callable<Boolean>() {
+  /**
+   * @param primary the primary's call, late or failed, or null if the
+   * primary's circuit is open
+   */
+  private static Boolean mutateHedged(final HedgeDelay hedgeDelay,
+      final long waitToSendFailoverWithException,
+      final HBaseTableFunction<Void> function,
+      final Collection<HTableInterface> failoverTables,
+      final HedgingBudget hedgingBudget,
+      final HedgingScheduler scheduler,
+      final AtomicReference<HTableInterface> answeredBy,
+      final FailoverListener failoverListener,
+      final PrimaryCall<Void> primary,
+      final long startTime) {
+    final BlockingQueue<Future<Boolean>> completed = new LinkedBlockingQueue<Future<Boolean>>();
+    final ExecutorCompletionService<Boolean> exeS =
+        new ExecutorCompletionService<Boolean>(scheduler.getExecutor(), completed);
 
-        public Boolean call() throws Exception {
-          long waitToRequest = (System.currentTimeMillis() - lastPrimaryFinalFail > 5000)?
-              waitToSendFailover - (System.currentTimeMillis() - startTime): waitToSendFailoverWithException - (System.currentTimeMillis() - startTime);
+    final AtomicBoolean isFailoverRequested = new AtomicBoolean(false);
+    final Queue<Future<Boolean>> failoverFutures = new ConcurrentLinkedQueue<Future<Boolean>>();
+    final boolean isPrimaryHealthy = primary != null;
+    // The failover tasks and the budget timer can run after this returns, when
+    // the pooled primary call may already serve the next request of the
+    // thread, so they read the primary's outcome from here rather than from it.
+    final AtomicBoolean isPrimarySucceeded = new AtomicBoolean(false);
 
-          LOG.info(" --- waitToRequest:" + waitToRequest + "," + (System.currentTimeMillis() - lastPrimaryFinalFail) +
-                  "," + (waitToSendFailover - (System.currentTimeMillis() - startTime)) +
-                  "," + (waitToSendFailoverWithException - (System.currentTimeMillis() - startTime)));
-              
-          if (waitToRequest > 0) {
-            Thread.sleep(waitToRequest);
-          }
-          LOG.info(" --- isPrimarySuccess.get():" + isPrimarySuccess.get());
-          if (isPrimarySuccess.get() == false) {
-            LOG.info(" --- CallingFailOver.1:" + isPrimarySuccess.get() + ", " + (System.currentTimeMillis() - startTime));
-            function.call(failoverTable);
-            LOG.info(" --- CallingFailOver.2:" + isPrimarySuccess.get() + ", " + (System.currentTimeMillis() - startTime));
+    // The listener waits for the first failover acknowledgement and for the
+    // primary's own attempt, whichever comes last.
+    final AtomicInteger untilFailoverListener = new AtomicInteger(isPrimaryHealthy ? 2 : 1);
+    final Runnable notifyFailoverListener = new Runnable() {
+      public void run() {
+        if (failoverListener == null || untilFailoverListener.decrementAndGet() != 0) {
+          return;
+        }
+        try {
+          failoverListener.onFailoverAcknowledged(isPrimarySucceeded.get());
+        } catch (RuntimeException e) {
+          LOG.error("Failover listener failed", e);
+        }
+      }
+    };
+    final AtomicBoolean isFailoverAcknowledged = new AtomicBoolean(false);
+
+    // Submits the failover mutations once, either when the delay expires or
+    // as soon as the primary fails, whichever happens first.
+    final Runnable mutateFailover = new Runnable() {
+      public void run() {
+        if (isPrimarySucceeded.get() || !isFailoverRequested.compareAndSet(false, true)) {
+          return;
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(" --- CallingFailOver:" + (System.currentTimeMillis() - startTime));
+        }
+        for (final HTableInterface failoverTable : failoverTables) {
+          failoverFutures.add(exeS.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+              if (isPrimarySucceeded.get()) {
+                return null;
+              }
+              function.call(failoverTable);
+              if (answeredBy != null) {
+                answeredBy.compareAndSet(null, failoverTable);
+              }
+              if (isFailoverAcknowledged.compareAndSet(false, true)) {
+                notifyFailoverListener.run();
+              }
+              return false;
+            }
+          }));
+        }
+      }
+    };
+
+    int pending = failoverTables.size();
+
+    final AtomicReference<ScheduledFuture<?>> hedge = new AtomicReference<ScheduledFuture<?>>();
+
+    // Hedges when the delay expires if the budget allows it, otherwise gives
+    // the primary until the budget deadline.
+    final Runnable hedgeFailover = new Runnable() {
+      public void run() {
+        if (isPrimarySucceeded.get() || isFailoverRequested.get()) {
+          return;
+        }
+        if (hedgingBudget.tryHedge()) {
+          mutateFailover.run();
+          return;
+        }
+        hedge.set(scheduler.schedule(new Runnable() {
+          public void run() {
+            if (!isPrimarySucceeded.get() && !isFailoverRequested.get()) {
+              hedgingBudget.recordHedgeAfterDeadline();
+              mutateFailover.run();
+            }
           }
+        }, Math.max(0, hedgingBudget.getDeadline() - (System.currentTimeMillis() - startTime))));
+      }
+    };
 
-          return false;
+    if (isPrimaryHealthy) {
+      // The primary's outcome joins the failovers', and a failed primary
+      // mutates the failovers right away.  Otherwise the hedge delay has
+      // already expired.
+      pending++;
+      primary.whenDone(new FutureTask<Boolean>(new Callable<Boolean>() {
+        public Boolean call() throws Exception {
+          if (primary.isSucceeded()) {
+            isPrimarySucceeded.set(true);
+            notifyFailoverListener.run();
+            return true;
+          }
+          mutateFailover.run();
+          notifyFailoverListener.run();
+          return null;
+        }
+      }) {
+        @Override
+        protected void done() {
+          completed.add(this);
         }
       });
+      hedgeFailover.run();
+    } else if (waitToSendFailoverWithException > 0) {
+      hedge.set(scheduler.schedule(mutateFailover, waitToSendFailoverWithException));
+    } else {
+      mutateFailover.run();
     }
-    try {
 
-      for (Callable<Boolean> call: callables) {
-        exeS.submit(call);
+    Boolean result = null;
+    try {
+      while (pending > 0 && result == null) {
+        try {
+          result = exeS.take().get();
+        } catch (ExecutionException e) {
+          LOG.error(e.getCause());
+        } catch (CancellationException e) {
+          // cancelled loser
+        }
+        pending--;
       }
-      Boolean result = exeS.take().get();
-
-      return result;
     } catch (InterruptedException e) {
-      e.printStackTrace();
-      LOG.error(e);
-    } catch (ExecutionException e) {
-      e.printStackTrace();
+      Thread.currentThread().interrupt();
       LOG.error(e);
-    }    
-    return null;
+    } finally {
+      ScheduledFuture<?> pendingHedge = hedge.get();
+      if (pendingHedge != null) {
+        pendingHedge.cancel(false);
+      }
+      // Once the primary has the mutation the failover writes are only extra
+      // load, so abort them.  A losing primary write is never interrupted: it
+      // is what brings the primary back in line with the failover.
+      if (Boolean.TRUE.equals(result)) {
+        for (Future<Boolean> future : failoverFutures) {
+          if (!future.isDone()) {
+            future.cancel(true);
+          }
+        }
+      }
+    }
+    return result;
   }
 }
@@ -2,13 +2,22 @@ package org.apache.hadoop.hbase.client;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -17,115 +26,416 @@ public class SpeculativeRequester<T extends Object> {
 
   long waitTimeBeforeRequestingFailover;
   long waitTimeBeforeAcceptingResults;
-  AtomicLong lastPrimaryFail;
-  long waitTimeFromLastPrimaryFail;
-  
+  CircuitBreaker circuitBreaker;
+  HedgeDelay hedgeDelay;
+  HedgingBudget hedgingBudget;
+  HedgingScheduler scheduler;
+  FailoverSelector failoverSelector;
+
   static final Log LOG = LogFactory.getLog(SpeculativeRequester.class);
 
-  static ExecutorService exe = Executors.newFixedThreadPool(200);
-  
-  public SpeculativeRequester(long waitTimeBeforeRequestingFailover,
-      long waitTimeBeforeAcceptingResults,
-      AtomicLong lastPrimaryFail,
-      long waitTimeFromLastPrimaryFail
+  public SpeculativeRequester(HedgeDelay hedgeDelay,
+      CircuitBreaker circuitBreaker,
+      HedgingBudget hedgingBudget,
+      HedgingScheduler scheduler
+    ) {
+    this(hedgeDelay, circuitBreaker, hedgingBudget, scheduler, null);
+  }
+
+  /**
+   * @param failoverSelector ranks the failovers and decides whether to hedge
+   * to all of them at once or to the best one first, may be null
+   */
+  public SpeculativeRequester(HedgeDelay hedgeDelay,
+      CircuitBreaker circuitBreaker,
+      HedgingBudget hedgingBudget,
+      HedgingScheduler scheduler,
+      FailoverSelector failoverSelector
     ) {
-    this.waitTimeBeforeRequestingFailover = waitTimeBeforeRequestingFailover;
-    this.waitTimeBeforeAcceptingResults = waitTimeBeforeAcceptingResults;
-    this.lastPrimaryFail = lastPrimaryFail;
-    this.waitTimeFromLastPrimaryFail = waitTimeFromLastPrimaryFail;
+    this.hedgeDelay = hedgeDelay;
+    this.waitTimeBeforeRequestingFailover = hedgeDelay.getRequestDelay();
+    this.waitTimeBeforeAcceptingResults = hedgeDelay.getAcceptDelay();
+    this.circuitBreaker = circuitBreaker;
+    this.hedgingBudget = hedgingBudget;
+    this.scheduler = scheduler;
+    this.failoverSelector = failoverSelector;
   }
 
-  public ResultWrapper<T> request(final HBaseTableFunction<T> function, 
+  public ResultWrapper<T> request(final HBaseTableFunction<T> function,
       final HTableInterface primaryTable,
       final Collection<HTableInterface> failoverTables) {
-    
-    ExecutorCompletionService<ResultWrapper<T>> exeS = new ExecutorCompletionService<ResultWrapper<T>>(exe);
-    
-    final AtomicBoolean isPrimarySuccess = new AtomicBoolean(false);
+    return request(function, primaryTable, failoverTables, null);
+  }
+
+  /**
+   * Runs the function against the primary and, once the hedge delay expires
+   * or the primary fails, against the failovers.  As soon as a result is
+   * accepted the losing calls are cancelled, and any result a loser still
+   * produces is handed to the releaser so it can free what it holds.
+   *
+   * A primary answering within the hedge delay only costs the pooled
+   * {@link PrimaryCall} and the result wrapper; the hedging state is only
+   * built once the primary is late or failed.
+   */
+  public ResultWrapper<T> request(final HBaseTableFunction<T> function,
+      final HTableInterface primaryTable,
+      final Collection<HTableInterface> failoverTables,
+      final ResultReleaser<T> releaser) {
     final long startTime = System.currentTimeMillis();
+    if (!circuitBreaker.allowRequest()) {
+      return requestHedged(function, failoverTables, releaser, null, startTime);
+    }
+    hedgingBudget.recordPrimaryRequest();
+    PrimaryCall<T> primary = PrimaryCall.start(function, primaryTable, circuitBreaker,
+        hedgeDelay, startTime, scheduler.getExecutor());
+    if (primary.await(waitTimeBeforeRequestingFailover) && primary.isSucceeded()) {
+      ResultWrapper<T> result = new ResultWrapper<T>(true, primary.getResult());
+      primary.release();
+      return result;
+    }
+    try {
+      return requestHedged(function, failoverTables, releaser, primary, startTime);
+    } finally {
+      primary.release();
+    }
+  }
 
-    ArrayList<Callable<ResultWrapper<T>>> callables = new ArrayList<Callable<ResultWrapper<T>>>();
+  /**
+   * @param primary the primary's call, late or failed, or null if the
+   * primary's circuit is open
+   */
+  private ResultWrapper<T> requestHedged(final HBaseTableFunction<T> function,
+      final Collection<HTableInterface> failoverTables,
+      final ResultReleaser<T> releaser,
+      final PrimaryCall<T> primary,
+      final long startTime) {
 
-    if (System.currentTimeMillis() - lastPrimaryFail.get() > waitTimeFromLastPrimaryFail) {
-      callables.add(new Callable<ResultWrapper<T>>() {
-        public ResultWrapper<T> call() throws Exception {
-          try {
-            T t = function.call(primaryTable);
-            isPrimarySuccess.set(true);
-            return new ResultWrapper(true, t);
-          } catch (java.io.InterruptedIOException e) {
-            Thread.currentThread().interrupt();
-          } catch (Exception e) {
-            lastPrimaryFail.set(System.currentTimeMillis());
-            Thread.currentThread().interrupt();
+    final BlockingQueue<Future<ResultWrapper<T>>> completed =
+        new LinkedBlockingQueue<Future<ResultWrapper<T>>>();
+    final ExecutorCompletionService<ResultWrapper<T>> exeS =
+        new ExecutorCompletionService<ResultWrapper<T>>(scheduler.getExecutor(), completed);
+    final Queue<Future<ResultWrapper<T>>> futures = new ConcurrentLinkedQueue<Future<ResultWrapper<T>>>();
+    final Queue<ResultWrapper<T>> produced = releaser == null ? null : new ConcurrentLinkedQueue<ResultWrapper<T>>();
+
+    final AtomicBoolean isFailoverRequested = new AtomicBoolean(false);
+    final AtomicBoolean isFinished = new AtomicBoolean(false);
+    final AtomicReference<ResultWrapper<T>> winner = new AtomicReference<ResultWrapper<T>>();
+    final boolean isPrimaryHealthy = primary != null;
+
+    final FailoverSelector selector = failoverSelector;
+    final boolean isSelectingBest = selector != null && selector.isSelectingBest();
+    final Queue<ScheduledFuture<?>> escalations = new ConcurrentLinkedQueue<ScheduledFuture<?>>();
+
+    // The failovers grouped in tiers, nearest first.  A tier is called once
+    // the tier before it has failed or missed the tier's request delay.
+    // Within a tier either all failovers are called at once or, when only
+    // the best one is called, the next one is called once the previous one
+    // fails or has not answered within the hedge delay.
+    class Failovers {
+      final List<List<HTableInterface>> tiers;
+      final AtomicInteger nextTier = new AtomicInteger(0);
+      final AtomicInteger[] nextMembers;
+      final AtomicInteger[] unfailedMembers;
+
+      Failovers(List<List<HTableInterface>> tiers) {
+        this.tiers = tiers;
+        this.nextMembers = new AtomicInteger[tiers.size()];
+        this.unfailedMembers = new AtomicInteger[tiers.size()];
+        for (int i = 0; i < tiers.size(); i++) {
+          nextMembers[i] = new AtomicInteger(0);
+          unfailedMembers[i] = new AtomicInteger(tiers.get(i).size());
+        }
+      }
+
+      void requestTier(final int tier) {
+        if (tier >= tiers.size() || isFinished.get() || !nextTier.compareAndSet(tier, tier + 1)) {
+          return;
+        }
+        if (isSelectingBest) {
+          requestMember(tier, 0);
+        } else {
+          for (int i = 0; i < tiers.get(tier).size(); i++) {
+            submit(tier, i);
           }
-          return null;
         }
-      });
-    }
+        if (tier + 1 < tiers.size()) {
+          escalations.add(scheduler.schedule(new Runnable() {
+            public void run() {
+              requestTier(tier + 1);
+            }
+          }, selector.getRequestDelay(tierOf(tier + 1), waitTimeBeforeRequestingFailover)));
+        }
+      }
+
+      void requestMember(final int tier, final int member) {
+        if (member >= tiers.get(tier).size() || isFinished.get() ||
+            !nextMembers[tier].compareAndSet(member, member + 1)) {
+          return;
+        }
+        submit(tier, member);
+        if (member + 1 < tiers.get(tier).size()) {
+          escalations.add(scheduler.schedule(new Runnable() {
+            public void run() {
+              requestMember(tier, member + 1);
+            }
+          }, waitTimeBeforeRequestingFailover));
+        }
+      }
 
-    for (final HTableInterface failoverTable : failoverTables) {
-      callables.add(new Callable<ResultWrapper<T>>() {
+      int tierOf(int tier) {
+        return selector == null ? 1 : selector.tierOf(tiers.get(tier).get(0));
+      }
 
-        public ResultWrapper<T> call() throws Exception {
-          
-          long waitToRequest = (System.currentTimeMillis() - lastPrimaryFail.get() > waitTimeFromLastPrimaryFail)?
-              waitTimeBeforeRequestingFailover - (System.currentTimeMillis() - startTime): 0;
-              
-          
-          if (waitToRequest > 0) {
-            Thread.sleep(waitToRequest);
-          }
-          if (isPrimarySuccess.get() == false) {
-            T t = function.call(failoverTable);
-
-            long waitToAccept = (System.currentTimeMillis() - lastPrimaryFail.get() > waitTimeFromLastPrimaryFail)?
-                waitTimeBeforeAcceptingResults - (System.currentTimeMillis() - startTime): 0;
-            if (isPrimarySuccess.get() == false) {
-              if (waitToAccept > 0) {
-                Thread.sleep(waitToAccept);
+      void submit(final int tier, final int member) {
+        final HTableInterface failoverTable = tiers.get(tier).get(member);
+        final int tierNumber = tierOf(tier);
+        futures.add(exeS.submit(new Callable<ResultWrapper<T>>() {
+          public ResultWrapper<T> call() throws Exception {
+            if (isFinished.get()) {
+              return null;
+            }
+            long callStartTime = System.currentTimeMillis();
+            try {
+              T t = function.call(failoverTable);
+              if (selector != null) {
+                selector.recordSuccess(failoverTable, System.currentTimeMillis() - callStartTime);
+              }
+              return produce(new ResultWrapper<T>(false, t, tierNumber), produced, isFinished, winner, releaser);
+            } catch (java.io.InterruptedIOException e) {
+              // cancelled because another call won, so it was at least this slow
+              if (selector != null) {
+                selector.recordLoss(failoverTable, System.currentTimeMillis() - callStartTime);
               }
+              Thread.currentThread().interrupt();
+              throw e;
+            } catch (Exception e) {
+              if (selector != null) {
+                if (isFinished.get()) {
+                  selector.recordLoss(failoverTable, System.currentTimeMillis() - callStartTime);
+                } else {
+                  selector.recordFailure(failoverTable);
+                }
+              }
+              if (isSelectingBest) {
+                requestMember(tier, member + 1);
+              }
+              if (unfailedMembers[tier].decrementAndGet() == 0) {
+                requestTier(tier + 1);
+              }
+              throw e;
             }
+          }
+        }));
+      }
+    }
+
+    // Submits the failover calls once, either when the hedge delay expires or
+    // as soon as the primary fails, whichever happens first.
+    final Runnable requestFailover = new Runnable() {
+      public void run() {
+        if (isSucceeded(primary) || isFinished.get() ||
+            !isFailoverRequested.compareAndSet(false, true)) {
+          return;
+        }
+        if (selector == null) {
+          List<List<HTableInterface>> tiers = new ArrayList<List<HTableInterface>>(1);
+          tiers.add(new ArrayList<HTableInterface>(failoverTables));
+          new Failovers(tiers).requestTier(0);
+        } else {
+          new Failovers(selector.tiers(failoverTables)).requestTier(0);
+        }
+      }
+    };
+
+    int pending = failoverTables.size();
+
+    final AtomicReference<ScheduledFuture<?>> hedge = new AtomicReference<ScheduledFuture<?>>();
 
-            return new ResultWrapper(false, t);
-          } else {
-            throw new RuntimeException("Not needed");
+    // Hedges when the delay expires if the budget allows it, otherwise gives
+    // the primary until the budget deadline.
+    final Runnable hedgeFailover = new Runnable() {
+      public void run() {
+        if (isSucceeded(primary) || isFinished.get() || isFailoverRequested.get()) {
+          return;
+        }
+        if (hedgingBudget.tryHedge()) {
+          requestFailover.run();
+          return;
+        }
+        hedge.set(scheduler.schedule(new Runnable() {
+          public void run() {
+            if (!isSucceeded(primary) && !isFinished.get() && !isFailoverRequested.get()) {
+              hedgingBudget.recordHedgeAfterDeadline();
+              requestFailover.run();
+            }
           }
+        }, Math.max(0, hedgingBudget.getDeadline() - (System.currentTimeMillis() - startTime))));
+      }
+    };
 
+    if (isPrimaryHealthy) {
+      // The primary's outcome joins the other results, and a failed primary
+      // calls the failovers right away.  Otherwise the hedge delay has
+      // already expired.
+      pending++;
+      primary.whenDone(new FutureTask<ResultWrapper<T>>(new Callable<ResultWrapper<T>>() {
+        public ResultWrapper<T> call() throws Exception {
+          if (primary.isSucceeded()) {
+            return produce(new ResultWrapper<T>(true, primary.getResult()),
+                produced, isFinished, winner, releaser);
+          }
+          requestFailover.run();
+          return null;
+        }
+      }) {
+        @Override
+        protected void done() {
+          completed.add(this);
         }
       });
+      hedgeFailover.run();
+    } else {
+      requestFailover.run();
     }
+
+    ResultWrapper<T> result = null;
     try {
+      while (pending > 0 && result == null) {
+        result = getQuietly(exeS.take());
+        pending--;
 
-      //ResultWrapper<T> t = exe.invokeAny(callables);
-      for (Callable<ResultWrapper<T>> call: callables) {
-        exeS.submit(call);
+        // A failover answered first; give the primary, and the failovers of
+        // nearer tiers, until the accept deadline of its tier.
+        while (result != null && result.tier > 0 && pending > 0 &&
+            (isPrimaryHealthy || result.tier > 1)) {
+          long acceptDelay = selector == null ? waitTimeBeforeAcceptingResults :
+              selector.getAcceptDelay(result.tier, waitTimeBeforeAcceptingResults);
+          long waitToAccept = acceptDelay - (System.currentTimeMillis() - startTime);
+          Future<ResultWrapper<T>> next = waitToAccept > 0 ?
+              exeS.poll(waitToAccept, TimeUnit.MILLISECONDS) : null;
+          if (next == null) {
+            break;
+          }
+          pending--;
+          ResultWrapper<T> nextResult = getQuietly(next);
+          if (nextResult != null && nextResult.tier < result.tier) {
+            result = nextResult;
+          }
+        }
       }
-      
-      ResultWrapper<T> result = exeS.take().get();
-      //exe.shutdownNow();
-      
-      return result; 
     } catch (InterruptedException e) {
-      e.printStackTrace();
+      Thread.currentThread().interrupt();
       LOG.error(e);
+    } finally {
+      winner.set(result);
+      isFinished.set(true);
+      ScheduledFuture<?> pendingHedge = hedge.get();
+      if (pendingHedge != null) {
+        pendingHedge.cancel(false);
+      }
+      for (ScheduledFuture<?> escalation : escalations) {
+        escalation.cancel(false);
+      }
+      if (primary != null) {
+        primary.cancel();
+      }
+      for (Future<ResultWrapper<T>> future : futures) {
+        if (!future.isDone()) {
+          future.cancel(true);
+        }
+      }
+      if (produced != null) {
+        for (ResultWrapper<T> loser : produced) {
+          release(loser, winner, releaser);
+        }
+      }
+    }
+
+    // The primary lost, so its latency is at least this long; recording it
+    // keeps an adaptive delay from drifting down while the primary is slow.
+    if (result != null && !result.isPrimary && primary != null && !primary.isSucceeded()) {
+      hedgeDelay.recordPrimaryLatency(System.currentTimeMillis() - startTime);
+    }
+    return result;
+
+  }
+
+  private static boolean isSucceeded(PrimaryCall<?> primary) {
+    return primary != null && primary.isSucceeded();
+  }
+
+  private static <T> ResultWrapper<T> produce(ResultWrapper<T> result,
+      Queue<ResultWrapper<T>> produced,
+      AtomicBoolean isFinished,
+      AtomicReference<ResultWrapper<T>> winner,
+      ResultReleaser<T> releaser) {
+    if (produced != null) {
+      produced.add(result);
+      if (isFinished.get()) {
+        release(result, winner, releaser);
+      }
+    }
+    return result;
+  }
+
+  private static <T> void release(ResultWrapper<T> result,
+      AtomicReference<ResultWrapper<T>> winner,
+      ResultReleaser<T> releaser) {
+    if (result != winner.get() && result.markReleased()) {
+      try {
+        releaser.release(result.t);
+      } catch (Exception e) {
+        LOG.warn("Exception while releasing a losing result", e);
+      }
+    }
+  }
+
+  private static <T> ResultWrapper<T> getQuietly(Future<ResultWrapper<T>> future)
+      throws InterruptedException {
+    try {
+      return future.get();
     } catch (ExecutionException e) {
-      e.printStackTrace();
-      LOG.error(e);
+      LOG.error(e.getCause());
+      return null;
+    } catch (CancellationException e) {
+      return null;
     }
-    return null;
-    
   }
-  
+
+  /**
+   * Frees what a losing result holds, for example closes a scanner so it does
+   * not keep a lease on the region server.
+   */
+  public interface ResultReleaser<T> {
+    public void release(T t) throws Exception;
+  }
+
   public static class ResultWrapper<T> {
     public Boolean isPrimary;
     public T t;
-    
+    /** 0 for the primary, else the tier of the failover that answered */
+    int tier;
+
+    private boolean isReleased = false;
+
     public ResultWrapper(Boolean isPrimary, T t) {
+      this(isPrimary, t, 0);
+    }
+
+    ResultWrapper(Boolean isPrimary, T t, int tier) {
       this.isPrimary = isPrimary;
       this.t = t;
+      this.tier = tier;
+    }
+
+    synchronized boolean markReleased() {
+      if (isReleased) {
+        return false;
+      }
+      isReleased = true;
+      return true;
     }
   }
-  
- 
-}
\ No newline at end of file
+
+
+}
@@ -0,0 +1,50 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes a CSV line of the stats of all tables of a connection for every
+ * interval, in the columns of {@link HTableStats#printCSVHeaders}, and
+ * optionally logs the stats of each table.  It runs on the roll of the
+ * {@link ConnectionStats}, so a connection needs no thread of its own to
+ * report however many handles it has.
+ */
+public class StatsReporter implements ConnectionStats.Listener {
+
+  static final Log LOG = LogFactory.getLog(StatsReporter.class);
+
+  final Writer writer;
+  final boolean isLogging;
+
+  /**
+   * @param writer where the CSV lines go, or null for none
+   * @param isLogging whether to also log the stats of each table
+   */
+  public StatsReporter(Writer writer, boolean isLogging) throws IOException {
+    this.writer = writer;
+    this.isLogging = isLogging;
+    if (writer != null) {
+      HTableStats.printCSVHeaders(writer);
+      writer.flush();
+    }
+  }
+
+  @Override
+  public void onInterval(ConnectionStats stats) {
+    if (isLogging) {
+      stats.printPrettyStats();
+    }
+    if (writer != null) {
+      try {
+        writer.append(stats.formatCSVStats()).append(HTableStats.newLine);
+        writer.flush();
+      } catch (IOException e) {
+        LOG.warn("Could not write the stats", e);
+      }
+    }
+  }
+}
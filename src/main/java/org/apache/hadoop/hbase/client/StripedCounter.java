@@ -0,0 +1,49 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that spreads its updates over cells a cache line apart, like
+ * Java 8's LongAdder.  Each thread adds to the cell its id hashes to, so
+ * threads seldom contend on a cell, and reading sums the cells without a
+ * lock.  A sum taken while threads add is not a snapshot of one instant.
+ */
+public class StripedCounter {
+
+  /** longs per 64-byte cache line */
+  static final int PADDING = 8;
+  static final int STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+  final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  static int stripesFor(int processors) {
+    int stripes = Integer.highestOneBit(Math.max(1, processors - 1)) << 1;
+    return Math.min(stripes, 64);
+  }
+
+  private static int cellOf(Thread thread) {
+    long hash = thread.getId() * 0x9E3779B97F4A7C15L;
+    return ((int)(hash >>> 32) & (STRIPES - 1)) * PADDING;
+  }
+
+  public void add(long x) {
+    cells.addAndGet(cellOf(Thread.currentThread()), x);
+  }
+
+  public void increment() {
+    add(1);
+  }
+
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < cells.length(); i += PADDING) {
+      sum += cells.get(i);
+    }
+    return sum;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(sum());
+  }
+}
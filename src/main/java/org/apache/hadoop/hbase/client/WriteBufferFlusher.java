@@ -0,0 +1,251 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Flushes a {@link MutationBuffer} in the background.
+ *
+ * Every stripe of the buffer is a lane that flushes sequentially, which keeps
+ * the mutations of a row in order, while different lanes flush in parallel on
+ * a small pool.  Lanes start once the buffer is over the flush size and on
+ * every flush interval.  Producers only block once the buffered and in-flight
+ * mutations together reach the memory limit.
+ *
+ * Failures of background flushes are reported by the next {@link #flush()}.
+ */
+public class WriteBufferFlusher {
+
+  static final Log LOG = LogFactory.getLog(WriteBufferFlusher.class);
+
+  final HTableMultiCluster table;
+  final MutationBuffer buffer;
+  final long memoryLimit;
+  final ThreadPoolExecutor executor;
+  final ScheduledFuture<?> periodicFlush;
+
+  final AtomicIntegerArray isLaneBusy;
+  final AtomicInteger busyLanes = new AtomicInteger(0);
+  final AtomicLong inFlightSize = new AtomicLong(0);
+  final Object progress = new Object();
+  final Queue<IOException> failures = new ConcurrentLinkedQueue<IOException>();
+
+  volatile long flushSize;
+
+  public WriteBufferFlusher(HTableMultiCluster table,
+                            MutationBuffer buffer,
+                            long flushSize,
+                            long flushInterval,
+                            long memoryLimit,
+                            int threads,
+                            HedgingScheduler scheduler) {
+    this.table = table;
+    this.buffer = buffer;
+    this.flushSize = flushSize;
+    this.memoryLimit = memoryLimit;
+    this.isLaneBusy = new AtomicIntegerArray(buffer.getStripeCount());
+
+    this.executor = new ThreadPoolExecutor(threads, threads,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        Threads.newDaemonThreadFactory("multi-cluster-flush"));
+    this.executor.allowCoreThreadTimeOut(true);
+
+    if (flushInterval > 0) {
+      this.periodicFlush = scheduler.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          flushAll();
+        }
+      }, flushInterval);
+    } else {
+      this.periodicFlush = null;
+    }
+  }
+
+  public void setFlushSize(long flushSize) {
+    this.flushSize = flushSize;
+    if (buffer.getSize() > flushSize) {
+      flushAll();
+    }
+  }
+
+  /**
+   * Buffers the mutation, blocking first while the memory limit is reached.
+   */
+  public void add(Mutation mutation) throws IOException {
+    waitForMemory();
+    if (buffer.add(mutation) > flushSize) {
+      flushAll();
+    }
+  }
+
+  /**
+   * Buffers the mutations, blocking first while the memory limit is reached.
+   */
+  public void add(List<? extends Mutation> mutations) throws IOException {
+    waitForMemory();
+    long size = 0;
+    for (Mutation mutation : mutations) {
+      size = buffer.add(mutation);
+    }
+    if (size > flushSize) {
+      flushAll();
+    }
+  }
+
+  /**
+   * Waits until everything buffered so far is written, then throws what the
+   * background flushes failed with since the last call.
+   */
+  public void flush() throws IOException {
+    try {
+      synchronized (progress) {
+        while (buffer.getSize() > 0 || busyLanes.get() > 0) {
+          flushAll();
+          progress.wait(100);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while flushing the write buffer");
+    }
+    throwFailures();
+  }
+
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      if (periodicFlush != null) {
+        periodicFlush.cancel(false);
+      }
+      executor.shutdown();
+    }
+  }
+
+  private void waitForMemory() throws IOException {
+    long limit = Math.max(memoryLimit, flushSize);
+    if (buffer.getSize() + inFlightSize.get() < limit) {
+      return;
+    }
+    try {
+      synchronized (progress) {
+        while (buffer.getSize() + inFlightSize.get() >= limit) {
+          flushAll();
+          progress.wait(100);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for write buffer memory");
+    }
+  }
+
+  void flushAll() {
+    for (int i = 0; i < buffer.getStripeCount(); i++) {
+      if (buffer.getStripeSize(i) > 0) {
+        startLane(i);
+      }
+    }
+  }
+
+  private void startLane(final int lane) {
+    if (!isLaneBusy.compareAndSet(lane, 0, 1)) {
+      return;
+    }
+    busyLanes.incrementAndGet();
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          drainLane(lane);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      isLaneBusy.set(lane, 0);
+      busyLanes.decrementAndGet();
+      LOG.warn("Write buffer flusher is shut down, lane " + lane + " was not flushed");
+    }
+  }
+
+  private void drainLane(int lane) {
+    try {
+      while (true) {
+        List<Mutation> mutations = buffer.drain(lane);
+        if (mutations.isEmpty()) {
+          break;
+        }
+        long size = 0;
+        for (Mutation mutation : mutations) {
+          size += mutation.heapSize();
+        }
+        inFlightSize.addAndGet(size);
+        try {
+          table.sendMutations(mutations);
+        } catch (IOException e) {
+          LOG.warn("Background flush of " + mutations.size() + " mutations failed", e);
+          failures.add(e);
+        } finally {
+          inFlightSize.addAndGet(-size);
+          signal();
+        }
+      }
+    } finally {
+      isLaneBusy.set(lane, 0);
+      busyLanes.decrementAndGet();
+      signal();
+    }
+    // A producer that added to the stripe after it was found empty could not
+    // start the lane while it was still busy
+    if (buffer.getStripeSize(lane) > 0) {
+      startLane(lane);
+    }
+  }
+
+  private void signal() {
+    synchronized (progress) {
+      progress.notifyAll();
+    }
+  }
+
+  private void throwFailures() throws IOException {
+    List<Throwable> exceptions = new ArrayList<Throwable>();
+    List<Row> failedActions = new ArrayList<Row>();
+    List<String> hostnames = new ArrayList<String>();
+    IOException other = null;
+
+    IOException failure;
+    while ((failure = failures.poll()) != null) {
+      if (failure instanceof RetriesExhaustedWithDetailsException) {
+        RetriesExhaustedWithDetailsException e = (RetriesExhaustedWithDetailsException)failure;
+        for (int i = 0; i < e.getNumExceptions(); i++) {
+          exceptions.add(e.getCause(i));
+          failedActions.add(e.getRow(i));
+          hostnames.add(e.getHostnamePort(i));
+        }
+      } else if (other == null) {
+        other = failure;
+      }
+    }
+    if (other != null) {
+      throw other;
+    }
+    if (!exceptions.isEmpty()) {
+      throw new RetriesExhaustedWithDetailsException(exceptions, failedActions, hostnames);
+    }
+  }
+}
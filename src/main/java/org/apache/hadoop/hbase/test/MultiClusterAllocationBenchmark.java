@@ -0,0 +1,140 @@
+package org.apache.hadoop.hbase.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Measures the bytes HTableMultiCluster allocates per single get and put,
+ * on every thread, against in-memory tables that answer at once.  What is
+ * left is the client's own overhead: the primary answers within the hedge
+ * delay, so no failover is ever called.
+ */
+public class MultiClusterAllocationBenchmark {
+
+  static final byte[] FAMILY = Bytes.toBytes("f");
+  static final byte[] QUALIFIER = Bytes.toBytes("q");
+  static final byte[] VALUE = Bytes.toBytes("value");
+
+  public static void main(String[] args) throws Exception {
+    int numberOfOps = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+    Configuration config = HBaseConfiguration.create();
+    TableName tableName = TableName.valueOf("allocation_benchmark");
+    HTableInterface primary = newInMemoryTable(tableName);
+    Collection<HTableInterface> failovers = new ArrayList<HTableInterface>();
+    failovers.add(newInMemoryTable(tableName));
+
+    HedgingScheduler scheduler = new HedgingScheduler(8);
+    HTableMultiCluster table = new HTableMultiCluster(config, primary, failovers, false,
+        100, 100, 100, 100, 100, 100, 100, 5000,
+        new HedgeDelays(config, 100, 100, 100, 100, 100, 100),
+        new RegionCircuitBreaker(null, tableName, RegionCircuitBreaker.KEY_BY_REGION,
+            3, 5000, scheduler, null),
+        new HedgingBudget(1f, 100, 1000),
+        scheduler, null);
+
+    // What calling the in-memory tables costs on their own is subtracted.
+    Get get = new Get(Bytes.toBytes("row"));
+    runGets(primary, get, numberOfOps);
+    runGets(table, get, numberOfOps);
+    long tableGet = runGets(primary, get, numberOfOps);
+    long multiClusterGet = runGets(table, get, numberOfOps);
+    System.out.println("get: " + (multiClusterGet - tableGet) / numberOfOps + " bytes/op");
+
+    runPuts(primary, numberOfOps);
+    runPuts(table, numberOfOps);
+    long tablePut = runPuts(primary, numberOfOps);
+    long multiClusterPut = runPuts(table, numberOfOps);
+    System.out.println("put: " + (multiClusterPut - tablePut) / numberOfOps + " bytes/op");
+
+    table.close();
+    scheduler.shutdown();
+  }
+
+  /**
+   * @return the bytes allocated by the gets
+   */
+  static long runGets(HTableInterface table, Get get, int numberOfOps) throws Exception {
+    long before = allocatedBytes();
+    for (int i = 0; i < numberOfOps; i++) {
+      table.get(get);
+    }
+    return allocatedBytes() - before;
+  }
+
+  /**
+   * The puts are built outside of the measurement, so only the bytes
+   * allocated by putting them are returned.
+   */
+  static long runPuts(HTableInterface table, int numberOfOps) throws Exception {
+    int batchSize = 10000;
+    Put[] puts = new Put[batchSize];
+    long allocated = 0;
+    for (int done = 0; done < numberOfOps; done += batchSize) {
+      for (int i = 0; i < batchSize; i++) {
+        puts[i] = new Put(Bytes.toBytes(i)).add(FAMILY, QUALIFIER, VALUE);
+      }
+      long before = allocatedBytes();
+      for (int i = 0; i < batchSize; i++) {
+        table.put(puts[i]);
+      }
+      allocated += allocatedBytes() - before;
+    }
+    return allocated;
+  }
+
+  /**
+   * @return the bytes every live thread allocated so far
+   */
+  static long allocatedBytes() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long total = 0;
+    for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if (allocated > 0) {
+        total += allocated;
+      }
+    }
+    return total;
+  }
+
+  static HTableInterface newInMemoryTable(final TableName tableName) {
+    final Result result = Result.create(new Cell[0]);
+    return (HTableInterface)Proxy.newProxyInstance(
+        HTableInterface.class.getClassLoader(),
+        new Class<?>[] { HTableInterface.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("get")) {
+              return result;
+            } else if (name.equals("getName")) {
+              return tableName;
+            } else if (name.equals("getTableName")) {
+              return tableName.getName();
+            }
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class) {
+              return false;
+            } else if (type == long.class) {
+              return 0L;
+            } else if (type == int.class) {
+              return 0;
+            }
+            return null;
+          }
+        });
+  }
+}
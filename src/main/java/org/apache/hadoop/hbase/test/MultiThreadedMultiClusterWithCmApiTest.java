@@ -117,25 +117,32 @@ public class MultiThreadedMultiClusterWithCmApiTest {
 
     config.set("hbase.client.retries.number", "1");
     config.set("hbase.client.pause", "1");
+    config.setLong(ConfigConst.HBASE_MULTI_CLUSTER_STATS_INTERVAL_CONFIG, 5000);
 
     final HConnection connection = HConnectionManagerMultiClusterWrapper.createConnection(config);
 
     LOG.info(" - Got HConnection: " + connection.getClass());
 
-    LOG.info("Getting HTable");
-
-    final AtomicInteger threadFinishCounter = new AtomicInteger(0);
-
-
     //Make sure output folder exist
     File outputFolder = new File(outputCsvFile);
     if (outputFolder.exists() == false) {
       outputFolder.mkdirs();
     }
 
-    for (int threadNum = 0; threadNum < numberOfThreads; threadNum++) {
+    // one reporter for the stats of every thread's table
+    BufferedWriter writer = new BufferedWriter(new FileWriter(new File(outputCsvFile + "/stats.csv")));
+    StatsReporter reporter = new StatsReporter(writer, false);
+    ConnectionStats stats = null;
+    if (connection instanceof HConnectionMultiCluster) {
+      stats = ((HConnectionMultiCluster) connection).getStats();
+      stats.addListener(reporter);
+    }
 
-      final BufferedWriter writer = new BufferedWriter(new FileWriter(new File(outputCsvFile + "/thread-" + threadNum + ".csv")));
+    LOG.info("Getting HTable");
+
+    final AtomicInteger threadFinishCounter = new AtomicInteger(0);
+
+    for (int threadNum = 0; threadNum < numberOfThreads; threadNum++) {
 
       final int threadFinalNum = threadNum;
 
@@ -145,8 +152,6 @@ public class MultiThreadedMultiClusterWithCmApiTest {
           try {
             Random r = new Random();
             HTableInterface table = connection.getTable(tableName);
-            HTableStats stats = ((HTableMultiCluster) table).getStats();
-            stats.printStats(writer, 5000);
 
             for (int i = 1; i <= numberOfPuts; i++) {
 
@@ -174,16 +179,10 @@ public class MultiThreadedMultiClusterWithCmApiTest {
                 writeToSystemOut(".", false);
               }
             }
-            stats.stopPrintingStats();
           } catch (Exception e) {
             e.printStackTrace();
           } finally {
             threadFinishCounter.incrementAndGet();
-            try {
-              writer.close();
-            } catch (IOException e) {
-              e.printStackTrace();
-            }
           }
 
         }
@@ -195,6 +194,11 @@ public class MultiThreadedMultiClusterWithCmApiTest {
       Thread.sleep(millisecondToWait * 10);
     }
 
+    if (stats != null) {
+      stats.removeListener(reporter);
+    }
+    writer.close();
+
     //admin.disableTable(TableName.valueOf(tableName));
     //admin.deleteTable(TableName.valueOf(tableName));
 
@@ -12,7 +12,6 @@ import org.apache.hadoop.hbase.util.Bytes;
 import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.FileWriter;
-import java.io.IOException;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -86,19 +85,27 @@ public class MultiThreadedMultiClusterWithCombinedFileTest {
 
     config.set("hbase.client.retries.number", "1");
     config.set("hbase.client.pause", "1");
+    config.setLong(ConfigConst.HBASE_MULTI_CLUSTER_STATS_INTERVAL_CONFIG, 5000);
 
     final HConnection connection = HConnectionManagerMultiClusterWrapper.createConnection(config);
 
     System.out.println(" - Got HConnection: " + connection.getClass());
 
+    // one reporter for the stats of every thread's tables
+    BufferedWriter writer = new BufferedWriter(new FileWriter(outputCsvFile + "/stats.csv"));
+    StatsReporter reporter = new StatsReporter(writer, false);
+    ConnectionStats stats = null;
+    if (connection instanceof HConnectionMultiCluster) {
+      stats = ((HConnectionMultiCluster) connection).getStats();
+      stats.addListener(reporter);
+    }
+
     System.out.println("Getting HTable");
 
     final AtomicInteger threadFinishCounter = new AtomicInteger(0);
 
     for (int threadNum = 0; threadNum < numberOfThreads; threadNum++) {
 
-      final BufferedWriter writer = new BufferedWriter(new FileWriter(outputCsvFile + "/thread-" + threadNum + ".csv"));
-
       final int threadFinalNum = threadNum;
 
       Thread t = new Thread(new Runnable() {
@@ -108,8 +115,6 @@ public class MultiThreadedMultiClusterWithCombinedFileTest {
             Random r = new Random();
             for (int i = 1; i <= numberOfPuts; i++) {
               HTableInterface table = connection.getTable(tableName);
-              HTableStats stats = ((HTableMultiCluster) table).getStats();
-              stats.printStats(writer, 5000);
 
               int hash = r.nextInt(10);
 
@@ -139,11 +144,6 @@ public class MultiThreadedMultiClusterWithCombinedFileTest {
             e.printStackTrace();
           } finally {
             threadFinishCounter.incrementAndGet();
-            try {
-              writer.close();
-            } catch (IOException e) {
-              e.printStackTrace();
-            }
           }
         }
       });
@@ -154,6 +154,11 @@ public class MultiThreadedMultiClusterWithCombinedFileTest {
       Thread.sleep(millisecondToWait * 10);
     }
 
+    if (stats != null) {
+      stats.removeListener(reporter);
+    }
+    writer.close();
+
     admin.disableTable(TableName.valueOf(tableName));
     admin.deleteTable(TableName.valueOf(tableName));
 
@@ -73,6 +73,8 @@ public class RunMultiClusterTest {
     
     config.set("hbase.client.retries.number", "1");
     config.set("hbase.client.pause", "1");
+    // the test rolls the stats itself, every 100 operations
+    config.setLong(ConfigConst.HBASE_MULTI_CLUSTER_STATS_INTERVAL_CONFIG, 0);
     
     HConnection connection = HConnectionManagerMultiClusterWrapper.createConnection(config);
     
@@ -0,0 +1,71 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyRecorderTest {
+
+  @Test
+  public void testIntervalPercentiles() {
+    LatencyRecorder recorder = new LatencyRecorder(TimeUnit.MINUTES.toNanos(1), 6);
+    for (long i = 1; i <= 10000; i++) {
+      recorder.record(i * 1000);
+    }
+
+    LatencyRecorder.Snapshot snapshot = recorder.getIntervalSnapshot();
+    assertEquals(10000, snapshot.getCount());
+    assertEquals(10000000, snapshot.getMax());
+    assertWithinPrecision(5000000, snapshot.get50thPercentile());
+    assertWithinPrecision(9000000, snapshot.get90thPercentile());
+    assertWithinPrecision(9900000, snapshot.get99thPercentile());
+    assertWithinPrecision(9990000, snapshot.get999thPercentile());
+
+    LatencyRecorder.Snapshot next = recorder.getIntervalSnapshot();
+    assertEquals(0, next.getCount());
+    assertEquals(10000, next.merge(snapshot).getCount());
+  }
+
+  @Test
+  public void testEverySampleLandsInOneInterval() throws Exception {
+    final LatencyRecorder recorder = new LatencyRecorder(TimeUnit.MINUTES.toNanos(1), 6);
+    final AtomicBoolean isRunning = new AtomicBoolean(true);
+    final long[] recorded = new long[4];
+    Thread[] writers = new Thread[recorded.length];
+    for (int i = 0; i < writers.length; i++) {
+      final int writer = i;
+      writers[i] = new Thread() {
+        @Override
+        public void run() {
+          while (isRunning.get()) {
+            recorder.record(recorded[writer]++);
+          }
+        }
+      };
+      writers[i].start();
+    }
+
+    long counted = 0;
+    for (int i = 0; i < 100; i++) {
+      counted += recorder.getIntervalSnapshot().getCount();
+    }
+    isRunning.set(false);
+    long total = 0;
+    for (int i = 0; i < writers.length; i++) {
+      writers[i].join();
+      total += recorded[i];
+    }
+    counted += recorder.getIntervalSnapshot().getCount();
+
+    assertEquals(total, counted);
+  }
+
+  private static void assertWithinPrecision(long expected, long actual) {
+    assertTrue("expected " + expected + " but was " + actual,
+        Math.abs(actual - expected) <= expected / 32);
+  }
+}
@@ -0,0 +1,94 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MerkleTreeTest {
+
+  static final byte[] FAMILY = Bytes.toBytes("f");
+  static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  static KeyValue cell(String row, long ts, String value) {
+    return new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, ts, Bytes.toBytes(value));
+  }
+
+  @Test
+  public void testLeafCountIsRoundedUp() {
+    assertEquals(1, new MerkleTree(1).getLeafCount());
+    assertEquals(8, new MerkleTree(5).getLeafCount());
+    assertEquals(1024, new MerkleTree(1024).getLeafCount());
+  }
+
+  @Test
+  public void testSameCellsInAnyOrderDoNotDiffer() {
+    MerkleTree tree = new MerkleTree(64);
+    MerkleTree other = new MerkleTree(64);
+    for (int i = 0; i < 100; i++) {
+      tree.add(cell("row" + i, i, "v" + i));
+    }
+    for (int i = 99; i >= 0; i--) {
+      other.add(cell("row" + i, i, "v" + i));
+    }
+    assertEquals(tree.getRoot(), other.getRoot());
+    assertTrue(tree.diff(other).isEmpty());
+  }
+
+  @Test
+  public void testDiffFindsTheLeafOfTheRow() {
+    MerkleTree tree = new MerkleTree(64);
+    MerkleTree other = new MerkleTree(64);
+    for (int i = 0; i < 100; i++) {
+      tree.add(cell("row" + i, i, "v" + i));
+      other.add(cell("row" + i, i, i == 42 ? "changed" : "v" + i));
+    }
+    List<Integer> differing = tree.diff(other);
+    assertEquals(Collections.singletonList(tree.leafOf(Bytes.toBytes("row42"))), differing);
+    assertEquals(differing, other.diff(tree));
+
+    MerkleTree missing = new MerkleTree(64);
+    missing.add(cell("row7", 7, "v7"));
+    assertEquals(Arrays.asList(tree.leafOf(Bytes.toBytes("row7"))),
+        missing.diff(newTree(cell("row7", 7, "v7"), cell("row7", 8, "v8"))));
+  }
+
+  @Test
+  public void testDeleteMarkersAreHashed() {
+    MerkleTree tree = newTree(cell("row", 1, "v"));
+    MerkleTree deleted = newTree(cell("row", 1, "v"),
+        new KeyValue(Bytes.toBytes("row"), FAMILY, null, 2, KeyValue.Type.DeleteFamily));
+    assertEquals(1, tree.diff(deleted).size());
+  }
+
+  @Test
+  public void testAddedTreeIsTheTreeOfBoth() {
+    MerkleTree older = new MerkleTree(16);
+    MerkleTree newer = new MerkleTree(16);
+    MerkleTree all = new MerkleTree(16);
+    for (int i = 0; i < 50; i++) {
+      KeyValue kv = cell("row" + i, i, "v" + i);
+      (i < 25 ? older : newer).add(kv);
+      all.add(kv);
+    }
+    // compute the nodes before adding, which the add has to drop
+    older.getRoot();
+    older.add(newer);
+    assertEquals(all.getRoot(), older.getRoot());
+    assertTrue(older.diff(all).isEmpty());
+  }
+
+  private static MerkleTree newTree(KeyValue... cells) {
+    MerkleTree tree = new MerkleTree(64);
+    for (KeyValue cell : cells) {
+      tree.add(cell);
+    }
+    return tree;
+  }
+}
@@ -0,0 +1,108 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MultiClusterAntiEntropyTest {
+
+  File stateDir;
+
+  @Before
+  public void setUp() throws Exception {
+    stateDir = File.createTempFile("anti-entropy", "");
+    stateDir.delete();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = stateDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    stateDir.delete();
+  }
+
+  private MultiClusterAntiEntropy newAntiEntropy(int clusterCount, int leafCount) {
+    return new MultiClusterAntiEntropy(new HConnection[clusterCount], stateDir, leafCount, 0, 1);
+  }
+
+  @Test
+  public void testStateRoundTrip() throws Exception {
+    MultiClusterAntiEntropy antiEntropy = newAntiEntropy(2, 16);
+    List<MultiClusterAntiEntropy.RangeState> ranges =
+        new ArrayList<MultiClusterAntiEntropy.RangeState>();
+    byte[][] keys = { HConstants.EMPTY_START_ROW, Bytes.toBytes("m"), HConstants.EMPTY_END_ROW };
+    for (int r = 0; r < 2; r++) {
+      MerkleTree[] sealed = { new MerkleTree(16), new MerkleTree(16) };
+      for (int c = 0; c < sealed.length; c++) {
+        sealed[c].add(new KeyValue(Bytes.toBytes("row" + r), Bytes.toBytes("f"),
+            Bytes.toBytes("q"), 1000 + c, Bytes.toBytes("v")));
+      }
+      ranges.add(new MultiClusterAntiEntropy.RangeState(keys[r], keys[r + 1], 5000 + r, sealed));
+    }
+    File stateFile = new File(stateDir, "table.state");
+    antiEntropy.saveState(stateFile, ranges);
+
+    TreeMap<byte[], MultiClusterAntiEntropy.RangeState> loaded = antiEntropy.loadState(stateFile);
+    assertEquals(2, loaded.size());
+    for (MultiClusterAntiEntropy.RangeState range : ranges) {
+      MultiClusterAntiEntropy.RangeState read = loaded.get(range.startKey);
+      assertArrayEquals(range.endKey, read.endKey);
+      assertEquals(range.sealTime, read.sealTime);
+      assertEquals(range.sealed.length, read.sealed.length);
+      for (int c = 0; c < range.sealed.length; c++) {
+        assertArrayEquals(range.sealed[c].leaves, read.sealed[c].leaves);
+        assertEquals(range.sealed[c].getRoot(), read.sealed[c].getRoot());
+      }
+    }
+  }
+
+  @Test
+  public void testStateOfOtherClustersOrLeavesIsIgnored() throws Exception {
+    File stateFile = new File(stateDir, "table.state");
+    newAntiEntropy(2, 16).saveState(stateFile,
+        new ArrayList<MultiClusterAntiEntropy.RangeState>());
+
+    assertEquals(0, newAntiEntropy(2, 16).loadState(stateFile).size());
+    assertNull(newAntiEntropy(3, 16).loadState(stateFile));
+    assertNull(newAntiEntropy(2, 32).loadState(stateFile));
+  }
+
+  @Test
+  public void testStateOfOlderVersionIsIgnored() throws Exception {
+    stateDir.mkdirs();
+    File stateFile = new File(stateDir, "table.state");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(stateFile));
+    try {
+      out.writeInt(MultiClusterAntiEntropy.STATE_VERSION - 1);
+      out.writeInt(2);
+      out.writeInt(16);
+      out.writeInt(0);
+    } finally {
+      out.close();
+    }
+    assertNull(newAntiEntropy(2, 16).loadState(stateFile));
+  }
+
+  @Test
+  public void testMissingStateIsNull() throws Exception {
+    assertNull(newAntiEntropy(2, 16).loadState(new File(stateDir, "missing.state")));
+  }
+}
@@ -0,0 +1,85 @@
+package org.apache.hadoop.hbase.client;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MutationBufferTest {
+
+  static final byte[] ROW = Bytes.toBytes("row");
+  static final byte[] FAMILY = Bytes.toBytes("f");
+  static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  @Test
+  public void testDeleteThenPutOfOneRowKeepsItsOrder() throws InterruptedException {
+    MutationBuffer buffer = new MutationBuffer(4);
+
+    Delete delete = HTableMultiCluster.setTimeStampOfUnsetValues(
+        new Delete(ROW), System.currentTimeMillis());
+    Thread.sleep(2);
+    Put put = new Put(ROW);
+    put.add(FAMILY, QUALIFIER, Bytes.toBytes("value"));
+    HTableMultiCluster.setTimeStampOfUnsetValues(put, System.currentTimeMillis());
+    buffer.add(delete);
+    buffer.add(put);
+
+    List<Mutation> drained = null;
+    for (int i = 0; i < buffer.getStripeCount(); i++) {
+      if (buffer.getStripeSize(i) > 0) {
+        drained = buffer.drain(i);
+      }
+    }
+    assertEquals(0, buffer.getSize());
+    List<List<Mutation>> runs = MutationBuffer.splitIntoRuns(drained);
+    assertEquals(2, runs.size());
+    assertSame(delete, runs.get(0).get(0));
+    assertSame(put, runs.get(1).get(0));
+
+    // the row delete was stamped when buffered, so it cannot hide the put
+    long deleteStamp = delete.getTimeStamp();
+    assertTrue(deleteStamp != HConstants.LATEST_TIMESTAMP);
+    for (Cell cell : put.getFamilyCellMap().get(FAMILY)) {
+      assertTrue(cell.getTimestamp() > deleteStamp);
+    }
+  }
+
+  @Test
+  public void testDeleteMarkersAreStamped() {
+    long ts = System.currentTimeMillis();
+    Delete delete = new Delete(ROW);
+    delete.deleteFamily(FAMILY);
+    delete.deleteColumns(FAMILY, QUALIFIER);
+    delete.deleteColumn(FAMILY, Bytes.toBytes("latest"));
+    HTableMultiCluster.setTimeStampOfUnsetValues(delete, ts);
+
+    for (Cell cell : delete.getFamilyCellMap().get(FAMILY)) {
+      if (cell.getTypeByte() == KeyValue.Type.Delete.getCode()) {
+        // resolved by the region server to the latest version
+        assertEquals(HConstants.LATEST_TIMESTAMP, cell.getTimestamp());
+      } else {
+        assertEquals(ts, cell.getTimestamp());
+      }
+    }
+  }
+
+  @Test
+  public void testSplitIntoRunsKeepsRowsApart() {
+    Put first = new Put(ROW);
+    Put other = new Put(Bytes.toBytes("other"));
+    Delete second = new Delete(ROW);
+    List<List<Mutation>> runs = MutationBuffer.splitIntoRuns(
+        Arrays.<Mutation>asList(first, other, second));
+    assertEquals(2, runs.size());
+    assertEquals(2, runs.get(0).size());
+    assertSame(second, runs.get(1).get(0));
+  }
+}
@@ -0,0 +1,154 @@
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpeculativeMutaterTest {
+
+  static final int FAILOVERS = 8;
+  static final int PAIRS = 10000;
+
+  static HTableInterface newTable(final String name) {
+    return (HTableInterface)Proxy.newProxyInstance(HTableInterface.class.getClassLoader(),
+        new Class<?>[] { HTableInterface.class }, new InvocationHandler() {
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("hashCode")) {
+          return System.identityHashCode(proxy);
+        } else if (method.getName().equals("equals")) {
+          return proxy == args[0];
+        } else if (method.getName().equals("toString")) {
+          return name;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+  }
+
+  static final CircuitBreaker CLOSED = new CircuitBreaker() {
+    public boolean allowRequest() {
+      return true;
+    }
+
+    public void recordSuccess() {
+    }
+
+    public void recordFailure(Throwable t) {
+    }
+  };
+
+  /**
+   * The failover writes of a put whose primary failed keep running after the
+   * put returns, while the next put of the thread reuses the pooled primary
+   * call.  They must still reach every failover once that primary succeeds.
+   */
+  @Test
+  public void testBackToBackPutsReachEveryFailover() throws Exception {
+    final HTableInterface primary = newTable("primary");
+    List<HTableInterface> failovers = new ArrayList<HTableInterface>();
+    final Map<HTableInterface, Set<Integer>> received =
+        new ConcurrentHashMap<HTableInterface, Set<Integer>>();
+    for (int i = 0; i < FAILOVERS; i++) {
+      HTableInterface failover = newTable("failover" + i);
+      failovers.add(failover);
+      received.put(failover, Collections.newSetFromMap(
+          new ConcurrentHashMap<Integer, Boolean>()));
+    }
+
+    HedgeDelay hedgeDelay = new HedgeDelay(1000, 0);
+    HedgingBudget budget = new HedgingBudget(1, 100, 1000);
+    HedgingScheduler scheduler = new HedgingScheduler(4);
+    try {
+      for (int i = 0; i < PAIRS; i++) {
+        final int put = i;
+        // the primary fails the first put, so every failover gets it
+        Boolean isPrimary = SpeculativeMutater.mutate(hedgeDelay, 0,
+            new HBaseTableFunction<Void>() {
+              public Void call(HTableInterface table) throws Exception {
+                if (table == primary) {
+                  throw new IOException("Primary is down");
+                }
+                received.get(table).add(put);
+                return null;
+              }
+            }, primary, failovers, CLOSED, budget, scheduler);
+        assertEquals(Boolean.FALSE, isPrimary);
+
+        // and takes the second one right away
+        isPrimary = SpeculativeMutater.mutate(hedgeDelay, 0,
+            new HBaseTableFunction<Void>() {
+              public Void call(HTableInterface table) throws Exception {
+                return null;
+              }
+            }, primary, failovers, CLOSED, budget, scheduler);
+        assertEquals(Boolean.TRUE, isPrimary);
+      }
+    } finally {
+      ExecutorService executor = scheduler.getExecutor();
+      scheduler.shutdown();
+      assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+
+    for (HTableInterface failover : failovers) {
+      assertEquals(failover + " missed puts", PAIRS, received.get(failover).size());
+    }
+  }
+
+  /**
+   * A failover winning the race tells nothing about the primary, whose write
+   * may still land, so the listener waits for the primary's own outcome.
+   */
+  @Test
+  public void testFailoverListenerWaitsForThePrimary() throws Exception {
+    final HTableInterface primary = newTable("primary");
+    List<HTableInterface> failovers = Collections.singletonList(newTable("failover"));
+    final CountDownLatch primaryRelease = new CountDownLatch(1);
+    final CountDownLatch notified = new CountDownLatch(1);
+    final AtomicReference<Boolean> isPrimarySucceeded = new AtomicReference<Boolean>();
+
+    HedgingScheduler scheduler = new HedgingScheduler(4);
+    try {
+      Boolean isPrimary = SpeculativeMutater.mutate(new HedgeDelay(10, 0), 0,
+          new HBaseTableFunction<Void>() {
+            public Void call(HTableInterface table) throws Exception {
+              if (table == primary) {
+                primaryRelease.await();
+                throw new IOException("Primary is down");
+              }
+              return null;
+            }
+          }, primary, failovers, CLOSED, new HedgingBudget(1, 100, 1000), scheduler, null,
+          new SpeculativeMutater.FailoverListener() {
+            public void onFailoverAcknowledged(boolean isSucceeded) {
+              isPrimarySucceeded.set(isSucceeded);
+              notified.countDown();
+            }
+          });
+      assertEquals(Boolean.FALSE, isPrimary);
+      assertNull(isPrimarySucceeded.get());
+
+      primaryRelease.countDown();
+      assertTrue(notified.await(30, TimeUnit.SECONDS));
+      assertEquals(Boolean.FALSE, isPrimarySucceeded.get());
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+}